@@ -0,0 +1,79 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the compression codecs and levels on a payload of 1000 realistic log entries. Besides the time
+ * per payload, the {@code uncompressedBytes} and {@code compressedBytes} counters give the throughput on
+ * each side of the compressor, and their quotient the compression ratio.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CompressionBenchmark {
+
+    @Param({"gzip:1", "gzip:6", "gzip:9", "zstd:1", "zstd:3", "zstd:9", "none:0"})
+    public String codec;
+
+    private List<byte[]> entries;
+    private PayloadEncoder encoder;
+    private BufferFreeList freeBuffers;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Sizes {
+        public long uncompressedBytes;
+        public long compressedBytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] parts = codec.split(":");
+        CompressionType type = CompressionType.forName(parts[0]);
+        entries = LogSamples.jsonEntries(1000, 42);
+        freeBuffers = new BufferFreeList(1, 65536);
+        encoder = new PayloadEncoder(freeBuffers, type.newCompressor(Integer.parseInt(parts[1]), freeBuffers));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        encoder.close();
+    }
+
+    @Benchmark
+    public Payload compressPayload(Sizes sizes) {
+        encoder.begin();
+        for (byte[] entry : entries) {
+            encoder.append(entry, 0, entry.length);
+        }
+        Payload payload = encoder.finish();
+        sizes.uncompressedBytes += payload.uncompressedBytes;
+        sizes.compressedBytes += payload.compressedBytes();
+        freeBuffers.release(payload.body);
+        return payload;
+    }
+}
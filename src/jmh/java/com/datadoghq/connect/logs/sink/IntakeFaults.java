@@ -0,0 +1,81 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+/**
+ * Misbehaviors of the real intake that an {@link IntakeStub} reproduces: slow responses, throttling, server
+ * errors, connections reset mid-request and bodies read slowly. Rates are the fraction of requests affected,
+ * drawn independently for each request. None are injected by default.
+ */
+final class IntakeFaults {
+    long latencyMs;
+    long latencyJitterMs;
+    double throttleRate;
+    int retryAfterSeconds;
+    double errorRate;
+    double resetRate;
+    long readBytesPerSecond;
+    boolean validate;
+
+    /**
+     * Delays every response by {@code latencyMs}, plus a uniformly random delay of up to {@code jitterMs}.
+     */
+    IntakeFaults latency(long latencyMs, long jitterMs) {
+        this.latencyMs = latencyMs;
+        this.latencyJitterMs = jitterMs;
+        return this;
+    }
+
+    /**
+     * Answers {@code rate} of the requests with 429, with a {@code Retry-After} header unless
+     * {@code retryAfterSeconds} is 0.
+     */
+    IntakeFaults throttle(double rate, int retryAfterSeconds) {
+        this.throttleRate = rate;
+        this.retryAfterSeconds = retryAfterSeconds;
+        return this;
+    }
+
+    /**
+     * Answers {@code rate} of the requests with a 500, 502 or 503.
+     */
+    IntakeFaults errors(double rate) {
+        this.errorRate = rate;
+        return this;
+    }
+
+    /**
+     * Resets the connection of {@code rate} of the requests before reading their body.
+     */
+    IntakeFaults resets(double rate) {
+        this.resetRate = rate;
+        return this;
+    }
+
+    /**
+     * Reads request bodies at no more than {@code bytesPerSecond}, 0 for no limit.
+     */
+    IntakeFaults readBytesPerSecond(long bytesPerSecond) {
+        this.readBytesPerSecond = bytesPerSecond;
+        return this;
+    }
+
+    /**
+     * Decompresses and checks every payload against the limits of the intake, rejecting those that exceed them.
+     */
+    IntakeFaults validate(boolean validate) {
+        this.validate = validate;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "latency=" + latencyMs + "ms+" + latencyJitterMs + "ms"
+                + " throttle=" + throttleRate + " retryAfter=" + retryAfterSeconds + "s"
+                + " errors=" + errorRate + " resets=" + resetRate
+                + " readBytesPerSecond=" + readBytesPerSecond + " validate=" + validate;
+    }
+}
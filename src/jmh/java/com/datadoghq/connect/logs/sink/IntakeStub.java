@@ -0,0 +1,260 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import com.github.luben.zstd.ZstdInputStream;
+import org.eclipse.jetty.io.EndPoint;
+import org.eclipse.jetty.io.SocketChannelEndPoint;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Local stand-in for the logs intake that reads and discards request bodies. Unlike the {@code RestHelper}
+ * of the unit tests it keeps nothing in memory, so it can take requests for as long as a benchmark runs.
+ * <p>
+ * It can also misbehave as described by its {@link IntakeFaults}, and count what it did to each request.
+ */
+class IntakeStub extends HttpServlet {
+    // Limits of the intake on uncompressed payloads.
+    static final int MAXIMUM_PAYLOAD_BYTES = 5_000_000;
+    static final int MAXIMUM_ENTRY_BYTES = 1_000_000;
+    static final int MAXIMUM_PAYLOAD_ENTRIES = 1000;
+
+    private static final int[] ERROR_STATUSES = {500, 502, 503};
+
+    private final IntakeFaults faults;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong entries = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong reset = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private Server server;
+    private ServerConnector connector;
+
+    IntakeStub() {
+        this(new IntakeFaults());
+    }
+
+    IntakeStub(IntakeFaults faults) {
+        this.faults = faults;
+    }
+
+    void start() throws Exception {
+        server = new Server();
+        connector = new ServerConnector(server);
+        connector.setPort(0);
+        ServletContextHandler handler = new ServletContextHandler();
+        handler.addServlet(new ServletHolder("intake", this), "/api/v2/logs");
+        server.setHandler(handler);
+        server.addConnector(connector);
+        server.start();
+    }
+
+    void stop() throws Exception {
+        server.stop();
+    }
+
+    /**
+     * @return the {@code datadog.url} of the stub.
+     */
+    String url() {
+        return "localhost:" + connector.getLocalPort();
+    }
+
+    long requests() {
+        return requests.get();
+    }
+
+    long bytes() {
+        return bytes.get();
+    }
+
+    long accepted() {
+        return accepted.get();
+    }
+
+    /**
+     * @return the log entries of the accepted payloads, only counted when payloads are validated.
+     */
+    long entries() {
+        return entries.get();
+    }
+
+    long throttled() {
+        return throttled.get();
+    }
+
+    long failed() {
+        return failed.get();
+    }
+
+    long reset() {
+        return reset.get();
+    }
+
+    long rejected() {
+        return rejected.get();
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        requests.incrementAndGet();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() < faults.resetRate) {
+            reset.incrementAndGet();
+            resetConnection(request);
+            return;
+        }
+
+        byte[] body = readBody(request);
+        bytes.addAndGet(body.length);
+        sleep(faults.latencyMs + (faults.latencyJitterMs > 0 ? random.nextLong(faults.latencyJitterMs + 1) : 0));
+
+        response.setContentType("application/json");
+        if (random.nextDouble() < faults.throttleRate) {
+            throttled.incrementAndGet();
+            if (faults.retryAfterSeconds > 0) {
+                response.setHeader("Retry-After", String.valueOf(faults.retryAfterSeconds));
+            }
+            response.setStatus(429);
+        } else if (random.nextDouble() < faults.errorRate) {
+            failed.incrementAndGet();
+            response.setStatus(ERROR_STATUSES[random.nextInt(ERROR_STATUSES.length)]);
+        } else {
+            int status = faults.validate ? validate(body, request.getHeader("Content-Encoding")) : HttpServletResponse.SC_ACCEPTED;
+            if (status == HttpServletResponse.SC_ACCEPTED) {
+                accepted.incrementAndGet();
+            } else {
+                rejected.incrementAndGet();
+            }
+            response.setStatus(status);
+        }
+        response.getWriter().write("{}");
+    }
+
+    private byte[] readBody(HttpServletRequest request) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(Math.max(request.getContentLength(), 0));
+        byte[] buffer = new byte[8192];
+        try (InputStream in = request.getInputStream()) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                body.write(buffer, 0, n);
+                if (faults.readBytesPerSecond > 0) {
+                    sleep(TimeUnit.SECONDS.toMillis(n) / faults.readBytesPerSecond);
+                }
+            }
+        }
+        return body.toByteArray();
+    }
+
+    /**
+     * Closes the connection with a TCP reset, which the client sees as an I/O error rather than a response.
+     */
+    private static void resetConnection(HttpServletRequest request) throws IOException {
+        Request baseRequest = Request.getBaseRequest(request);
+        EndPoint endPoint = baseRequest.getHttpChannel().getEndPoint();
+        if (endPoint instanceof SocketChannelEndPoint) {
+            ((SocketChannelEndPoint) endPoint).getSocket().setSoLinger(true, 0);
+        }
+        baseRequest.getHttpChannel().abort(new IOException("Connection reset by the intake stub"));
+    }
+
+    /**
+     * @return 202 if the payload is a well-formed JSON array within the limits of the intake, 413 if it is too
+     * large and 400 otherwise.
+     */
+    private int validate(byte[] body, String contentEncoding) throws IOException {
+        byte[] json = decompress(body, contentEncoding);
+        if (json.length > MAXIMUM_PAYLOAD_BYTES) {
+            return HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE;
+        }
+        // Payloads are written without whitespace, so entries start right after the bracket or a comma.
+        if (json.length == 0 || json[0] != '[' || !JsonValidator.isValid(json, 0, json.length)) {
+            return HttpServletResponse.SC_BAD_REQUEST;
+        }
+        int count = 0;
+        int depth = 0;
+        int entryStart = 1;
+        boolean inString = false;
+        for (int i = 1; i < json.length; i++) {
+            byte b = json[i];
+            if (inString) {
+                if (b == '\\') {
+                    i++;
+                } else if (b == '"') {
+                    inString = false;
+                }
+            } else if (b == '"') {
+                inString = true;
+            } else if (b == '{' || b == '[') {
+                depth++;
+            } else if ((b == '}' || b == ']') && depth > 0) {
+                depth--;
+            } else if ((b == ',' || b == ']') && depth == 0 && i > entryStart) {
+                // The end of an entry of the payload array.
+                if (i - entryStart > MAXIMUM_ENTRY_BYTES) {
+                    return HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE;
+                }
+                count++;
+                entryStart = i + 1;
+            }
+        }
+        if (count > MAXIMUM_PAYLOAD_ENTRIES) {
+            return HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE;
+        }
+        entries.addAndGet(count);
+        return HttpServletResponse.SC_ACCEPTED;
+    }
+
+    private static byte[] decompress(byte[] body, String contentEncoding) throws IOException {
+        InputStream in;
+        if ("gzip".equals(contentEncoding)) {
+            in = new GZIPInputStream(new ByteArrayInputStream(body));
+        } else if ("zstd".equals(contentEncoding)) {
+            in = new ZstdInputStream(new ByteArrayInputStream(body));
+        } else {
+            return body;
+        }
+        ByteArrayOutputStream json = new ByteArrayOutputStream(body.length * 4);
+        byte[] buffer = new byte[8192];
+        try (InputStream decompressed = in) {
+            int n;
+            while ((n = decompressed.read(buffer)) != -1) {
+                json.write(buffer, 0, n);
+            }
+        }
+        return json.toByteArray();
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,400 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.connect.errors.ConnectException;
+import org.apache.kafka.connect.errors.RetriableException;
+import org.apache.kafka.connect.sink.ErrantRecordReporter;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.apache.kafka.connect.sink.SinkTaskContext;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Offline load test of a task against an {@link IntakeStub}, to compare settings and releases under the same
+ * load and faults. Records are put at a target rate the way Connect would: a put failing with a
+ * {@link RetriableException} is retried with the same records after the timeout the task asked for, and offsets
+ * are committed periodically. A report of the throughput, put latency, retries and memory is printed at the end.
+ * <p>
+ * Options are {@code key=value} arguments, see {@link #USAGE}; those starting with {@code datadog.} are passed
+ * to the task as is.
+ */
+public final class LoadTest {
+    static final String USAGE = "Options, as key=value arguments:\n"
+            + "  rate                    records put per second (10000)\n"
+            + "  duration                seconds to put records for (60)\n"
+            + "  records.per.put         records per put (500)\n"
+            + "  partitions              partitions the records are spread over (4)\n"
+            + "  shape                   MAP, STRUCT or LARGE_STRING (MAP)\n"
+            + "  headers                 whether records have headers (false)\n"
+            + "  commit.interval.ms      time between offset commits (10000)\n"
+            + "  latency.ms              delay of every response of the intake (0)\n"
+            + "  latency.jitter.ms       random delay added to it (0)\n"
+            + "  throttle.rate           fraction of requests answered with 429 (0)\n"
+            + "  retry.after.s           Retry-After of those responses, 0 for none (0)\n"
+            + "  error.rate              fraction of requests answered with 500, 502 or 503 (0)\n"
+            + "  reset.rate              fraction of connections reset (0)\n"
+            + "  read.bytes.per.second   read throughput of the intake, 0 for no limit (0)\n"
+            + "  validate                whether the intake checks payload limits (true)\n"
+            + "  datadog.*               settings of the task";
+
+    private static final String TOPIC = "logs";
+    private static final int SAMPLES = 10_000;
+    private static final long MEMORY_SAMPLE_INTERVAL_MS = 100;
+
+    private final int rate;
+    private final int durationSeconds;
+    private final int recordsPerPut;
+    private final int partitions;
+    private final RecordShape shape;
+    private final boolean headers;
+    private final long commitIntervalMs;
+    private final IntakeFaults faults;
+    private final Map<String, String> taskSettings;
+
+    LoadTest(Map<String, String> options) {
+        Map<String, String> remaining = new HashMap<>(options);
+        this.rate = Integer.parseInt(option(remaining, "rate", "10000"));
+        this.durationSeconds = Integer.parseInt(option(remaining, "duration", "60"));
+        this.recordsPerPut = Integer.parseInt(option(remaining, "records.per.put", "500"));
+        this.partitions = Integer.parseInt(option(remaining, "partitions", "4"));
+        this.shape = RecordShape.valueOf(option(remaining, "shape", "MAP").toUpperCase());
+        this.headers = Boolean.parseBoolean(option(remaining, "headers", "false"));
+        this.commitIntervalMs = Long.parseLong(option(remaining, "commit.interval.ms", "10000"));
+        this.faults = new IntakeFaults()
+                .latency(Long.parseLong(option(remaining, "latency.ms", "0")),
+                        Long.parseLong(option(remaining, "latency.jitter.ms", "0")))
+                .throttle(Double.parseDouble(option(remaining, "throttle.rate", "0")),
+                        Integer.parseInt(option(remaining, "retry.after.s", "0")))
+                .errors(Double.parseDouble(option(remaining, "error.rate", "0")))
+                .resets(Double.parseDouble(option(remaining, "reset.rate", "0")))
+                .readBytesPerSecond(Long.parseLong(option(remaining, "read.bytes.per.second", "0")))
+                .validate(Boolean.parseBoolean(option(remaining, "validate", "true")));
+
+        this.taskSettings = new HashMap<>();
+        taskSettings.put("name", "loadtest");
+        taskSettings.put(DatadogLogsSinkConnectorConfig.DD_API_KEY, "loadtest");
+        for (Map.Entry<String, String> option : remaining.entrySet()) {
+            if (!option.getKey().startsWith("datadog.")) {
+                throw new IllegalArgumentException("Unknown option " + option.getKey() + "\n" + USAGE);
+            }
+            taskSettings.put(option.getKey(), option.getValue());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals < 0) {
+                System.err.println(USAGE);
+                System.exit(1);
+            }
+            options.put(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+        new LoadTest(options).run();
+    }
+
+    void run() throws Exception {
+        IntakeStub intake = new IntakeStub(faults);
+        intake.start();
+        taskSettings.put(DatadogLogsSinkConnectorConfig.DD_URL, intake.url());
+
+        LoadTestContext context = new LoadTestContext(taskSettings, partitions);
+        DatadogLogsSinkTask task = new DatadogLogsSinkTask() {
+            @Override
+            protected void initWriter() {
+                // The stub takes plain HTTP.
+                config = new DatadogLogsSinkConnectorConfig(false, null, taskSettings);
+                super.initWriter();
+            }
+        };
+        task.initialize(context);
+        task.start(taskSettings);
+
+        MemorySampler memory = new MemorySampler();
+        List<SinkRecord> samples = LogSamples.records(TOPIC, shape, SAMPLES, headers, 42);
+        long[] nextOffsets = new long[partitions];
+        List<SinkRecord> put = new ArrayList<>(recordsPerPut);
+        long[] putLatencies = new long[1024];
+        int puts = 0;
+        long recordsPut = 0;
+        long retriedPuts = 0;
+        String failure = null;
+
+        long putIntervalNanos = TimeUnit.SECONDS.toNanos(1) * recordsPerPut / rate;
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+        long nextCommit = start + TimeUnit.MILLISECONDS.toNanos(commitIntervalMs);
+        long nextPut = start;
+        int sample = 0;
+        while (failure == null && System.nanoTime() < end) {
+            put.clear();
+            for (int i = 0; i < recordsPerPut; i++) {
+                SinkRecord record = samples.get(sample);
+                sample = (sample + 1) % SAMPLES;
+                int partition = i % partitions;
+                put.add(new SinkRecord(TOPIC, partition, record.keySchema(), record.key(), record.valueSchema(),
+                        record.value(), nextOffsets[partition]++, record.timestamp(), record.timestampType(),
+                        record.headers()));
+            }
+
+            while (true) {
+                long putStart = System.nanoTime();
+                try {
+                    task.put(put);
+                    break;
+                } catch (RetriableException e) {
+                    retriedPuts++;
+                    TimeUnit.MILLISECONDS.sleep(context.takeTimeout());
+                } catch (ConnectException e) {
+                    failure = e.toString();
+                    break;
+                } finally {
+                    if (puts == putLatencies.length) {
+                        putLatencies = Arrays.copyOf(putLatencies, puts * 2);
+                    }
+                    putLatencies[puts++] = System.nanoTime() - putStart;
+                }
+            }
+            recordsPut += put.size();
+
+            long now = System.nanoTime();
+            if (now >= nextCommit) {
+                task.preCommit(offsets(nextOffsets));
+                nextCommit = now + TimeUnit.MILLISECONDS.toNanos(commitIntervalMs);
+            }
+            // Puts are not made up for when the task falls behind, as Connect only polls once put returns.
+            nextPut = Math.max(nextPut + putIntervalNanos, now);
+            LockSupport.parkNanos(nextPut - System.nanoTime());
+        }
+        long putNanos = System.nanoTime() - start;
+        task.preCommit(offsets(nextOffsets));
+        long totalNanos = System.nanoTime() - start;
+
+        Report report = new Report();
+        report.line("Load", "%d records/s for %ds, %d records per put over %d partitions, %s values%s",
+                rate, durationSeconds, recordsPerPut, partitions, shape, headers ? " with headers" : "");
+        report.line("Intake faults", "%s", faults);
+        if (failure != null) {
+            report.line("Task failed", "%s", failure);
+        }
+        report.line("Records put", "%d, %.0f records/s", recordsPut, recordsPut / seconds(putNanos));
+        double sent = task.metrics.value("record-send-total");
+        report.line("Records sent", "%.0f, %.0f records/s including the final flush", sent, sent / seconds(totalNanos));
+        Arrays.sort(putLatencies, 0, puts);
+        report.line("Put latency", "p50 %.1fms, p99 %.1fms, max %.1fms over %d puts",
+                millis(percentile(putLatencies, puts, 50)), millis(percentile(putLatencies, puts, 99)),
+                millis(puts == 0 ? 0 : putLatencies[puts - 1]), puts);
+        report.line("Retries", "%d puts, %.0f requests; %.0f of %.0f requests failed", retriedPuts,
+                task.metrics.value("request-retry-total"), task.metrics.value("request-error-total"),
+                task.metrics.value("request-total"));
+        report.line("Intake", "%d requests, %d accepted, %d throttled, %d failed, %d reset, %d rejected, %.1f MB",
+                intake.requests(), intake.accepted(), intake.throttled(), intake.failed(), intake.reset(),
+                intake.rejected(), intake.bytes() / 1e6);
+        if (faults.validate) {
+            report.line("Entries accepted", "%d", intake.entries());
+        }
+        report.line("Errant records", "%d", context.errantRecords.get());
+        memory.stop(report);
+
+        task.stop();
+        intake.stop();
+        System.out.print(report);
+    }
+
+    private Map<TopicPartition, OffsetAndMetadata> offsets(long[] nextOffsets) {
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        for (int partition = 0; partition < partitions; partition++) {
+            offsets.put(new TopicPartition(TOPIC, partition), new OffsetAndMetadata(nextOffsets[partition]));
+        }
+        return offsets;
+    }
+
+    private static String option(Map<String, String> options, String key, String defaultValue) {
+        String value = options.remove(key);
+        return value == null ? defaultValue : value;
+    }
+
+    private static long percentile(long[] sorted, int size, int percentile) {
+        if (size == 0) {
+            return 0;
+        }
+        return sorted[Math.max((int) Math.ceil(size * percentile / 100.0) - 1, 0)];
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static final class Report {
+        private final StringBuilder text = new StringBuilder();
+
+        void line(String label, String format, Object... args) {
+            text.append(String.format("%-18s", label + ":")).append(String.format(format, args)).append('\n');
+        }
+
+        @Override
+        public String toString() {
+            return text.toString();
+        }
+    }
+
+    /**
+     * Samples the heap and direct memory used while the test runs, to report their peaks, and counts the
+     * garbage collections that happened meanwhile.
+     */
+    private static final class MemorySampler {
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private final BufferPoolMXBean directBuffers;
+        private final ScheduledExecutorService executor;
+        private final AtomicLong peakHeapBytes = new AtomicLong();
+        private final AtomicLong peakDirectBytes = new AtomicLong();
+        private final long startCollections;
+        private final long startCollectionMs;
+
+        MemorySampler() {
+            BufferPoolMXBean direct = null;
+            for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+                if (pool.getName().equals("direct")) {
+                    direct = pool;
+                }
+            }
+            this.directBuffers = direct;
+            this.startCollections = collections();
+            this.startCollectionMs = collectionMs();
+            this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "loadtest-memory-sampler");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.scheduleAtFixedRate(this::sample, 0, MEMORY_SAMPLE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+
+        private void sample() {
+            peakHeapBytes.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+            if (directBuffers != null) {
+                peakDirectBytes.accumulateAndGet(directBuffers.getMemoryUsed(), Math::max);
+            }
+        }
+
+        void stop(Report report) throws InterruptedException {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+            sample();
+            report.line("Heap", "peak %.1f MB used of %.1f MB max, %d collections taking %d ms",
+                    peakHeapBytes.get() / 1e6, memory.getHeapMemoryUsage().getMax() / 1e6,
+                    collections() - startCollections, collectionMs() - startCollectionMs);
+            report.line("Direct memory", "peak %.1f MB", peakDirectBytes.get() / 1e6);
+        }
+
+        private static long collections() {
+            long count = 0;
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                count += Math.max(collector.getCollectionCount(), 0);
+            }
+            return count;
+        }
+
+        private static long collectionMs() {
+            long time = 0;
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                time += Math.max(collector.getCollectionTime(), 0);
+            }
+            return time;
+        }
+    }
+
+    /**
+     * The context Connect gives a task, keeping the timeout the task asks for before its records are put again
+     * and counting the records reported as errant.
+     */
+    private static final class LoadTestContext implements SinkTaskContext {
+        private final Map<String, String> configs;
+        private final Set<TopicPartition> assignment;
+        private final AtomicLong errantRecords = new AtomicLong();
+        private long timeoutMs;
+
+        LoadTestContext(Map<String, String> configs, int partitions) {
+            this.configs = configs;
+            this.assignment = new HashSet<>();
+            for (int partition = 0; partition < partitions; partition++) {
+                assignment.add(new TopicPartition(TOPIC, partition));
+            }
+        }
+
+        long takeTimeout() {
+            long timeout = timeoutMs;
+            timeoutMs = 0;
+            return timeout;
+        }
+
+        @Override
+        public Map<String, String> configs() {
+            return configs;
+        }
+
+        @Override
+        public void offset(Map<TopicPartition, Long> offsets) {
+        }
+
+        @Override
+        public void offset(TopicPartition tp, long offset) {
+        }
+
+        @Override
+        public void timeout(long timeoutMs) {
+            this.timeoutMs = timeoutMs;
+        }
+
+        @Override
+        public Set<TopicPartition> assignment() {
+            return assignment;
+        }
+
+        @Override
+        public void pause(TopicPartition... partitions) {
+        }
+
+        @Override
+        public void resume(TopicPartition... partitions) {
+        }
+
+        @Override
+        public void requestCommit() {
+        }
+
+        @Override
+        public ErrantRecordReporter errantRecordReporter() {
+            return (record, error) -> {
+                errantRecords.incrementAndGet();
+                return CompletableFuture.<Void>completedFuture(null);
+            };
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.header.ConnectHeaders;
+import org.apache.kafka.connect.sink.SinkRecord;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Deterministic log lines resembling what the connector is typically fed: JSON application logs with a
+ * timestamp, a level, a few identifiers and a free text message of varying length.
+ */
+final class LogSamples {
+    private static final String[] LEVELS = {"INFO", "INFO", "INFO", "DEBUG", "WARN", "ERROR"};
+    private static final String[] SERVICES = {"checkout", "payments", "inventory", "web-frontend", "auth"};
+    private static final String[] WORDS = {
+            "request", "completed", "user", "session", "timeout", "retrying", "cache", "miss", "order",
+            "processed", "failed", "connection", "established", "latency", "upstream", "downstream", "queue"
+    };
+
+    static final Schema LOG_SCHEMA = SchemaBuilder.struct().name("com.example.Log")
+            .field("timestamp", Schema.INT64_SCHEMA)
+            .field("level", Schema.STRING_SCHEMA)
+            .field("service", Schema.STRING_SCHEMA)
+            .field("trace_id", Schema.STRING_SCHEMA)
+            .field("user_id", Schema.INT32_SCHEMA)
+            .field("duration_ms", Schema.OPTIONAL_INT64_SCHEMA)
+            .field("message", Schema.STRING_SCHEMA)
+            .field("tags", SchemaBuilder.array(Schema.STRING_SCHEMA).build())
+            .build();
+
+    private LogSamples() {
+    }
+
+    /**
+     * @return {@code count} records of the given shape on partition 0 of {@code topic}, the same for a given seed.
+     */
+    static List<SinkRecord> records(String topic, RecordShape shape, int count, boolean withHeaders, long seed) {
+        Random random = new Random(seed);
+        List<SinkRecord> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Schema schema = null;
+            Object value;
+            switch (shape) {
+                case MAP:
+                    value = logMap(random, i);
+                    break;
+                case STRUCT:
+                    schema = LOG_SCHEMA;
+                    value = logStruct(random, i);
+                    break;
+                default:
+                    value = largeString(random, 65536);
+            }
+
+            ConnectHeaders headers = new ConnectHeaders();
+            if (withHeaders) {
+                headers.addString("trace_id", Long.toHexString(random.nextLong()));
+                headers.addString("content-type", "application/json");
+                headers.addInt("retry", random.nextInt(3));
+            }
+            records.add(new SinkRecord(topic, 0, Schema.STRING_SCHEMA, "key-" + i, schema, value, i,
+                    1_600_000_000_000L + i, TimestampType.CREATE_TIME, headers));
+        }
+        return records;
+    }
+
+    private static Map<String, Object> logMap(Random random, int i) {
+        Map<String, Object> http = new HashMap<>();
+        http.put("method", random.nextBoolean() ? "GET" : "POST");
+        http.put("status_code", 200 + random.nextInt(4) * 100);
+        http.put("url", "/api/v1/orders/" + random.nextInt(100_000));
+
+        Map<String, Object> map = new HashMap<>();
+        map.put("timestamp", 1_600_000_000_000L + i);
+        map.put("level", LEVELS[random.nextInt(LEVELS.length)]);
+        map.put("service", SERVICES[random.nextInt(SERVICES.length)]);
+        map.put("trace_id", Long.toHexString(random.nextLong()));
+        map.put("duration_ms", random.nextDouble() * 1000);
+        map.put("message", message(random));
+        map.put("http", http);
+        map.put("tags", Arrays.asList("env:prod", "region:us-east-1", "team:" + SERVICES[random.nextInt(SERVICES.length)]));
+        return map;
+    }
+
+    private static Struct logStruct(Random random, int i) {
+        return new Struct(LOG_SCHEMA)
+                .put("timestamp", 1_600_000_000_000L + i)
+                .put("level", LEVELS[random.nextInt(LEVELS.length)])
+                .put("service", SERVICES[random.nextInt(SERVICES.length)])
+                .put("trace_id", Long.toHexString(random.nextLong()))
+                .put("user_id", random.nextInt(100_000))
+                .put("duration_ms", (long) random.nextInt(5_000))
+                .put("message", message(random))
+                .put("tags", Arrays.asList("env:prod", "region:us-east-1"));
+    }
+
+    /**
+     * @return a line of words of about {@code length} characters, with a few quotes and non-ASCII characters
+     * that have to be escaped or encoded on multiple bytes.
+     */
+    static String largeString(Random random, int length) {
+        StringBuilder line = new StringBuilder(length + 16);
+        while (line.length() < length) {
+            line.append(WORDS[random.nextInt(WORDS.length)]);
+            switch (random.nextInt(20)) {
+                case 0:
+                    line.append(" \"quoted\" ");
+                    break;
+                case 1:
+                    line.append(" caf\u00e9 \u65e5\u672c ");
+                    break;
+                default:
+                    line.append(' ');
+            }
+        }
+        return line.toString();
+    }
+
+    private static String message(Random random) {
+        StringBuilder message = new StringBuilder();
+        int words = 4 + random.nextInt(40);
+        for (int w = 0; w < words; w++) {
+            if (w > 0) {
+                message.append(' ');
+            }
+            message.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return message.toString();
+    }
+
+    /**
+     * @return {@code count} JSON log lines, the same for a given seed.
+     */
+    static List<String> jsonLines(int count, long seed) {
+        Random random = new Random(seed);
+        List<String> lines = new ArrayList<>(count);
+        long timestamp = 1_600_000_000_000L;
+        for (int i = 0; i < count; i++) {
+            timestamp += random.nextInt(50);
+            String message = message(random);
+            lines.add("{\"timestamp\":" + timestamp
+                    + ",\"level\":\"" + LEVELS[random.nextInt(LEVELS.length)] + "\""
+                    + ",\"service\":\"" + SERVICES[random.nextInt(SERVICES.length)] + "\""
+                    + ",\"trace_id\":\"" + Long.toHexString(random.nextLong()) + "\""
+                    + ",\"user_id\":" + random.nextInt(100_000)
+                    + ",\"duration_ms\":" + random.nextInt(5_000)
+                    + ",\"message\":\"" + message + "\"}");
+        }
+        return lines;
+    }
+
+    /**
+     * @return the log lines as the UTF-8 entries of a payload.
+     */
+    static List<byte[]> jsonEntries(int count, long seed) {
+        List<byte[]> entries = new ArrayList<>(count);
+        for (String line : jsonLines(count, seed)) {
+            entries.add(line.getBytes(StandardCharsets.UTF_8));
+        }
+        return entries;
+    }
+}
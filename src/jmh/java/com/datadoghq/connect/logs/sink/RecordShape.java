@@ -0,0 +1,18 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+/**
+ * Shapes of record values used by the benchmarks, as produced by the common converters.
+ */
+public enum RecordShape {
+    // Schemaless JSON read with the JsonConverter.
+    MAP,
+    // Avro or JSON with schemas, read with a schema-aware converter.
+    STRUCT,
+    // A 64KB plain text line read with the StringConverter.
+    LARGE_STRING
+}
@@ -0,0 +1,138 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Covers each stage of turning a batch of records into a payload: the conversion of record values to JSON,
+ * interpreted and with the writers compiled per schema, the metadata envelope, the record headers, and the whole
+ * batch including compression. Results are per record, except for {@code formatBatch} which is per batch.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializationBenchmark {
+    private static final int BATCH_SIZE = 500;
+    private static final String TOPIC = "logs";
+
+    @Param({"MAP", "STRUCT", "LARGE_STRING"})
+    public RecordShape shape;
+
+    @Param({"false", "true"})
+    public boolean headers;
+
+    private List<SinkRecord> records;
+    private BufferFreeList freeBuffers;
+    private BatchFormatter formatter;
+    private RecordBuffer buffer;
+    private SchemaSerializers serializers;
+    private HeaderEncoder headerEncoder;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Map<String, String> props = new HashMap<>();
+        props.put(DatadogLogsSinkConnectorConfig.DD_API_KEY, "benchmark");
+        props.put(DatadogLogsSinkConnectorConfig.DD_TAGS, "env:benchmark,team:logs");
+        props.put(DatadogLogsSinkConnectorConfig.DD_SERVICE, "benchmark-service");
+        props.put(DatadogLogsSinkConnectorConfig.DD_HOSTNAME, "benchmark-host");
+        props.put(DatadogLogsSinkConnectorConfig.ADD_PUBLISHED_DATE, "true");
+        props.put(DatadogLogsSinkConnectorConfig.PARSE_RECORD_HEADERS, String.valueOf(headers));
+        DatadogLogsSinkConnectorConfig config = new DatadogLogsSinkConnectorConfig(props);
+
+        records = LogSamples.records(TOPIC, shape, BATCH_SIZE, headers, 42);
+        freeBuffers = new BufferFreeList(1, 65536);
+        formatter = new BatchFormatter(config, freeBuffers, new DatadogLogsSinkMetrics(new Metrics(), Collections.emptyMap()),
+                new ErrantRecords(null));
+        buffer = new RecordBuffer(1024);
+        serializers = new SchemaSerializers();
+        headerEncoder = new HeaderEncoder(config.recordHeadersAllowlist, config.recordHeadersBytesFormat);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        formatter.close();
+    }
+
+    @Benchmark
+    public void formatBatch(Blackhole blackhole) throws Exception {
+        for (Payload payload : formatter.format(TOPIC, records).payloads) {
+            blackhole.consume(payload.compressedBytes());
+            freeBuffers.release(payload.body);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int recordToJson() {
+        int size = 0;
+        for (SinkRecord record : records) {
+            buffer.reset();
+            ConnectJsonSerializer.writeValue(buffer, record.valueSchema(), record.value());
+            size += buffer.size();
+        }
+        return size;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int recordToJsonCompiled() {
+        int size = 0;
+        for (SinkRecord record : records) {
+            buffer.reset();
+            serializers.writeValue(buffer, record.valueSchema(), record.value());
+            size += buffer.size();
+        }
+        return size;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int recordWithMetadata() {
+        int size = 0;
+        for (SinkRecord record : records) {
+            buffer.reset();
+            formatter.writeRecord(TOPIC, record, buffer);
+            size += buffer.size();
+        }
+        return size;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void kafkaHeadersToJson(Blackhole blackhole) {
+        for (SinkRecord record : records) {
+            buffer.reset();
+            headerEncoder.write(buffer, record.headers());
+            blackhole.consume(buffer.size());
+        }
+    }
+}
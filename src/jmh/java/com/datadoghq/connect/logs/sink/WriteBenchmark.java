@@ -0,0 +1,90 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end cost of a put: a poll worth of records written and flushed to a local intake stub over HTTP.
+ * Each invocation writes records with new offsets, as Connect would.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@State(Scope.Thread)
+public class WriteBenchmark {
+    private static final int RECORDS_PER_PUT = 2000;
+
+    @Param({"MAP", "STRUCT"})
+    public RecordShape shape;
+
+    @Param({"1", "4"})
+    public int maxInFlightRequests;
+
+    private IntakeStub intake;
+    private DatadogLogsApiWriter writer;
+    private List<SinkRecord> samples;
+    private List<SinkRecord> put;
+    private long nextOffset;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        intake = new IntakeStub();
+        intake.start();
+
+        Map<String, String> props = new HashMap<>();
+        props.put(DatadogLogsSinkConnectorConfig.DD_API_KEY, "benchmark");
+        props.put(DatadogLogsSinkConnectorConfig.DD_URL, intake.url());
+        props.put(DatadogLogsSinkConnectorConfig.MAX_IN_FLIGHT_REQUESTS, String.valueOf(maxInFlightRequests));
+        writer = new DatadogLogsApiWriter(new DatadogLogsSinkConnectorConfig(false, null, props));
+
+        samples = LogSamples.records("logs", shape, RECORDS_PER_PUT, false, 42);
+        put = new ArrayList<>(RECORDS_PER_PUT);
+    }
+
+    @Setup(Level.Invocation)
+    public void nextPut() {
+        put.clear();
+        for (SinkRecord sample : samples) {
+            put.add(new SinkRecord(sample.topic(), sample.kafkaPartition(), sample.keySchema(), sample.key(),
+                    sample.valueSchema(), sample.value(), nextOffset++, sample.timestamp(), sample.timestampType(),
+                    sample.headers()));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        writer.close();
+        intake.stop();
+    }
+
+    @Benchmark
+    public void writeAndFlush() throws Exception {
+        writer.write(put);
+        writer.flush();
+    }
+}
@@ -29,8 +29,9 @@ public class DatadogLogsSinkConnector extends SinkConnector {
     public List<Map<String, String>> taskConfigs(int maxTasks) {
         log.info("Setting task configurations for {} workers.", maxTasks);
         List<Map<String, String>> taskConfigs = new ArrayList<>();
-        Map<String, String> taskProps = new HashMap<>(configProps);
         for (int i = 0; i < maxTasks; i++) {
+            Map<String, String> taskProps = new HashMap<>(configProps);
+            taskProps.put(DatadogLogsSinkConnectorConfig.TASK_ID, String.valueOf(i));
             taskConfigs.add(taskProps);
         }
         return taskConfigs;
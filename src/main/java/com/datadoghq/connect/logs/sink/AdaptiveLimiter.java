@@ -0,0 +1,159 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sizes the number of requests a task keeps in flight and the size of its batches from the responses of the
+ * intake, additive-increase/multiplicative-decrease style.
+ * <p>
+ * Both limits start low and grow by about one request, and a sixteenth of the maximum batch size, per round
+ * trip while the intake answers quickly. They are halved when the intake throttles the task (429 or 503) or
+ * when a request fails. The concurrency alone is halved when latency grows well above the latency expected for
+ * the size of the payload, which is the sign of a queue building up before requests start failing; the batch
+ * size is left alone, as larger batches take longer anyway. The expected latency is the larger of the lowest
+ * latency seen recently and the payload's bytes at the lowest latency per byte seen recently, so that it grows
+ * with the payload as the time to send and process it does. Limits are halved at most once per round trip, so that the
+ * responses to requests sent before a decrease do not decrease them again.
+ * <p>
+ * When disabled, the limits stay at their configured maximum. The {@code Retry-After} delay asked for by the
+ * intake is tracked either way.
+ * <p>
+ * Not thread-safe: it is only used from the task thread.
+ */
+class AdaptiveLimiter {
+    // Latency above this multiple of the baseline is taken as congestion.
+    static final double LATENCY_TOLERANCE = 2.0;
+    private static final double DECREASE_FACTOR = 0.5;
+    private static final int BATCH_BYTES_STEPS = 16;
+    // How fast the baseline latencies follow latency upwards, so that they adapt to a slower path.
+    private static final double BASELINE_DRIFT = 0.01;
+    private static final long MAX_RETRY_AFTER_NANOS = TimeUnit.MINUTES.toNanos(10);
+
+    private final boolean enabled;
+    private final int maxConcurrency;
+    private final int maxBatchBytes;
+    private final int minBatchBytes;
+
+    private double concurrency;
+    private double batchBytes;
+    private double baselineLatencyNanos;
+    private double baselineNanosPerByte;
+    private long lastDecreaseNanos;
+    private long resumeAtNanos;
+    private boolean throttled;
+
+    AdaptiveLimiter(boolean enabled, int maxConcurrency, int maxBatchBytes) {
+        this.enabled = enabled;
+        this.maxConcurrency = maxConcurrency;
+        this.maxBatchBytes = maxBatchBytes;
+        this.minBatchBytes = Math.max(1, maxBatchBytes / BATCH_BYTES_STEPS);
+        this.concurrency = enabled ? 1 : maxConcurrency;
+        this.batchBytes = enabled ? minBatchBytes : maxBatchBytes;
+        this.baselineLatencyNanos = Double.NaN;
+        this.baselineNanosPerByte = Double.NaN;
+        this.lastDecreaseNanos = Long.MIN_VALUE;
+    }
+
+    /**
+     * @return the number of requests that may be in flight at once.
+     */
+    int concurrencyLimit() {
+        return (int) concurrency;
+    }
+
+    /**
+     * @return the uncompressed size in bytes batches are cut at.
+     */
+    int batchBytesLimit() {
+        return (int) batchBytes;
+    }
+
+    /**
+     * Records a request the intake accepted, with the uncompressed size of its payload.
+     */
+    void onSuccess(int bytes, long latencyNanos, long nowNanos) {
+        throttled = false;
+        if (!enabled) {
+            return;
+        }
+
+        baselineLatencyNanos = follow(baselineLatencyNanos, latencyNanos);
+        baselineNanosPerByte = follow(baselineNanosPerByte, (double) latencyNanos / Math.max(1, bytes));
+
+        double expectedNanos = Math.max(baselineLatencyNanos, baselineNanosPerByte * bytes);
+        if (latencyNanos > expectedNanos * LATENCY_TOLERANCE) {
+            if (decreasing(latencyNanos, nowNanos)) {
+                concurrency = Math.max(1, concurrency * DECREASE_FACTOR);
+            }
+        } else {
+            // One more request, and a step more bytes, per round trip at the current concurrency.
+            concurrency = Math.min(maxConcurrency, concurrency + 1 / concurrency);
+            batchBytes = Math.min(maxBatchBytes, batchBytes + (double) maxBatchBytes / BATCH_BYTES_STEPS / concurrency);
+        }
+    }
+
+    /**
+     * Records a request the intake throttled, with the delay it asked for, or a negative delay if it did not.
+     */
+    void onThrottled(long retryAfterNanos, long latencyNanos, long nowNanos) {
+        throttled = true;
+        if (retryAfterNanos > 0) {
+            resumeAtNanos = Math.max(resumeAtNanos, nowNanos + Math.min(retryAfterNanos, MAX_RETRY_AFTER_NANOS));
+        }
+        if (enabled) {
+            decrease(latencyNanos, nowNanos);
+        }
+    }
+
+    /**
+     * Records a request that failed for any other reason.
+     */
+    void onFailure(long latencyNanos, long nowNanos) {
+        if (enabled) {
+            decrease(latencyNanos, nowNanos);
+        }
+    }
+
+    /**
+     * @return how long in milliseconds the intake asked to wait before sending more requests, or 0.
+     */
+    long retryAfterMs(long nowNanos) {
+        if (!throttled || resumeAtNanos - nowNanos <= 0) {
+            return 0;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(resumeAtNanos - nowNanos);
+    }
+
+    /**
+     * @return the lowest value seen, drifting slowly towards higher values.
+     */
+    private static double follow(double baseline, double value) {
+        if (Double.isNaN(baseline) || value < baseline) {
+            return value;
+        }
+        return baseline + (value - baseline) * BASELINE_DRIFT;
+    }
+
+    private void decrease(long latencyNanos, long nowNanos) {
+        if (decreasing(latencyNanos, nowNanos)) {
+            concurrency = Math.max(1, concurrency * DECREASE_FACTOR);
+            batchBytes = Math.max(minBatchBytes, batchBytes * DECREASE_FACTOR);
+        }
+    }
+
+    /**
+     * @return true if the limits may be decreased, at most once per round trip.
+     */
+    private boolean decreasing(long latencyNanos, long nowNanos) {
+        if (lastDecreaseNanos != Long.MIN_VALUE && nowNanos - lastDecreaseNanos < latencyNanos) {
+            return false;
+        }
+        lastDecreaseNanos = nowNanos;
+        return true;
+    }
+}
@@ -0,0 +1,305 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import org.apache.kafka.connect.errors.DataException;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.datadoghq.connect.logs.sink.DatadogLogsApiWriter.MAXIMUM_BATCH_BYTES;
+import static com.datadoghq.connect.logs.sink.DatadogLogsApiWriter.MAXIMUM_BATCH_ENTRIES;
+
+/**
+ * Turns the records of one topic into compressed JSON payloads ready to be sent to the intake.
+ * <p>
+ * A formatter owns the buffers it encodes into and reuses them from one batch to the next, so it is not
+ * thread-safe: the writer keeps one per formatting thread.
+ */
+class BatchFormatter {
+    private static final byte[] MESSAGE_FIELD = "{\"message\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] PUBLISHED_DATE_FIELD = ",\"published_date\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] KAFKAHEADERS_FIELD = ",\"kafkaheaders\":".getBytes(StandardCharsets.UTF_8);
+
+    // Largest log entry that fits alone in a payload, between its brackets.
+    private static final int MAXIMUM_ENTRY_BYTES = MAXIMUM_BATCH_BYTES - 2;
+
+    private static final Logger log = LoggerFactory.getLogger(BatchFormatter.class);
+
+    /**
+     * What is done with a record whose log entry does not fit in a payload.
+     */
+    enum OversizeAction {
+        // Reported as errant, or only logged if errant records cannot be reported.
+        DROP,
+        // The message is cut so that the entry fits.
+        TRUNCATE,
+        // The message is cut into as many entries as needed.
+        SPLIT;
+
+        static OversizeAction forName(String name) {
+            return valueOf(name.toUpperCase());
+        }
+
+        @Override
+        public String toString() {
+            return name().toLowerCase();
+        }
+    }
+
+    private final DatadogLogsSinkConnectorConfig config;
+    private final RecordBuffer recordBuffer;
+    private final MetadataEnvelope envelope;
+    private final SchemaSerializers serializers;
+    private final HeaderEncoder headerEncoder;
+    private final FieldExtractor fieldExtractor;
+    private final PayloadEncoder payloadEncoder;
+    private final DatadogLogsSinkMetrics metrics;
+    private final ErrantRecords errantRecords;
+
+    BatchFormatter(DatadogLogsSinkConnectorConfig config, BufferFreeList freeBuffers, DatadogLogsSinkMetrics metrics,
+                   ErrantRecords errantRecords) {
+        this.config = config;
+        this.metrics = metrics;
+        this.errantRecords = errantRecords;
+        this.recordBuffer = new RecordBuffer(1024);
+        this.envelope = new MetadataEnvelope(config);
+        this.serializers = new SchemaSerializers();
+        this.headerEncoder = new HeaderEncoder(config.recordHeadersAllowlist, config.recordHeadersBytesFormat);
+        this.fieldExtractor = config.fieldExtractor.enabled() ? config.fieldExtractor : null;
+        this.payloadEncoder = new PayloadEncoder(freeBuffers, config.compressionType.newCompressor(config.compressionLevel, freeBuffers));
+    }
+
+    /**
+     * Encodes the records of a topic into compressed JSON arrays, each below {@link DatadogLogsApiWriter#MAXIMUM_BATCH_BYTES}
+     * once uncompressed and holding at most {@link DatadogLogsApiWriter#MAXIMUM_BATCH_ENTRIES} entries. Entries are
+     * encoded to UTF-8 before being appended, so payloads are cut on their exact size and filled up to the limit.
+     * <p>
+     * Records that cannot be converted to JSON are skipped and returned as errant, so that they do not hold back
+     * the rest of the batch. Records too large for a payload are handled according to
+     * {@link DatadogLogsSinkConnectorConfig#oversizeAction}.
+     *
+     * @return the payloads and the errant records of the batch.
+     * @throws DataException if a record cannot be converted and errant records cannot be reported.
+     */
+    Formatted format(String topic, List<SinkRecord> sinkRecords) throws IOException {
+        long start = System.nanoTime();
+        byte[] topicFields = envelope.topicFields(topic);
+        List<Payload> payloads = new ArrayList<>();
+        List<ErrantRecords.ErrantRecord> errant = new ArrayList<>();
+        payloadEncoder.begin();
+
+        for (SinkRecord record : sinkRecords) {
+            if (record == null || record.value() == null) {
+                continue;
+            }
+
+            recordBuffer.reset();
+            try {
+                writeRecord(record, null, topicFields, recordBuffer);
+            } catch (DataException e) {
+                if (!errantRecords.enabled()) {
+                    throw e;
+                }
+                log.warn("Skipping record {}-{}-{} that cannot be converted to JSON",
+                        record.topic(), record.kafkaPartition(), record.kafkaOffset(), e);
+                metrics.recordConversionError();
+                errant.add(new ErrantRecords.ErrantRecord(record, e));
+                continue;
+            }
+
+            if (recordBuffer.size() > MAXIMUM_ENTRY_BYTES) {
+                handleOversize(record, topicFields, payloads, errant);
+                continue;
+            }
+            appendEntry(payloads);
+        }
+
+        // Add the last batch if it has messages
+        if (payloadEncoder.entries() > 0) {
+            payloads.add(payloadEncoder.finish());
+        }
+
+        metrics.recordFormat(System.nanoTime() - start);
+        return new Formatted(payloads, errant);
+    }
+
+    /**
+     * Appends the entry held by the record buffer, after cutting the payload if the entry does not fit in it.
+     */
+    private void appendEntry(List<Payload> payloads) {
+        int messageSize = recordBuffer.size();
+        int totalBatchSize = payloadEncoder.sizeWith(messageSize);
+
+        // If adding this message would exceed the max batch size
+        if (totalBatchSize >= MAXIMUM_BATCH_BYTES && payloadEncoder.entries() > 0) {
+            log.debug("Splitting batch because of size limits. Bytes of batch after new message was added: {}", totalBatchSize);
+            payloads.add(payloadEncoder.finish());
+            payloadEncoder.begin();
+        } else if (payloadEncoder.entries() >= MAXIMUM_BATCH_ENTRIES) {
+            log.debug("Splitting batch because it holds {} entries", payloadEncoder.entries());
+            payloads.add(payloadEncoder.finish());
+            payloadEncoder.begin();
+        }
+
+        payloadEncoder.append(recordBuffer.array(), 0, messageSize);
+    }
+
+    private void handleOversize(SinkRecord record, byte[] topicFields, List<Payload> payloads,
+                                List<ErrantRecords.ErrantRecord> errant) {
+        int messageSize = recordBuffer.size();
+        Object value = record.value();
+        if (config.oversizeAction != OversizeAction.DROP && value instanceof String) {
+            String message = (String) value;
+            int from = 0;
+            do {
+                int to = writeFitting(record, message, from, topicFields);
+                if (to < 0) {
+                    break;
+                }
+                appendEntry(payloads);
+                from = to;
+            } while (config.oversizeAction == OversizeAction.SPLIT && from < message.length());
+
+            if (from > 0) {
+                log.warn("{} message of record {}-{}-{} that exceeds batch size limit ({} bytes, limit {} bytes)",
+                        config.oversizeAction == OversizeAction.SPLIT ? "Split" : "Truncated",
+                        record.topic(), record.kafkaPartition(), record.kafkaOffset(), messageSize, MAXIMUM_BATCH_BYTES);
+                return;
+            }
+        }
+
+        log.error("Dropping message that exceeds batch size limit ({} bytes, limit {} bytes). Preview: {}",
+                messageSize, MAXIMUM_BATCH_BYTES,
+                new String(recordBuffer.array(), 0, Math.min(messageSize, 500), StandardCharsets.UTF_8));
+        metrics.recordDropped();
+        errant.add(new ErrantRecords.ErrantRecord(record, new DataException("Log entry of " + messageSize
+                + " bytes exceeds the limit of " + MAXIMUM_BATCH_BYTES + " bytes per request")));
+    }
+
+    /**
+     * Writes to the record buffer the entry of the record with as much of {@code message} from {@code from} as fits.
+     *
+     * @return the index in the message the entry stops at, or -1 if not even a character fits.
+     */
+    private int writeFitting(SinkRecord record, String message, int from, byte[] topicFields) {
+        int length = message.length() - from;
+        while (length > 0) {
+            int to = from + length;
+            if (to < message.length() && Character.isHighSurrogate(message.charAt(to - 1))) {
+                to--;
+            }
+            if (to <= from) {
+                return -1;
+            }
+
+            recordBuffer.reset();
+            writeRecord(record, message.substring(from, to), topicFields, recordBuffer);
+            int entryBytes = recordBuffer.size();
+            if (entryBytes <= MAXIMUM_ENTRY_BYTES) {
+                return to;
+            }
+            // Shrink in proportion to the overshoot, with a margin for characters escaped or encoded on several bytes.
+            length = (int) ((long) (to - from) * MAXIMUM_ENTRY_BYTES / entryBytes * 99 / 100);
+        }
+        return -1;
+    }
+
+    /**
+     * Releases the native memory held by the compressor. The formatter cannot be used afterwards.
+     */
+    void close() {
+        payloadEncoder.close();
+    }
+
+    /**
+     * Writes the log entry of a record: its value as {@code message} followed by the Datadog metadata, including
+     * the fields promoted from the value.
+     */
+    void writeRecord(String topic, SinkRecord record, RecordBuffer out) {
+        writeRecord(record, null, envelope.topicFields(topic), out);
+    }
+
+    /**
+     * @param message written as a string in place of the value of the record, unless null.
+     */
+    private void writeRecord(SinkRecord record, String message, byte[] topicFields, RecordBuffer out) {
+        out.write(MESSAGE_FIELD);
+        if (message != null) {
+            Utf8Json.writeString(out, message);
+        } else if (!config.jsonPassthrough || !writeRawJson(out, record.value())) {
+            serializers.writeValue(out, record.valueSchema(), record.value());
+        }
+
+        out.write(envelope.source());
+
+        Long timestamp = record.timestamp();
+        if (config.addPublishedDate && timestamp != null) {
+            out.write(PUBLISHED_DATE_FIELD);
+            Utf8Json.writeLong(out, timestamp);
+        }
+
+        if (config.parseRecordHeaders) {
+            out.write(KAFKAHEADERS_FIELD);
+            headerEncoder.write(out, record.headers());
+        }
+
+        if (fieldExtractor != null) {
+            fieldExtractor.writeFields(out, record.value(), topicFields, envelope);
+        } else {
+            out.write(topicFields);
+        }
+    }
+
+    /**
+     * Copies a string or bytes value that already holds JSON as is.
+     *
+     * @return false if the value is of another type or, when validation is enabled, is not well-formed JSON;
+     * nothing is written in that case.
+     */
+    private boolean writeRawJson(RecordBuffer out, Object value) {
+        int start = out.size();
+        if (value instanceof byte[]) {
+            out.write((byte[]) value);
+        } else if (value instanceof String) {
+            Utf8Json.writeUtf8(out, (String) value);
+        } else if (value instanceof ByteBuffer) {
+            ByteBuffer buffer = ((ByteBuffer) value).duplicate();
+            out.ensureCapacity(buffer.remaining());
+            while (buffer.hasRemaining()) {
+                out.put(buffer.get());
+            }
+        } else {
+            return false;
+        }
+
+        if (config.jsonPassthroughValidate && !JsonValidator.isValid(out.array(), start, out.size() - start)) {
+            log.debug("Record value is not valid JSON, converting it instead of passing it through");
+            out.truncate(start);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * The payloads of a batch, along with the records of the batch to report as errant once they are queued.
+     */
+    static final class Formatted {
+        final List<Payload> payloads;
+        final List<ErrantRecords.ErrantRecord> errant;
+
+        private Formatted(List<Payload> payloads, List<ErrantRecords.ErrantRecord> errant) {
+            this.payloads = payloads;
+            this.errant = errant;
+        }
+    }
+}
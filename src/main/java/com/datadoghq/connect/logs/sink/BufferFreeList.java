@@ -0,0 +1,63 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Free list of the direct buffers payloads are compressed into. Buffers keep the capacity they grew to, so
+ * once warmed up payloads are compressed without allocating or copying on growth.
+ * <p>
+ * Buffers are acquired by the formatting threads and released by the task thread once the request holding
+ * them has been delivered. A buffer is allocated whenever the list is empty, so the number of buffers in use
+ * is not bounded here but by the writer, which formats only so far ahead of the requests in flight. The list
+ * keeps up to {@code maxBuffers} of those released, leaving the others to the garbage collector. The direct
+ * memory of the buffers in use or kept is counted by {@link #allocatedBytes()}.
+ */
+class BufferFreeList {
+    private final Queue<PayloadBuffer> buffers;
+    private final AtomicInteger kept;
+    private final AtomicLong allocatedBytes;
+    private final int maxBuffers;
+    private final int initialCapacity;
+
+    BufferFreeList(int maxBuffers, int initialCapacity) {
+        this.buffers = new ConcurrentLinkedQueue<>();
+        this.kept = new AtomicInteger();
+        this.allocatedBytes = new AtomicLong();
+        this.maxBuffers = maxBuffers;
+        this.initialCapacity = initialCapacity;
+    }
+
+    PayloadBuffer acquire() {
+        PayloadBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            return new PayloadBuffer(initialCapacity, allocatedBytes);
+        }
+        kept.decrementAndGet();
+        buffer.reset();
+        return buffer;
+    }
+
+    void release(PayloadBuffer buffer) {
+        if (kept.incrementAndGet() <= maxBuffers) {
+            buffers.offer(buffer);
+        } else {
+            kept.decrementAndGet();
+            buffer.discard();
+        }
+    }
+
+    /**
+     * @return the direct memory in bytes of the buffers in use or kept in the list.
+     */
+    long allocatedBytes() {
+        return allocatedBytes.get();
+    }
+}
@@ -0,0 +1,60 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import java.util.Locale;
+import java.util.zip.Deflater;
+
+/**
+ * Compression codecs supported for the requests sent to the intake, along with the {@code Content-Encoding}
+ * they are sent with and the range of levels they accept.
+ */
+public enum CompressionType {
+    // zlib's default level is 6.
+    GZIP("gzip", Deflater.BEST_SPEED, Deflater.BEST_COMPRESSION, 6) {
+        @Override
+        PayloadCompressor newCompressor(int level, BufferFreeList freeBuffers) {
+            return new GzipCompressor(level);
+        }
+    },
+    ZSTD("zstd", 1, 22, 3) {
+        @Override
+        PayloadCompressor newCompressor(int level, BufferFreeList freeBuffers) {
+            return new ZstdCompressor(level, freeBuffers);
+        }
+    },
+    NONE(null, 0, 0, 0) {
+        @Override
+        PayloadCompressor newCompressor(int level, BufferFreeList freeBuffers) {
+            return new IdentityCompressor();
+        }
+    };
+
+    // Value of the Content-Encoding header, null when the payload is sent uncompressed.
+    final String contentEncoding;
+    final int minLevel;
+    final int maxLevel;
+    final int defaultLevel;
+
+    CompressionType(String contentEncoding, int minLevel, int maxLevel, int defaultLevel) {
+        this.contentEncoding = contentEncoding;
+        this.minLevel = minLevel;
+        this.maxLevel = maxLevel;
+        this.defaultLevel = defaultLevel;
+    }
+
+    // Compressors that gather the uncompressed payload take their buffer from freeBuffers.
+    abstract PayloadCompressor newCompressor(int level, BufferFreeList freeBuffers);
+
+    static CompressionType forName(String name) {
+        return valueOf(name.toUpperCase(Locale.ROOT));
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
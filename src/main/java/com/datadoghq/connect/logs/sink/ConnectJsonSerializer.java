@@ -0,0 +1,215 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import org.apache.kafka.connect.data.ConnectSchema;
+import org.apache.kafka.connect.data.Date;
+import org.apache.kafka.connect.data.Decimal;
+import org.apache.kafka.connect.data.Field;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.data.Time;
+import org.apache.kafka.connect.data.Timestamp;
+import org.apache.kafka.connect.errors.DataException;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Serializes Connect data directly to UTF-8 JSON, without building an intermediate tree.
+ * <p>
+ * The output is identical to what {@code JsonConverter} produces with {@code schemas.enable=false} and
+ * {@code decimal.format=NUMERIC}, which is how record values used to be converted.
+ */
+final class ConnectJsonSerializer {
+    private ConnectJsonSerializer() {
+    }
+
+    static void writeValue(RecordBuffer out, Schema schema, Object value) {
+        if (value == null) {
+            if (schema == null) {
+                Utf8Json.writeNull(out);
+                return;
+            }
+            if (schema.defaultValue() != null) {
+                value = schema.defaultValue();
+            } else if (schema.isOptional()) {
+                Utf8Json.writeNull(out);
+                return;
+            } else {
+                throw new DataException("Conversion error: null value for field that is required and has no default value");
+            }
+        }
+
+        if (schema != null && schema.name() != null && writeLogicalValue(out, schema, value)) {
+            return;
+        }
+
+        try {
+            Schema.Type type = schema == null ? ConnectSchema.schemaType(value.getClass()) : schema.type();
+            if (type == null) {
+                throw new DataException("Java class " + value.getClass() + " does not have corresponding schema type.");
+            }
+            switch (type) {
+                case INT8:
+                case INT16:
+                case INT32:
+                case INT64:
+                    Utf8Json.writeLong(out, ((Number) value).longValue());
+                    break;
+                case FLOAT32:
+                    Utf8Json.writeFloat(out, (Float) value);
+                    break;
+                case FLOAT64:
+                    Utf8Json.writeDouble(out, (Double) value);
+                    break;
+                case BOOLEAN:
+                    Utf8Json.writeBoolean(out, (Boolean) value);
+                    break;
+                case STRING:
+                    Utf8Json.writeString(out, ((CharSequence) value).toString());
+                    break;
+                case BYTES:
+                    writeBytes(out, value);
+                    break;
+                case ARRAY:
+                    writeArray(out, schema == null ? null : schema.valueSchema(), (Collection<?>) value);
+                    break;
+                case MAP:
+                    writeMap(out, schema, (Map<?, ?>) value);
+                    break;
+                case STRUCT:
+                    writeStruct(out, schema, (Struct) value);
+                    break;
+                default:
+                    throw new DataException("Couldn't convert " + value + " to JSON.");
+            }
+        } catch (ClassCastException e) {
+            String schemaTypeStr = (schema != null) ? schema.type().toString() : "unknown schema";
+            throw new DataException("Invalid type for " + schemaTypeStr + ": " + value.getClass());
+        }
+    }
+
+    private static boolean writeLogicalValue(RecordBuffer out, Schema schema, Object value) {
+        switch (schema.name()) {
+            case Decimal.LOGICAL_NAME:
+                if (!(value instanceof BigDecimal)) {
+                    throw new DataException("Invalid type for Decimal, expected BigDecimal but was " + value.getClass());
+                }
+                out.writeAscii(value.toString());
+                return true;
+            case Date.LOGICAL_NAME:
+                if (!(value instanceof java.util.Date)) {
+                    throw new DataException("Invalid type for Date, expected Date but was " + value.getClass());
+                }
+                Utf8Json.writeLong(out, Date.fromLogical(schema, (java.util.Date) value));
+                return true;
+            case Time.LOGICAL_NAME:
+                if (!(value instanceof java.util.Date)) {
+                    throw new DataException("Invalid type for Time, expected Date but was " + value.getClass());
+                }
+                Utf8Json.writeLong(out, Time.fromLogical(schema, (java.util.Date) value));
+                return true;
+            case Timestamp.LOGICAL_NAME:
+                if (!(value instanceof java.util.Date)) {
+                    throw new DataException("Invalid type for Timestamp, expected Date but was " + value.getClass());
+                }
+                Utf8Json.writeLong(out, Timestamp.fromLogical(schema, (java.util.Date) value));
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    static void writeBytes(RecordBuffer out, Object value) {
+        byte[] bytes;
+        if (value instanceof byte[]) {
+            bytes = (byte[]) value;
+        } else if (value instanceof ByteBuffer) {
+            bytes = ((ByteBuffer) value).array();
+        } else {
+            throw new DataException("Invalid type for bytes type: " + value.getClass());
+        }
+        byte[] encoded = Base64.getEncoder().encode(bytes);
+        out.ensureCapacity(encoded.length + 2);
+        out.put('"');
+        out.write(encoded);
+        out.put('"');
+    }
+
+    private static void writeArray(RecordBuffer out, Schema valueSchema, Collection<?> collection) {
+        out.write('[');
+        boolean first = true;
+        for (Object element : collection) {
+            if (!first) {
+                out.write(',');
+            }
+            writeValue(out, valueSchema, element);
+            first = false;
+        }
+        out.write(']');
+    }
+
+    private static void writeMap(RecordBuffer out, Schema schema, Map<?, ?> map) {
+        // String keys become a JSON object, any other key type an array of [key, value] pairs.
+        boolean objectMode;
+        if (schema == null) {
+            objectMode = true;
+            for (Object key : map.keySet()) {
+                if (!(key instanceof String)) {
+                    objectMode = false;
+                    break;
+                }
+            }
+        } else {
+            objectMode = schema.keySchema().type() == Schema.Type.STRING;
+        }
+        Schema keySchema = schema == null ? null : schema.keySchema();
+        Schema valueSchema = schema == null ? null : schema.valueSchema();
+
+        out.write(objectMode ? '{' : '[');
+        boolean first = true;
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            if (!first) {
+                out.write(',');
+            }
+            if (objectMode) {
+                Utf8Json.writeString(out, String.valueOf(entry.getKey()));
+                out.write(':');
+                writeValue(out, valueSchema, entry.getValue());
+            } else {
+                out.write('[');
+                writeValue(out, keySchema, entry.getKey());
+                out.write(',');
+                writeValue(out, valueSchema, entry.getValue());
+                out.write(']');
+            }
+            first = false;
+        }
+        out.write(objectMode ? '}' : ']');
+    }
+
+    private static void writeStruct(RecordBuffer out, Schema schema, Struct struct) {
+        if (!struct.schema().equals(schema)) {
+            throw new DataException("Mismatching schema.");
+        }
+        out.write('{');
+        boolean first = true;
+        for (Field field : schema.fields()) {
+            if (!first) {
+                out.write(',');
+            }
+            Utf8Json.writeString(out, field.name());
+            out.write(':');
+            writeValue(out, field.schema(), struct.get(field));
+            first = false;
+        }
+        out.write('}');
+    }
+}
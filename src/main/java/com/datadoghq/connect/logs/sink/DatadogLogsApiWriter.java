@@ -6,317 +6,893 @@ This product includes software developed at Datadog (https://www.datadoghq.com/)
 package com.datadoghq.connect.logs.sink;
 
 import com.datadoghq.connect.logs.util.Project;
-import com.google.gson.Gson;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonPrimitive;
-import org.apache.hc.client5.http.classic.methods.HttpPost;
-import org.apache.hc.client5.http.config.RequestConfig;
-import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
-import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
-import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
+import org.apache.hc.client5.http.async.methods.SimpleResponseConsumer;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.utils.DateUtils;
+import org.apache.hc.core5.concurrent.BasicFuture;
+import org.apache.hc.core5.concurrent.FutureCallback;
 import org.apache.hc.core5.http.ContentType;
-import org.apache.hc.core5.http.HttpEntity;
-import org.apache.hc.core5.http.HttpHost;
-import org.apache.hc.core5.http.io.entity.ByteArrayEntity;
-import org.apache.hc.core5.http.io.entity.EntityUtils;
-import org.apache.hc.core5.http.ParseException;
-import org.apache.kafka.connect.header.Header;
-import org.apache.kafka.connect.json.JsonConverter;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.http.nio.support.BasicRequestProducer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.connect.errors.ConnectException;
+import org.apache.kafka.connect.sink.ErrantRecordReporter;
 import org.apache.kafka.connect.sink.SinkRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Supplier;
-import java.util.zip.GZIPOutputStream;
-
-import static java.util.stream.Collectors.toMap;
-import static java.util.stream.StreamSupport.stream;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DatadogLogsApiWriter implements Closeable {
     public static final int MAXIMUM_BATCH_BYTES = 4500000;
+    // The intake accepts at most this many log entries per request.
+    public static final int MAXIMUM_BATCH_ENTRIES = 1000;
 
     // Matches the Datadog Agent's logs_config.http_timeout default (10s), which is the total
     // budget that the Agent applies to the connect + write + read cycle of each intake request.
     // Apache HttpClient 5's defaults (connect=3min, response=null/infinite) would let a stuck
     // intake hang the connector indefinitely, so we set both legs explicitly.
-    private static final int CONNECT_TIMEOUT_MS = 10_000;
-    private static final int RESPONSE_TIMEOUT_MS = 10_000;
+    static final int CONNECT_TIMEOUT_MS = 10_000;
+    static final int RESPONSE_TIMEOUT_MS = 10_000;
+
+    // Assumed size of a log entry of a topic until a batch of that topic has been formatted.
+    private static final int DEFAULT_ENTRY_BYTES = 1024;
+    // Initial capacity of the buffers payloads are compressed into; they grow as needed and keep their size.
+    private static final int PAYLOAD_BUFFER_SIZE = 65536;
+    // How long each write keeps sending spilled payloads, so that catching up does not hold the task for hours.
+    private static final long SPILL_DRAIN_MS = 1000;
 
     private static final Logger log = LoggerFactory.getLogger(DatadogLogsApiWriter.class);
     private final DatadogLogsSinkConnectorConfig config;
-    private final Map<String, List<SinkRecord>> batches;
-    private final JsonConverter jsonConverter;
-    private final CloseableHttpClient httpClient;
+    // Average size of the log entries of each topic, used to cut batches close to the byte target.
+    private final Map<String, Integer> entryBytesByTopic;
+    private final OffsetTracker offsetTracker;
+    private final DestinationRouter router;
+    // Null when no record is ever filtered out.
+    private final RecordFilter filter;
+    // One per configured destination, in the same order, each with its own batches, requests and limits.
+    private final List<DestinationState> destinations;
+    // Shared with the other tasks of the worker, null when requests are not budgeted.
+    private final EgressBudget.Lease egress;
+    // Released by the I/O threads each time a request completes, to wait for whichever completes first.
+    private final Semaphore completions;
+    private final DatadogLogsSinkMetrics metrics;
+    // Records that cannot be sent, reported by the task thread after their batch has been formatted.
+    private final ErrantRecords errantRecords;
+    // Direct buffers the payloads are compressed into, shared by the formatters and released once delivered.
+    private final BufferFreeList freeBuffers;
+    private final BatchFormatter formatter;
+    // Only set when batches are formatted on several threads.
+    private final ExecutorService formatExecutor;
+    private final Queue<BatchFormatter> idleFormatters;
 
     public DatadogLogsApiWriter(DatadogLogsSinkConnectorConfig config) {
-        this.config = config;
-        this.batches = new HashMap<>();
-        this.jsonConverter = new JsonConverter();
-
-        Map<String, String> jsonConverterConfig = new HashMap<>();
-        jsonConverterConfig.put("schemas.enable", "false");
-        jsonConverterConfig.put("decimal.format", "NUMERIC");
-        jsonConverter.configure(jsonConverterConfig, false);
+        this(config, new DatadogLogsSinkMetrics(new Metrics(), Collections.emptyMap()));
+    }
 
-        this.httpClient = buildHttpClient(config);
+    public DatadogLogsApiWriter(DatadogLogsSinkConnectorConfig config, DatadogLogsSinkMetrics metrics) {
+        this(config, metrics, null);
     }
 
-    private static CloseableHttpClient buildHttpClient(DatadogLogsSinkConnectorConfig config) {
-        RequestConfig requestConfig = RequestConfig.custom()
-                .setConnectTimeout(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)
-                .setResponseTimeout(RESPONSE_TIMEOUT_MS, TimeUnit.MILLISECONDS)
-                .build();
+    /**
+     * @param errantRecordReporter of the task, or null if records that cannot be sent are to fail the task.
+     */
+    public DatadogLogsApiWriter(DatadogLogsSinkConnectorConfig config, DatadogLogsSinkMetrics metrics,
+                                ErrantRecordReporter errantRecordReporter) {
+        this.config = config;
+        this.metrics = metrics;
+        this.errantRecords = new ErrantRecords(errantRecordReporter);
+        this.entryBytesByTopic = new HashMap<>();
+        this.offsetTracker = new OffsetTracker();
+        this.router = new DestinationRouter(config);
+        RecordFilter filter = new RecordFilter(config);
+        this.filter = filter.enabled() ? filter : null;
+        this.completions = new Semaphore(0);
+        // Keeps enough buffers for the requests in flight and the batches being formatted ahead of them.
+        this.freeBuffers = new BufferFreeList(config.maxInFlightRequests * config.destinations.size() + config.formatThreads * 2 + 1,
+                PAYLOAD_BUFFER_SIZE);
+        this.formatter = new BatchFormatter(config, freeBuffers, metrics, errantRecords);
+        this.idleFormatters = new ConcurrentLinkedQueue<>();
+        this.formatExecutor = config.formatThreads > 1
+                ? Executors.newFixedThreadPool(config.formatThreads, new FormatThreadFactory())
+                : null;
 
-        HttpClientBuilder builder = HttpClients.custom()
-                .setDefaultRequestConfig(requestConfig)
-                // Disable automatic decompression: we send gzip, not receive it.
-                .disableContentCompression()
-                // Disable automatic redirect following to keep behaviour identical to HttpURLConnection defaults.
-                .disableRedirectHandling();
+        this.destinations = new ArrayList<>(config.destinations.size());
+        try {
+            for (Destination destination : config.destinations) {
+                SpillQueue spill = config.spillDir != null ? openSpill(destination) : null;
+                destinations.add(new DestinationState(destination,
+                        new AdaptiveLimiter(config.adaptiveConcurrency, config.maxInFlightRequests, config.batchMaxBytes),
+                        SharedHttpClients.acquire(config, destination), spill));
+            }
+        } catch (RuntimeException e) {
+            // Release the spill directories locked so far, for the task to be restarted.
+            closeDestinations();
+            throw e;
+        }
+        this.egress = EgressBudget.acquire(config);
+        recordLimits();
+    }
 
-        if (config.proxyURL != null && !config.proxyURL.isEmpty()) {
-            HttpHost proxy = new HttpHost(config.proxyURL, config.proxyPort);
-            builder.setProxy(proxy);
+    private SpillQueue openSpill(Destination destination) {
+        Path directory = Paths.get(config.spillDir, toFileName(config.connectorName), toFileName(config.taskId),
+                toFileName(destination.name));
+        if (!config.spillShared) {
+            // Connect does not tell tasks whether the worker runs in distributed mode.
+            log.warn("Spilling payloads of {} to {}, which is not shared with the other workers: in distributed " +
+                    "mode, payloads spilled there are only sent again once task {} runs on this worker again. Set {} " +
+                    "once the directory is on storage shared by all the workers.", destination, directory,
+                    config.taskId, DatadogLogsSinkConnectorConfig.SPILL_SHARED);
         }
+        try {
+            return SpillQueue.open(directory, config.spillMaxBytes, config.spillSegmentBytes);
+        } catch (IOException e) {
+            throw new ConnectException("Failed to open the spill queue in " + directory, e);
+        }
+    }
 
-        return builder.build();
+    private static String toFileName(String name) {
+        return name.replaceAll("[^A-Za-z0-9._-]", "_");
     }
 
     /**
      * Writes records to the Datadog Logs API.
+     * <p>
+     * Records are accumulated per topic and only sent once {@code datadog.batch.max_records} or
+     * {@code datadog.batch.max_bytes} is reached, or once the oldest of them has waited for
+     * {@code datadog.batch.linger_ms}. With {@code datadog.max_in_flight_requests} above 1 this method returns
+     * as soon as the last request has been submitted; use {@link #flush()} to wait for the intake to acknowledge them.
+     * <p>
+     * Records are owned by the writer once they have been passed to this method, even if it fails: the records
+     * Connect delivers again after a failed write are skipped, and whatever could not be sent is sent by the next write.
+     * Only the payloads the intake did not acknowledge are sent again, with the bytes they were compressed into the
+     * first time; the payloads that were acknowledged are neither formatted nor sent twice.
+     * <p>
+     * With several destinations, each record is batched and sent once per destination it is routed to. A
+     * destination that fails keeps its payloads to resend them without holding back the others, and while the
+     * writer waits for a destination to have room for more requests, it keeps sending to the others.
+     * <p>
+     * Records dropped by the filters, sampling or rate limits, see {@link RecordFilter}, are neither formatted nor
+     * sent, and their offsets are committed with those of the records around them.
+     * <p>
+     * With {@code datadog.spill.dir} set, the payloads the intake fails to accept are written to the spill queue of
+     * their destination instead of being kept in memory, and count as delivered once on disk. While a destination
+     * has spilled payloads, its new payloads are spilled behind them, and each write sends spilled payloads, in
+     * order, for up to a second.
      *
      * @param records to be written from the Source Broker to the Datadog Logs API.
-     * @throws IOException may be thrown if the connection to the API fails.
+     * @throws IOException may be thrown if the connection to the API fails, either for one of
+     *                     these records or for a request left over by a previous write.
      */
     public void write(Collection<SinkRecord> records) throws IOException {
-        for (SinkRecord record : records) {
-            if (!batches.containsKey(record.topic())) {
-                batches.put(record.topic(), new ArrayList<>(Collections.singletonList(record)));
-            } else {
-                batches.get(record.topic()).add(record);
+        for (DestinationState destination : destinations) {
+            resendFailedRequests(destination);
+            send(destination);
+        }
+
+        List<SinkRecord> accepted = offsetTracker.accept(records);
+        metrics.recordReceived(accepted.size());
+        long now = System.nanoTime();
+        int filtered = 0;
+        for (SinkRecord record : accepted) {
+            if (filter != null && !filter.accept(record, now)) {
+                offsetTracker.skip(record);
+                filtered++;
+                continue;
             }
-            if (batches.get(record.topic()).size() >= config.ddMaxBatchLength) {
-                sendBatch(record.topic());
-                batches.remove(record.topic());
+            for (int index : router.route(record)) {
+                addToBatch(destinations.get(index), record);
             }
         }
+        if (filtered > 0) {
+            metrics.recordFiltered(filtered);
+        }
+        for (DestinationState destination : destinations) {
+            cutLingeringBatches(destination);
+            send(destination);
+        }
+        drainSpills();
+
+        if (config.maxInFlightRequests == 1) {
+            awaitInFlightRequests();
+        }
+        metrics.recordOffHeapBytes(freeBuffers.allocatedBytes());
+        throwIfFailed();
+    }
 
-        // Flush remaining records
-        flushBatches();
+    /**
+     * Waits until every submitted request has been answered by the intake. Records still accumulating in a
+     * batch are left for a later write.
+     *
+     * @throws IOException if any of those requests failed. The failed payloads are kept and resent by the
+     *                     next call to {@link #write(Collection)}.
+     */
+    public void flush() throws IOException {
+        awaitInFlightRequests();
+        metrics.recordOffHeapBytes(freeBuffers.allocatedBytes());
+        throwIfFailed();
     }
 
-    private void flushBatches() throws IOException {
-        // send any outstanding batches
-        for (Map.Entry<String, List<SinkRecord>> entry : batches.entrySet()) {
-            sendBatch(entry.getKey());
+    /**
+     * @return how long in milliseconds the intake of any destination asked to wait, through {@code Retry-After},
+     * before sending it more requests, or 0 if none asked to.
+     */
+    public long retryAfterMs() {
+        long now = System.nanoTime();
+        long retryAfterMs = 0;
+        for (DestinationState destination : destinations) {
+            retryAfterMs = Math.max(retryAfterMs, destination.limiter.retryAfterMs(now));
         }
+        return retryAfterMs;
+    }
 
-        batches.clear();
+    /**
+     * @return for each partition, the offset of the first record that has not been delivered to the intake yet.
+     */
+    public Map<TopicPartition, OffsetAndMetadata> committableOffsets() {
+        return offsetTracker.committableOffsets();
     }
 
-    private void sendBatch(String topic) throws IOException {
-        List<String> contentList = formatBatch(topic);
-        if (contentList.isEmpty()) {
-            log.debug("Nothing to send; Skipping the HTTP request.");
-            return;
+    /**
+     * Drops the records of partitions that are no longer assigned to the task before they are sent, since
+     * whichever task they are assigned to next reads them again from the last committed offset. This includes
+     * the retained payloads that only hold records of those partitions; payloads that also hold records of
+     * partitions still assigned are kept and resent.
+     */
+    public void closePartitions(Collection<TopicPartition> partitions) {
+        for (DestinationState destination : destinations) {
+            for (OpenBatch batch : destination.openBatches.values()) {
+                batch.records.removeIf(record -> isIn(record, partitions));
+            }
+            destination.openBatches.values().removeIf(batch -> batch.records.isEmpty());
+            for (Batch batch : destination.readyBatches) {
+                if (batch.records.stream().anyMatch(record -> isIn(record, partitions))) {
+                    discardFormatting(batch);
+                    batch.records.removeIf(record -> isIn(record, partitions));
+                }
+            }
+            destination.readyBatches.removeIf(batch -> batch.records.isEmpty());
+            dropRequests(destination.queuedRequests, partitions);
+            dropRequests(destination.failedRequests, partitions);
         }
+        offsetTracker.remove(partitions);
+    }
 
-        URL url = config.getURL();
-
-        for (String content: contentList) {
-            sendRequest(content, url);
+    private void dropRequests(Collection<PendingRequest> requests, Collection<TopicPartition> partitions) {
+        Iterator<PendingRequest> iterator = requests.iterator();
+        while (iterator.hasNext()) {
+            PendingRequest request = iterator.next();
+            if (request.batch.records.stream().allMatch(record -> isIn(record, partitions))) {
+                log.debug("Dropping a payload of {} records from revoked partitions", request.payload.entries);
+                freeBuffers.release(request.payload.body);
+                iterator.remove();
+            }
         }
     }
 
-    private List<String> formatBatch(String topic) {
-        List<SinkRecord> sinkRecords = batches.get(topic);
+    private static boolean isIn(SinkRecord record, Collection<TopicPartition> partitions) {
+        return partitions.contains(new TopicPartition(record.topic(), record.kafkaPartition()));
+    }
 
-        List<String> serializedBatches = new ArrayList<>();
-        StringBuilder currentBatch = new StringBuilder();
-        int currentBatchSize = 2; // for '[' and ']' in JSON
+    private void addToBatch(DestinationState destination, SinkRecord record) {
+        int entryBytes = entryBytesByTopic.getOrDefault(record.topic(), DEFAULT_ENTRY_BYTES);
+        int batchBytesLimit = destination.limiter.batchBytesLimit();
+        Map<String, OpenBatch> openBatches = destination.openBatches;
 
-        currentBatch.append("[");
-        boolean first = true;
+        // Cut before the record would take the batch over the byte target, rather than after, so that the formatter
+        // does not have to split the batch into a full payload and a small one.
+        OpenBatch batch = openBatches.get(record.topic());
+        if (batch != null && batch.estimatedBytes + entryBytes > batchBytesLimit) {
+            cut(destination, record.topic(), batch);
+            openBatches.remove(record.topic());
+        }
 
-        for (SinkRecord record : sinkRecords) {
-            if (record == null || record.value() == null) {
-                continue;
-            }
+        batch = openBatches.computeIfAbsent(record.topic(), topic -> new OpenBatch(System.nanoTime(), offsetTracker.open()));
+        batch.records.add(record);
+        batch.estimatedBytes += entryBytes;
+        offsetTracker.add(batch.mark, record);
 
-            JsonElement recordJSON = recordToJSON(record);
-            JsonObject message = populateMetadata(topic, recordJSON, record.timestamp(), () -> kafkaHeadersToJsonElement(record));
+        if (batch.records.size() >= config.ddMaxBatchLength || batch.estimatedBytes >= batchBytesLimit) {
+            cut(destination, record.topic(), batch);
+            openBatches.remove(record.topic());
+        }
+    }
 
-            String messageString = message.toString();
-            int messageSize = utf8ByteLength(messageString);
+    private void cutLingeringBatches(DestinationState destination) {
+        long lingerNanos = TimeUnit.MILLISECONDS.toNanos(config.batchLingerMs);
+        long now = System.nanoTime();
+        Iterator<Map.Entry<String, OpenBatch>> open = destination.openBatches.entrySet().iterator();
+        while (open.hasNext()) {
+            Map.Entry<String, OpenBatch> entry = open.next();
+            if (now - entry.getValue().createdNanos >= lingerNanos) {
+                cut(destination, entry.getKey(), entry.getValue());
+                open.remove();
+            }
+        }
+    }
 
-            // Estimate additional bytes including the extra byte for comma if batch is not empty
-            int additionalBytes = messageSize + (!first ? 1 : 0);
-            int totalBatchSize = currentBatchSize + additionalBytes;
+    private static void cut(DestinationState destination, String topic, OpenBatch batch) {
+        destination.readyBatches.addLast(new Batch(topic, batch.records, batch.mark));
+    }
 
-            // If adding this message would exceed the max batch size
-            if (totalBatchSize >= MAXIMUM_BATCH_BYTES) {
-                log.debug("Splitting batch because of size limits. Bytes of batch after new message was added: {}", totalBatchSize);
+    /**
+     * Sends the queued requests of a destination, then its ready batches, unless it has failed requests: a
+     * failing destination is not fed more until its failed requests are resent by the next write.
+     */
+    private void send(DestinationState destination) throws IOException {
+        if (sendQueuedRequests(destination)) {
+            sendReadyBatches(destination);
+        }
+    }
 
-                if (!first) {
-                    currentBatch.append("]");
-                    serializedBatches.add(currentBatch.toString());
-                } else {
-                    log.error("Dropping message that exceeds batch size limit ({} bytes, limit {} bytes). Preview: {}",
-                            messageSize, MAXIMUM_BATCH_BYTES,
-                            messageString.substring(0, Math.min(messageString.length(), 500)));
-                    continue;
+    /**
+     * Formats the ready batches, on the formatting threads if there are any, and sends their payloads in the
+     * order of the batches. A batch stays ready until its payloads have been queued, so that a failure leaves
+     * it for the next write, and its errant records are only reported then.
+     * <p>
+     * With formatting threads, a couple of batches are formatted ahead of the one being sent, without holding
+     * all the payloads at once. The batches being formatted when the destination has no room for more requests
+     * keep their formatting for the next write.
+     */
+    private void sendReadyBatches(DestinationState destination) throws IOException {
+        Deque<Batch> readyBatches = destination.readyBatches;
+        int maxAhead = config.formatThreads * 2;
+        while (!readyBatches.isEmpty()) {
+            if (formatExecutor != null) {
+                int ahead = 0;
+                for (Batch batch : readyBatches) {
+                    if (ahead++ == maxAhead) {
+                        break;
+                    }
+                    if (batch.formatting == null) {
+                        batch.formatting = formatExecutor.submit(() -> formatOnPool(batch));
+                    }
                 }
+            }
+            Batch batch = readyBatches.peekFirst();
+            BatchFormatter.Formatted formatted = formatExecutor == null
+                    ? formatter.format(batch.topic, batch.records)
+                    : awaitFormatting(batch);
+            readyBatches.removeFirst();
+            queuePayloads(destination, batch, formatted.payloads);
+            errantRecords.report(formatted.errant);
+            if (!sendQueuedRequests(destination)) {
+                return;
+            }
+        }
+    }
+
+    private BatchFormatter.Formatted formatOnPool(Batch batch) throws IOException {
+        BatchFormatter pooled = idleFormatters.poll();
+        if (pooled == null) {
+            pooled = new BatchFormatter(config, freeBuffers, metrics, errantRecords);
+        }
+        try {
+            return pooled.format(batch.topic, batch.records);
+        } finally {
+            idleFormatters.offer(pooled);
+        }
+    }
 
-                // reset (Start new batch)
-                currentBatch = new StringBuilder();
-                currentBatch.append("[");
-                currentBatchSize = 2;
-                first = true;
+    private static BatchFormatter.Formatted awaitFormatting(Batch batch) throws IOException {
+        try {
+            BatchFormatter.Formatted formatted = batch.formatting.get();
+            batch.formatting = null;
+            return formatted;
+        } catch (InterruptedException e) {
+            // The formatting is kept for the next write.
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while formatting a batch", e);
+        } catch (ExecutionException e) {
+            // Formatted again by the next write.
+            batch.formatting = null;
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
             }
+            throw new IOException(cause);
+        }
+    }
 
-            if (!first) {
-                currentBatch.append(",");
+    /**
+     * Waits for the formatting of a batch on the formatting threads, if any, and releases its payloads, so that
+     * the batch can be changed or dropped. It is formatted again if it is sent.
+     */
+    private void discardFormatting(Batch batch) {
+        Future<BatchFormatter.Formatted> future = batch.formatting;
+        if (future == null) {
+            return;
+        }
+        batch.formatting = null;
+        try {
+            for (Payload payload : future.get().payloads) {
+                freeBuffers.release(payload.body);
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // Nothing to release.
+        }
+    }
 
-            // Add the message to the current batch
-            currentBatch.append(messageString);
-            currentBatchSize += additionalBytes;
-            first = false;
+    private void queuePayloads(DestinationState destination, Batch batch, List<Payload> payloads) {
+        int entries = 0;
+        int uncompressedBytes = 0;
+        for (Payload payload : payloads) {
+            entries += payload.entries;
+            uncompressedBytes += payload.uncompressedBytes;
+        }
+        if (entries > 0) {
+            entryBytesByTopic.put(batch.topic, Math.max(1, uncompressedBytes / entries));
         }
 
-        // Add the last batch if it has messages
-        if (!first) {
-            currentBatch.append("]");
-            serializedBatches.add(currentBatch.toString());
+        batch.remainingPayloads = payloads.size();
+        if (payloads.isEmpty()) {
+            log.debug("Nothing to send; Skipping the HTTP request.");
+            offsetTracker.acknowledge(batch.mark);
+            return;
         }
 
-        return serializedBatches;
+        for (Payload payload : payloads) {
+            destination.queuedRequests.addLast(new PendingRequest(destination, payload, batch));
+        }
     }
 
     /**
-     * Returns the exact number of bytes required to encode {@code s} as UTF-8,
-     * without allocating a byte array. Uses arithmetic shifts to minimise
-     * branches per character (one branch only for surrogate pairs).
+     * Submits the queued requests of a destination, waiting for room among its requests in flight when needed,
+     * while the requests of the other destinations keep being submitted as theirs complete.
      *
-     * @see <a href="https://www.rfc-editor.org/rfc/rfc3629">RFC 3629 — UTF-8</a>
+     * @return false if the destination has failed requests, in which case it is not sent more.
      */
-    static int utf8ByteLength(String s) {
-        int bytes = 0;
-        for (int i = 0, len = s.length(); i < len; i++) {
-            char c = s.charAt(i);
-            bytes += 1 + ((0x7F - c) >>> 31) + ((0x7FF - c) >>> 31);
-            if (Character.isHighSurrogate(c)) { bytes++; i++; }
+    private boolean sendQueuedRequests(DestinationState destination) throws IOException {
+        while (true) {
+            submitQueuedRequests(destination);
+            if (destination.queuedRequests.isEmpty() || !destination.failedRequests.isEmpty()) {
+                return destination.failedRequests.isEmpty();
+            }
+            awaitCompletion();
         }
-        return bytes;
     }
 
-    private JsonElement kafkaHeadersToJsonElement(SinkRecord sinkRecord) {
-        Map<String, Object> headerMap = stream(sinkRecord.headers().spliterator(), false)
-                .collect(toMap(Header::key, Header::value));
+    /**
+     * Submits the queued requests of a destination for as long as it has room for them, without waiting.
+     */
+    private void submitQueuedRequests(DestinationState destination) {
+        if (destination.spill != null) {
+            spillQueuedRequests(destination);
+        }
+        while (!destination.queuedRequests.isEmpty()
+                && destination.failedRequests.isEmpty()
+                && destination.inFlightRequests.size() < destination.limiter.concurrencyLimit()) {
+            submit(destination.queuedRequests.peekFirst());
+            destination.queuedRequests.removeFirst();
+        }
+    }
 
-        Gson gson = new Gson();
+    /**
+     * Spills the queued requests of a destination that has spilled payloads already, so that they are sent in
+     * order after those rather than to an intake that has just failed.
+     */
+    private void spillQueuedRequests(DestinationState destination) {
+        if (destination.spill.isEmpty()) {
+            return;
+        }
+        List<PendingRequest> spilled = new ArrayList<>();
+        while (!destination.queuedRequests.isEmpty() && append(destination, destination.queuedRequests.peekFirst())) {
+            spilled.add(destination.queuedRequests.removeFirst());
+        }
+        spilled(destination, spilled);
+    }
 
-        String jsonString = gson.toJson(headerMap);
+    /**
+     * @return false if the payload of the request could not be spilled, in which case it is kept in memory.
+     */
+    private boolean append(DestinationState destination, PendingRequest request) {
+        try {
+            if (destination.spill.append(request.payload)) {
+                destination.spillFull = false;
+                return true;
+            }
+            if (!destination.spillFull) {
+                log.warn("Spill queue of {} is full, keeping payloads in memory", destination.destination);
+                destination.spillFull = true;
+            }
+        } catch (IOException e) {
+            log.warn("Failed to spill a payload of {}, keeping it in memory", destination.destination, e);
+        }
+        return false;
+    }
 
-        return gson.fromJson(jsonString, JsonElement.class);
+    /**
+     * Forces the spilled payloads of the requests to disk, then counts the requests as delivered.
+     */
+    private void spilled(DestinationState destination, List<PendingRequest> requests) {
+        if (requests.isEmpty()) {
+            return;
+        }
+        destination.spill.sync();
+        metrics.recordSpilled(requests.size(), spillBytes());
+        for (PendingRequest request : requests) {
+            freeBuffers.release(request.payload.body);
+            if (--request.batch.remainingPayloads == 0) {
+                offsetTracker.acknowledge(request.batch.mark);
+            }
+        }
     }
 
-    private JsonElement recordToJSON(SinkRecord record) {
-        byte[] rawJSONPayload = jsonConverter.fromConnectData(record.topic(), record.valueSchema(), record.value());
-        String jsonPayload = new String(rawJSONPayload, StandardCharsets.UTF_8);
-        return new Gson().fromJson(jsonPayload, JsonElement.class);
+    /**
+     * Sends spilled payloads to the destinations that have some and are not backing off, for up to
+     * {@link #SPILL_DRAIN_MS}, keeping as many requests in flight as each destination allows.
+     */
+    private void drainSpills() throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SPILL_DRAIN_MS);
+        while (true) {
+            boolean draining = false;
+            for (DestinationState destination : destinations) {
+                if (destination.spill != null && drainSpill(destination)) {
+                    draining = true;
+                }
+            }
+            if (!draining || System.nanoTime() - deadline >= 0) {
+                return;
+            }
+            awaitCompletion();
+        }
     }
 
-    private JsonObject populateMetadata(String topic, JsonElement message, Long timestamp, Supplier<JsonElement> kafkaHeaders) {
-        JsonObject content = new JsonObject();
-        String tags = "topic:" + topic;
-        content.add("message", message);
-        content.add("ddsource", new JsonPrimitive(config.ddSource));
-        if (config.addPublishedDate && timestamp != null) {
-            content.add("published_date", new JsonPrimitive(timestamp));
+    /**
+     * Submits spilled payloads of a destination for as long as it has room for them.
+     *
+     * @return true if the destination has spilled payloads in flight and more to send.
+     */
+    private boolean drainSpill(DestinationState destination) {
+        SpillQueue spill = destination.spill;
+        if (spill.isEmpty() || !destination.failedRequests.isEmpty() || System.nanoTime() - destination.nextDrainNanos < 0) {
+            return false;
         }
+        while (destination.inFlightRequests.size() < destination.limiter.concurrencyLimit()) {
+            PayloadBuffer buffer = freeBuffers.acquire();
+            SpillQueue.Entry entry = spill.next(buffer);
+            if (entry == null || entry.payload.body != buffer) {
+                freeBuffers.release(buffer);
+            }
+            if (entry == null) {
+                break;
+            }
+            submit(new PendingRequest(destination, entry.payload, null, entry));
+        }
+        return !destination.inFlightRequests.isEmpty() && !spill.isEmpty();
+    }
 
-        if (config.parseRecordHeaders) {
-            content.add("kafkaheaders", kafkaHeaders.get());
+    private long spillBytes() {
+        long bytes = 0;
+        for (DestinationState destination : destinations) {
+            if (destination.spill != null) {
+                bytes += destination.spill.sizeBytes();
+            }
         }
+        return bytes;
+    }
 
-        if (config.ddTags != null) {
-            tags += "," + config.ddTags;
+    private void resendFailedRequests(DestinationState destination) {
+        List<PendingRequest> failedRequests = destination.failedRequests;
+        if (failedRequests.isEmpty()) {
+            return;
         }
-        content.add("ddtags", new JsonPrimitive(tags));
 
-        if (config.ddHostname != null) {
-            content.add("hostname", new JsonPrimitive(config.ddHostname));
+        log.debug("Resending {} failed requests to {}", failedRequests.size(), destination.destination);
+        metrics.recordRetries(failedRequests.size());
+        for (int i = failedRequests.size() - 1; i >= 0; i--) {
+            destination.queuedRequests.addFirst(failedRequests.get(i));
         }
+        failedRequests.clear();
+    }
 
-        if (config.ddService != null) {
-            content.add("service", new JsonPrimitive(config.ddService));
+    /**
+     * Sends a request once it fits in the egress budget of the task, if any.
+     */
+    private void submit(PendingRequest request) {
+        if (egress != null) {
+            metrics.recordEgressWait(egress.await(request.payload.compressedBytes()));
         }
+        Destination destination = request.destination.destination;
+        log.trace("Submitting HTTP request to {} with {} compressed bytes", destination, request.payload.compressedBytes());
 
-        return content;
-    }
+        String contentEncoding = config.compressionType.contentEncoding;
+        SimpleRequestBuilder builder = SimpleRequestBuilder.post(destination.url)
+                .setHeader("Content-Type", "application/json")
+                .setHeader("DD-API-KEY", destination.apiKey)
+                .setHeader("DD-EVP-ORIGIN", Project.getName())
+                .setHeader("DD-EVP-ORIGIN-VERSION", Project.getVersion())
+                .setHeader("User-Agent", Project.getName() + "/" + Project.getVersion());
+        if (contentEncoding != null) {
+            builder.setHeader("Content-Encoding", contentEncoding);
+        }
+        SimpleHttpRequest httpRequest = builder.build();
+        PayloadEntityProducer entity = new PayloadEntityProducer(request.payload, ContentType.APPLICATION_JSON, contentEncoding);
 
-    private void sendRequest(String requestContent, URL url) throws IOException {
-        byte[] compressedPayload = compress(requestContent);
+        long submitted = System.nanoTime();
+        metrics.recordRequestSubmitted();
+        // Completed once the response has been recorded, so that metrics are up to date when a request is awaited.
+        BasicFuture<SimpleHttpResponse> response = new BasicFuture<>(null);
+        request.destination.httpClient.execute(
+                new BasicRequestProducer(httpRequest, entity), SimpleResponseConsumer.create(), new FutureCallback<SimpleHttpResponse>() {
+                    @Override
+                    public void completed(SimpleHttpResponse result) {
+                        request.latencyNanos = System.nanoTime() - submitted;
+                        metrics.recordRequestCompleted(request.latencyNanos);
+                        response.completed(result);
+                        completions.release();
+                    }
 
-        String urlString = url.toString();
-        HttpPost request = new HttpPost(urlString);
+                    @Override
+                    public void failed(Exception e) {
+                        request.latencyNanos = System.nanoTime() - submitted;
+                        metrics.recordRequestCompleted(request.latencyNanos);
+                        response.failed(e);
+                        completions.release();
+                    }
 
-        request.setHeader("Content-Type", "application/json");
-        request.setHeader("Content-Encoding", "gzip");
-        request.setHeader("DD-API-KEY", config.ddApiKey);
-        request.setHeader("DD-EVP-ORIGIN", Project.getName());
-        request.setHeader("DD-EVP-ORIGIN-VERSION", Project.getVersion());
-        request.setHeader("User-Agent", Project.getName() + "/" + Project.getVersion());
+                    @Override
+                    public void cancelled() {
+                        request.latencyNanos = System.nanoTime() - submitted;
+                        metrics.recordRequestCompleted(request.latencyNanos);
+                        response.cancel();
+                        completions.release();
+                    }
+                });
+        request.response = response;
+        request.destination.inFlightRequests.addLast(request);
+    }
 
-        request.setEntity(new ByteArrayEntity(compressedPayload, ContentType.APPLICATION_JSON));
+    /**
+     * Blocks until every request in flight, to any destination, has completed.
+     */
+    private void awaitInFlightRequests() throws IOException {
+        completeRequests();
+        while (hasInFlightRequests()) {
+            awaitCompletion();
+        }
+    }
 
-        log.trace("Submitting HTTP request to {} with body {}", urlString, requestContent);
+    private boolean hasInFlightRequests() {
+        for (DestinationState destination : destinations) {
+            if (!destination.inFlightRequests.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-        httpClient.execute(request, response -> {
-            int status = response.getCode();
-            if (!isSuccessfulHttpStatus(status)) {
-                String error = "";
-                if (response.getEntity() != null) {
-                    try {
-                        error = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
-                    } catch (IOException | ParseException ignored) {
-                        // best-effort error body read
-                    }
+    /**
+     * Blocks until a request completes, then processes every completed request and submits the queued requests
+     * of the destinations that have room again.
+     */
+    private void awaitCompletion() throws IOException {
+        try {
+            completions.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the HTTP response", e);
+        }
+        completeRequests();
+        for (DestinationState destination : destinations) {
+            submitQueuedRequests(destination);
+        }
+    }
+
+    /**
+     * Processes the requests whose response has been received, in any order. Requests that failed are moved to
+     * the failed requests of their destination.
+     */
+    private void completeRequests() {
+        for (DestinationState destination : destinations) {
+            Iterator<PendingRequest> inFlight = destination.inFlightRequests.iterator();
+            while (inFlight.hasNext()) {
+                PendingRequest request = inFlight.next();
+                if (request.response.isDone()) {
+                    inFlight.remove();
+                    complete(request);
                 }
-                log.error("Http request failed with status: {}", status);
-                throw new IOException("HTTP Response code: " + status
-                        + ", " + response.getReasonPhrase() + ", " + error);
             }
-            if (log.isTraceEnabled()) {
-                String body = "";
-                HttpEntity entity = response.getEntity();
-                if (entity != null) {
-                    try {
-                        body = EntityUtils.toString(entity, StandardCharsets.UTF_8);
-                    } catch (IOException | ParseException ignored) {
-                        // best-effort body read for trace logging
-                    }
-                }
-                log.trace("Received HTTP response {} {} with body {}", status, response.getReasonPhrase(), body);
+        }
+    }
+
+    private void complete(PendingRequest request) {
+        DestinationState destination = request.destination;
+        request.failure = null;
+        // I/O errors are worth sending the payload again for, but not every status.
+        boolean retriable = true;
+        try {
+            SimpleHttpResponse response = request.response.get();
+            updateLimits(request, response);
+            retriable = isRetriableHttpStatus(response.getCode());
+            checkResponse(response);
+            log.trace("HTTP request submitted");
+        } catch (IOException e) {
+            request.failure = e;
+        } catch (ExecutionException | CancellationException e) {
+            destination.limiter.onFailure(request.latencyNanos, System.nanoTime());
+            Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+            request.failure = cause instanceof IOException
+                    ? (IOException) cause
+                    : new IOException(cause);
+        } catch (InterruptedException e) {
+            // Not reached: the response is complete.
+            Thread.currentThread().interrupt();
+            request.failure = new IOException("Interrupted while waiting for the HTTP response", e);
+        }
+        request.response = null;
+        recordLimits();
+
+        if (request.failure != null) {
+            metrics.recordRequestError();
+            if (request.spilled != null && !retriable) {
+                // Rejected for good: sending it again would block the spilled payloads behind it.
+                log.error("Dropping a spilled payload of {} rejected by the intake", destination.destination,
+                        request.failure);
+                drained(request);
+                freeBuffers.release(request.payload.body);
+            } else if (request.spilled != null) {
+                destination.spill.failed(request.spilled);
+                backOffSpill(destination);
+            } else if (retriable && destination.spill != null && append(destination, request)) {
+                spilled(destination, Collections.singletonList(request));
+                backOffSpill(destination);
+            } else {
+                destination.failedRequests.add(request);
+            }
+        } else if (request.spilled != null) {
+            drained(request);
+            metrics.recordDrained(request.payload, spillBytes());
+            freeBuffers.release(request.payload.body);
+        } else {
+            metrics.recordDelivered(request.payload);
+            freeBuffers.release(request.payload.body);
+            if (--request.batch.remainingPayloads == 0) {
+                offsetTracker.acknowledge(request.batch.mark);
             }
-            return null;
-        });
+        }
+    }
+
+    /**
+     * Removes the spilled payload of a request from the spill queue of its destination.
+     */
+    private void drained(PendingRequest request) {
+        DestinationState destination = request.destination;
+        try {
+            destination.spill.delivered(request.spilled);
+        } catch (IOException e) {
+            log.warn("Failed to delete a drained spill segment of {}", destination.destination, e);
+        }
+    }
 
-        log.trace("HTTP request submitted");
+    /**
+     * Holds off sending spilled payloads to a destination that just failed a request, for as long as retries are
+     * backed off or the intake asked to wait.
+     */
+    private void backOffSpill(DestinationState destination) {
+        long now = System.nanoTime();
+        long delayMs = Math.max(config.retryBackoffMs, destination.limiter.retryAfterMs(now));
+        destination.nextDrainNanos = now + TimeUnit.MILLISECONDS.toNanos(delayMs);
+    }
+
+    /**
+     * Records the limits of the task: the requests in flight it allows to all destinations, and the largest
+     * batch size of any of them.
+     */
+    private void recordLimits() {
+        int concurrency = 0;
+        int batchBytes = 0;
+        for (DestinationState destination : destinations) {
+            concurrency += destination.limiter.concurrencyLimit();
+            batchBytes = Math.max(batchBytes, destination.limiter.batchBytesLimit());
+        }
+        metrics.recordLimits(concurrency, batchBytes);
+    }
+
+    private void updateLimits(PendingRequest request, SimpleHttpResponse response) {
+        AdaptiveLimiter limiter = request.destination.limiter;
+        int status = response.getCode();
+        long now = System.nanoTime();
+        if (status == HttpStatus.SC_TOO_MANY_REQUESTS || status == HttpStatus.SC_SERVICE_UNAVAILABLE) {
+            Header retryAfter = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+            long retryAfterNanos = parseRetryAfter(retryAfter != null ? retryAfter.getValue() : null);
+            log.debug("Intake throttled the request with status {}, retry after {}ms", status,
+                    TimeUnit.NANOSECONDS.toMillis(retryAfterNanos));
+            limiter.onThrottled(retryAfterNanos, request.latencyNanos, now);
+        } else if (isSuccessfulHttpStatus(status)) {
+            limiter.onSuccess(request.payload.uncompressedBytes, request.latencyNanos, now);
+        } else {
+            limiter.onFailure(request.latencyNanos, now);
+        }
+    }
+
+    /**
+     * Parses a {@code Retry-After} header, given either in seconds or as an HTTP date.
+     *
+     * @return the delay in nanoseconds, or -1 if there is no valid header.
+     */
+    static long parseRetryAfter(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return TimeUnit.SECONDS.toNanos(Math.max(0, Long.parseLong(value.trim())));
+        } catch (NumberFormatException e) {
+            Instant date = DateUtils.parseStandardDate(value.trim());
+            if (date == null) {
+                return -1;
+            }
+            return Math.max(0, TimeUnit.MILLISECONDS.toNanos(date.toEpochMilli() - System.currentTimeMillis()));
+        }
+    }
+
+    private void checkResponse(SimpleHttpResponse response) throws IOException {
+        int status = response.getCode();
+        if (!isSuccessfulHttpStatus(status)) {
+            String error = response.getBodyText() != null ? response.getBodyText() : "";
+            log.error("Http request failed with status: {}", status);
+            throw new IOException("HTTP Response code: " + status
+                    + ", " + response.getReasonPhrase() + ", " + error);
+        }
+        if (log.isTraceEnabled()) {
+            String body = response.getBodyText() != null ? response.getBodyText() : "";
+            log.trace("Received HTTP response {} {} with body {}", status, response.getReasonPhrase(), body);
+        }
+    }
+
+    private void throwIfFailed() throws IOException {
+        IOException error = null;
+        int failed = 0;
+        for (DestinationState destination : destinations) {
+            if (error == null && !destination.failedRequests.isEmpty()) {
+                error = destination.failedRequests.get(0).failure;
+            }
+            failed += destination.failedRequests.size();
+        }
+        if (error != null) {
+            if (failed > 1) {
+                error = new IOException(failed + " requests failed, first error: " + error.getMessage(), error);
+            }
+            throw error;
+        }
     }
 
     /**
@@ -329,17 +905,150 @@ public class DatadogLogsApiWriter implements Closeable {
         return statusCode >= 200 && statusCode < 300;
     }
 
-    private byte[] compress(String str) throws IOException {
-        ByteArrayOutputStream os = new ByteArrayOutputStream(str.length());
-        GZIPOutputStream gos = new GZIPOutputStream(os);
-        gos.write(str.getBytes());
-        os.close();
-        gos.close();
-        return os.toByteArray();
+    /**
+     * @return true for the statuses of requests the intake may accept when sent again: timeouts, throttling and
+     * server errors. The other failures are rejections of the payload itself.
+     */
+    private boolean isRetriableHttpStatus(int statusCode) {
+        return isSuccessfulHttpStatus(statusCode) || statusCode == HttpStatus.SC_REQUEST_TIMEOUT
+                || statusCode == HttpStatus.SC_TOO_MANY_REQUESTS || statusCode >= 500;
     }
 
     @Override
     public void close() throws IOException {
-        httpClient.close();
+        if (formatExecutor != null) {
+            for (DestinationState destination : destinations) {
+                destination.readyBatches.forEach(this::discardFormatting);
+            }
+            formatExecutor.shutdownNow();
+            try {
+                formatExecutor.awaitTermination(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        formatter.close();
+        for (BatchFormatter pooled : idleFormatters) {
+            pooled.close();
+        }
+        closeDestinations();
+        if (egress != null) {
+            egress.close();
+        }
+    }
+
+    private void closeDestinations() {
+        for (DestinationState destination : destinations) {
+            destination.httpClientLease.close();
+            if (destination.spill != null) {
+                try {
+                    destination.spill.close();
+                } catch (IOException e) {
+                    log.warn("Failed to close the spill queue of {}", destination.destination, e);
+                }
+            }
+        }
+    }
+
+    private static final class DestinationState {
+        private final Destination destination;
+        // Limits the requests in flight and the size of batches from the responses of the intake.
+        private final AdaptiveLimiter limiter;
+        // Shared with the other tasks of the worker; the lease is released when the writer is closed.
+        private final SharedHttpClients.Lease httpClientLease;
+        private final CloseableHttpAsyncClient httpClient;
+        // Records accumulated per topic across writes until a batch is full or has lingered long enough.
+        private final Map<String, OpenBatch> openBatches;
+        // Batches that have been cut but not formatted yet, in the order they were cut.
+        private final Deque<Batch> readyBatches;
+        // Requests ready to be submitted, oldest first.
+        private final Deque<PendingRequest> queuedRequests;
+        // Requests submitted to the intake whose response has not been processed yet, oldest first.
+        private final Deque<PendingRequest> inFlightRequests;
+        // Requests that failed; they are resent before anything else by the next write.
+        private final List<PendingRequest> failedRequests;
+        // Null when payloads are not spilled to disk.
+        private final SpillQueue spill;
+        // Spilled payloads are not sent before then, after a request failed.
+        private long nextDrainNanos;
+        // Whether the spill queue refused a payload since it last accepted one, to only warn once.
+        private boolean spillFull;
+
+        private DestinationState(Destination destination, AdaptiveLimiter limiter, SharedHttpClients.Lease httpClientLease,
+                                 SpillQueue spill) {
+            this.destination = destination;
+            this.limiter = limiter;
+            this.httpClientLease = httpClientLease;
+            this.httpClient = httpClientLease.client();
+            this.openBatches = new LinkedHashMap<>();
+            this.readyBatches = new ArrayDeque<>();
+            this.queuedRequests = new ArrayDeque<>();
+            this.inFlightRequests = new ArrayDeque<>();
+            this.failedRequests = new ArrayList<>();
+            this.spill = spill;
+        }
+    }
+
+    private static final class OpenBatch {
+        private final List<SinkRecord> records;
+        private final long createdNanos;
+        private final OffsetTracker.Mark mark;
+        private long estimatedBytes;
+
+        private OpenBatch(long createdNanos, OffsetTracker.Mark mark) {
+            this.records = new ArrayList<>();
+            this.createdNanos = createdNanos;
+            this.mark = mark;
+        }
+    }
+
+    private static final class Batch {
+        private final String topic;
+        private final List<SinkRecord> records;
+        private final OffsetTracker.Mark mark;
+        private int remainingPayloads;
+        // Null unless the batch is being formatted on the formatting threads, or was and has not been queued yet.
+        private Future<BatchFormatter.Formatted> formatting;
+
+        private Batch(String topic, List<SinkRecord> records, OffsetTracker.Mark mark) {
+            this.topic = topic;
+            this.records = records;
+            this.mark = mark;
+        }
+    }
+
+    private static final class FormatThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "datadog-logs-formatter-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    private static final class PendingRequest {
+        private final DestinationState destination;
+        private final Payload payload;
+        // Null for spilled payloads, which count as delivered already.
+        private final Batch batch;
+        // Only set for spilled payloads.
+        private final SpillQueue.Entry spilled;
+        private Future<SimpleHttpResponse> response;
+        // Set by the I/O thread before the response completes.
+        private long latencyNanos;
+        private IOException failure;
+
+        private PendingRequest(DestinationState destination, Payload payload, Batch batch) {
+            this(destination, payload, batch, null);
+        }
+
+        private PendingRequest(DestinationState destination, Payload payload, Batch batch, SpillQueue.Entry spilled) {
+            this.destination = destination;
+            this.payload = payload;
+            this.batch = batch;
+            this.spilled = spilled;
+        }
     }
 }
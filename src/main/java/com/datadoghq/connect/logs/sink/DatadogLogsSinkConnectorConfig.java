@@ -5,6 +5,7 @@ This product includes software developed at Datadog (https://www.datadoghq.com/)
 
 package com.datadoghq.connect.logs.sink;
 
+import org.apache.hc.core5.http2.HttpVersionPolicy;
 import org.apache.kafka.common.config.AbstractConfig;
 import org.apache.kafka.common.config.ConfigDef;
 import org.apache.kafka.common.config.ConfigDef.Type;
@@ -15,8 +16,12 @@ import org.apache.kafka.common.config.types.Password;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class DatadogLogsSinkConnectorConfig extends AbstractConfig {
 
@@ -35,6 +40,53 @@ public class DatadogLogsSinkConnectorConfig extends AbstractConfig {
     public static final String DEFAULT_DD_URL = String.format(DD_URL_FORMAT_FROM_SITE, DEFAULT_DD_SITE);
     public static final String ADD_PUBLISHED_DATE = "datadog.add_published_date";
     public static final String PARSE_RECORD_HEADERS = "datadog.parse_record_headers";
+    public static final String RECORD_HEADERS_ALLOWLIST = "datadog.parse_record_headers.allowlist";
+    public static final String RECORD_HEADERS_BYTES_FORMAT = "datadog.parse_record_headers.bytes_format";
+    public static final String JSON_PASSTHROUGH = "datadog.json_passthrough";
+    public static final String JSON_PASSTHROUGH_VALIDATE = "datadog.json_passthrough.validate";
+    public static final String FORMAT_THREADS = "datadog.format_threads";
+    public static final String OVERSIZE_ACTION = "datadog.oversize_action";
+    public static final String BATCH_MAX_RECORDS = "datadog.batch.max_records";
+    public static final String BATCH_MAX_BYTES = "datadog.batch.max_bytes";
+    public static final String BATCH_LINGER_MS = "datadog.batch.linger_ms";
+    public static final String MAX_IN_FLIGHT_REQUESTS = "datadog.max_in_flight_requests";
+    public static final String ADAPTIVE_CONCURRENCY = "datadog.adaptive_concurrency";
+    public static final String HTTP_MAX_CONNECTIONS = "datadog.http.max_connections";
+    public static final String HTTP_KEEP_ALIVE_MS = "datadog.http.keep_alive_ms";
+    public static final String HTTP_IDLE_TIMEOUT_MS = "datadog.http.idle_timeout_ms";
+    public static final String HTTP_VERSION = "datadog.http.version";
+    public static final String DESTINATIONS = "datadog.destinations";
+    // Prefix of the settings of each destination, followed by its name and one of the DESTINATION_* suffixes.
+    public static final String DESTINATION_PREFIX = "datadog.destination.";
+    public static final String DESTINATION_URL = "url";
+    public static final String DESTINATION_SITE = "site";
+    public static final String DESTINATION_API_KEY = "api_key";
+    public static final String DESTINATION_MATCH = "match";
+    public static final String ROUTE_BY = "datadog.route.by";
+    public static final String ROUTE_KEY = "datadog.route.key";
+    public static final String EXTRACT_STATUS = "datadog.extract.status";
+    public static final String EXTRACT_SERVICE = "datadog.extract.service";
+    public static final String EXTRACT_HOSTNAME = "datadog.extract.hostname";
+    public static final String EXTRACT_TRACE_ID = "datadog.extract.trace_id";
+    public static final String EXTRACT_TIMESTAMP = "datadog.extract.timestamp";
+    public static final String EXTRACT_TAGS = "datadog.extract.tags";
+    public static final String FILTER_TOPICS_EXCLUDE = "datadog.filter.topics.exclude";
+    public static final String FILTER_FIELD = "datadog.filter.field";
+    public static final String FILTER_FIELD_EXCLUDE = "datadog.filter.field.exclude";
+    public static final String SAMPLE_RATE = "datadog.sample.rate";
+    public static final String SAMPLE_VALUES = "datadog.sample.values";
+    public static final String RATE_LIMIT_RECORDS_PER_SECOND = "datadog.rate_limit.records_per_second";
+    public static final String SPILL_DIR = "datadog.spill.dir";
+    public static final String SPILL_MAX_BYTES = "datadog.spill.max_bytes";
+    public static final String SPILL_SEGMENT_BYTES = "datadog.spill.segment_bytes";
+    public static final String SPILL_SHARED = "datadog.spill.shared";
+    public static final String EGRESS_BYTES_PER_SECOND = "datadog.egress.bytes_per_second";
+    public static final String EGRESS_REQUESTS_PER_SECOND = "datadog.egress.requests_per_second";
+    public static final String EGRESS_WEIGHT = "datadog.egress.weight";
+    // Set by the connector on the configuration of each task, to tell their metrics apart.
+    public static final String TASK_ID = "datadog.task.id";
+    public static final String COMPRESSION_TYPE = "datadog.compression.type";
+    public static final String COMPRESSION_LEVEL = "datadog.compression.level";
 
     // Respect limit documented at https://docs.datadoghq.com/api/?lang=bash#logs
     public final Integer ddMaxBatchLength;
@@ -55,11 +107,51 @@ public class DatadogLogsSinkConnectorConfig extends AbstractConfig {
     public final Integer retryBackoffMs;
     public final boolean addPublishedDate;
     public final boolean parseRecordHeaders;
+    public final List<String> recordHeadersAllowlist;
+    public final HeaderEncoder.BytesFormat recordHeadersBytesFormat;
+    public final boolean jsonPassthrough;
+    public final boolean jsonPassthroughValidate;
+    public final Integer formatThreads;
+    public final BatchFormatter.OversizeAction oversizeAction;
+    public final Integer batchMaxBytes;
+    public final Integer batchLingerMs;
+    public final Integer maxInFlightRequests;
+    public final boolean adaptiveConcurrency;
+    public final Integer httpMaxConnections;
+    public final Integer httpKeepAliveMs;
+    public final Integer httpIdleTimeoutMs;
+    public final HttpVersionPolicy httpVersionPolicy;
+    // The default destination first, then the ones listed in datadog.destinations.
+    public final List<Destination> destinations;
+    public final DestinationRouter.RouteBy routeBy;
+    public final String routeKey;
+    // Compiled once from the datadog.extract.* paths, and shared by the formatters.
+    public final FieldExtractor fieldExtractor;
+    public final List<String> filterTopicsExclude;
+    public final FieldPath filterField;
+    public final List<String> filterFieldExclude;
+    public final Double sampleRate;
+    public final List<String> sampleValues;
+    public final Integer rateLimitRecordsPerSecond;
+    // Null when payloads are not spilled to disk.
+    public final String spillDir;
+    public final Long spillMaxBytes;
+    public final Integer spillSegmentBytes;
+    public final Boolean spillShared;
+    // 0 when the bytes or requests sent are not budgeted.
+    public final Long egressBytesPerSecond;
+    public final Integer egressRequestsPerSecond;
+    public final Double egressWeight;
+    public final String connectorName;
+    public final String taskId;
+    public final CompressionType compressionType;
+    public final Integer compressionLevel;
 
     public static final ConfigDef CONFIG_DEF = baseConfigDef();
+    private static final ConfigDef DESTINATION_CONFIG_DEF = destinationConfigDef();
 
     public DatadogLogsSinkConnectorConfig(Map<String, String> props) {
-        this(true, 500, props);
+        this(true, null, props);
     }
 
     public DatadogLogsSinkConnectorConfig(Boolean useSSL, Integer ddMaxBatchLength, Map<String, String> props) {
@@ -75,29 +167,133 @@ public class DatadogLogsSinkConnectorConfig extends AbstractConfig {
         this.useSSL = useSSL;
         this.ddUrl = getString(DD_URL);
         this.ddSite = getString(DD_SITE);
-        this.ddMaxBatchLength = ddMaxBatchLength;
+        this.ddMaxBatchLength = ddMaxBatchLength != null ? ddMaxBatchLength : getInt(BATCH_MAX_RECORDS);
         this.addPublishedDate = getBoolean(ADD_PUBLISHED_DATE);
         this.parseRecordHeaders = getBoolean(PARSE_RECORD_HEADERS);
+        this.recordHeadersAllowlist = getList(RECORD_HEADERS_ALLOWLIST);
+        this.recordHeadersBytesFormat = HeaderEncoder.BytesFormat.forName(getString(RECORD_HEADERS_BYTES_FORMAT));
+        this.jsonPassthrough = getBoolean(JSON_PASSTHROUGH);
+        this.jsonPassthroughValidate = getBoolean(JSON_PASSTHROUGH_VALIDATE);
+        this.formatThreads = getInt(FORMAT_THREADS);
+        this.oversizeAction = BatchFormatter.OversizeAction.forName(getString(OVERSIZE_ACTION));
+        this.batchMaxBytes = getInt(BATCH_MAX_BYTES);
+        this.batchLingerMs = getInt(BATCH_LINGER_MS);
+        this.maxInFlightRequests = getInt(MAX_IN_FLIGHT_REQUESTS);
+        this.adaptiveConcurrency = getBoolean(ADAPTIVE_CONCURRENCY);
+        this.httpMaxConnections = getInt(HTTP_MAX_CONNECTIONS);
+        this.httpKeepAliveMs = getInt(HTTP_KEEP_ALIVE_MS);
+        this.httpIdleTimeoutMs = getInt(HTTP_IDLE_TIMEOUT_MS);
+        this.httpVersionPolicy = toVersionPolicy(getString(HTTP_VERSION));
+        this.routeBy = DestinationRouter.RouteBy.forName(getString(ROUTE_BY));
+        this.routeKey = getString(ROUTE_KEY);
+        this.destinations = getDestinations();
+        this.fieldExtractor = new FieldExtractor(getFieldPath(EXTRACT_STATUS), getFieldPath(EXTRACT_SERVICE),
+                getFieldPath(EXTRACT_HOSTNAME), getFieldPath(EXTRACT_TRACE_ID), getFieldPath(EXTRACT_TIMESTAMP),
+                getFieldPath(EXTRACT_TAGS));
+        this.filterTopicsExclude = getList(FILTER_TOPICS_EXCLUDE);
+        this.filterField = getFieldPath(FILTER_FIELD);
+        this.filterFieldExclude = getList(FILTER_FIELD_EXCLUDE);
+        this.sampleRate = getDouble(SAMPLE_RATE);
+        this.sampleValues = getList(SAMPLE_VALUES);
+        this.rateLimitRecordsPerSecond = getInt(RATE_LIMIT_RECORDS_PER_SECOND);
+        this.spillDir = getString(SPILL_DIR);
+        this.spillMaxBytes = getLong(SPILL_MAX_BYTES);
+        this.spillSegmentBytes = getInt(SPILL_SEGMENT_BYTES);
+        this.spillShared = getBoolean(SPILL_SHARED);
+        this.egressBytesPerSecond = getLong(EGRESS_BYTES_PER_SECOND);
+        this.egressRequestsPerSecond = getInt(EGRESS_REQUESTS_PER_SECOND);
+        this.egressWeight = getDouble(EGRESS_WEIGHT);
+        this.connectorName = originalsStrings().getOrDefault("name", "unknown");
+        this.taskId = getString(TASK_ID);
+        this.compressionType = CompressionType.forName(getString(COMPRESSION_TYPE));
+        this.compressionLevel = getInt(COMPRESSION_LEVEL) != null ? getInt(COMPRESSION_LEVEL) : compressionType.defaultLevel;
         validateConfig();
     }
 
     public URL getURL() throws MalformedURLException {
+        return buildURL(ddUrl, ddSite);
+    }
+
+    private URL buildURL(String url, String site) throws MalformedURLException {
         String protocol = useSSL ? "https://" : "http://";
 
         String domain = DatadogLogsSinkConnectorConfig.DEFAULT_DD_URL;
 
-        if (ddUrl != null && !ddUrl.isEmpty()) {
-            domain = ddUrl;
-        } else if (ddSite != null && !ddSite.isEmpty()) {
-            domain = String.format(DD_URL_FORMAT_FROM_SITE, ddSite);
+        if (url != null && !url.isEmpty()) {
+            domain = url;
+        } else if (site != null && !site.isEmpty()) {
+            domain = String.format(DD_URL_FORMAT_FROM_SITE, site);
         }
 
         return new URL(protocol + domain + "/api/v2/logs");
     }
+
+    private List<Destination> getDestinations() {
+        List<Destination> destinations = new ArrayList<>();
+        destinations.add(new Destination(Destination.DEFAULT_NAME, toURL(DD_URL, ddUrl, ddSite), ddApiKey,
+                Collections.emptyList()));
+
+        Set<String> names = new HashSet<>();
+        names.add(Destination.DEFAULT_NAME);
+        for (String name : getList(DESTINATIONS)) {
+            if (!names.add(name)) {
+                throw new ConfigException(DESTINATIONS, getList(DESTINATIONS), "Destination names must be unique and not " + Destination.DEFAULT_NAME + ".");
+            }
+
+            String prefix = DESTINATION_PREFIX + name + ".";
+            Map<String, Object> settings;
+            try {
+                settings = DESTINATION_CONFIG_DEF.parse(originalsWithPrefix(prefix));
+            } catch (ConfigException e) {
+                throw new ConfigException("Invalid settings for destination " + name + ": " + e.getMessage());
+            }
+
+            Password apiKey = (Password) settings.get(DESTINATION_API_KEY);
+            @SuppressWarnings("unchecked")
+            List<String> matches = (List<String>) settings.get(DESTINATION_MATCH);
+            destinations.add(new Destination(name,
+                    toURL(prefix + DESTINATION_URL, (String) settings.get(DESTINATION_URL), (String) settings.get(DESTINATION_SITE)),
+                    apiKey.value(), matches));
+        }
+        return Collections.unmodifiableList(destinations);
+    }
+
+    private String toURL(String key, String url, String site) {
+        try {
+            return buildURL(url, site).toString();
+        } catch (MalformedURLException e) {
+            throw new ConfigException(key, url, e.getMessage());
+        }
+    }
+
     private void validateConfig() {
         if (getPasswordValue(DD_API_KEY) == null) {
             throw new ConfigException("API Key must not be empty.");
         }
+
+        if (compressionType != CompressionType.NONE
+                && (compressionLevel < compressionType.minLevel || compressionLevel > compressionType.maxLevel)) {
+            throw new ConfigException(COMPRESSION_LEVEL, compressionLevel, "Must be between " + compressionType.minLevel
+                    + " and " + compressionType.maxLevel + " for " + compressionType + " compression.");
+        }
+
+        if (routeBy != DestinationRouter.RouteBy.TOPIC && (routeKey == null || routeKey.isEmpty())) {
+            throw new ConfigException(ROUTE_KEY, routeKey, "Must be set to route records by " + routeBy + ".");
+        }
+        if (routeBy == DestinationRouter.RouteBy.FIELD) {
+            getFieldPath(ROUTE_KEY);
+        }
+
+        if (filterField == null && !filterFieldExclude.isEmpty()) {
+            throw new ConfigException(FILTER_FIELD, null, "Must be set to filter records on " + FILTER_FIELD_EXCLUDE + ".");
+        }
+        if (filterField == null && !sampleValues.isEmpty()) {
+            throw new ConfigException(FILTER_FIELD, null, "Must be set to sample records on " + SAMPLE_VALUES + ".");
+        }
+
+        if (spillMaxBytes < spillSegmentBytes) {
+            throw new ConfigException(SPILL_MAX_BYTES, spillMaxBytes, "Must be at least " + SPILL_SEGMENT_BYTES + ".");
+        }
     }
 
     private static ConfigDef baseConfigDef() {
@@ -105,6 +301,17 @@ public class DatadogLogsSinkConnectorConfig extends AbstractConfig {
         addMetadataConfigs(configDef);
         addProxyConfigs(configDef);
         addRetryConfigs(configDef);
+        addBatchingConfigs(configDef);
+        addDeliveryConfigs(configDef);
+        addCompressionConfigs(configDef);
+        addHttpConfigs(configDef);
+        addRoutingConfigs(configDef);
+        addExtractionConfigs(configDef);
+        addFilterConfigs(configDef);
+        addSpillConfigs(configDef);
+        addEgressConfigs(configDef);
+        addRecordConfigs(configDef);
+        configDef.defineInternal(TASK_ID, Type.STRING, "0", Importance.LOW);
         return configDef;
     }
 
@@ -184,7 +391,18 @@ public class DatadogLogsSinkConnectorConfig extends AbstractConfig {
                 false,
                 null,
                 Importance.MEDIUM,
-                "Valid settings are true or false. When set to `true`, Kafka Record Headers will be parsed and passed to DataDog as `kafkaheaders` object");
+                "Valid settings are true or false. When set to `true`, Kafka Record Headers will be parsed and passed to DataDog as `kafkaheaders` object"
+        ).define(RECORD_HEADERS_ALLOWLIST,
+                Type.LIST,
+                "",
+                Importance.LOW,
+                "The keys of the Kafka Record Headers passed to Datadog when " + PARSE_RECORD_HEADERS + " is enabled. All headers are passed when empty."
+        ).define(RECORD_HEADERS_BYTES_FORMAT,
+                Type.STRING,
+                "utf8",
+                ConfigDef.CaseInsensitiveValidString.in("utf8", "base64"),
+                Importance.LOW,
+                "How Kafka Record Headers holding bytes are passed to Datadog: `utf8` decodes them as text and falls back to base64 when they are not valid UTF-8, `base64` always encodes them as base64.");
     }
 
     private static void addProxyConfigs(ConfigDef configDef) {
@@ -242,6 +460,497 @@ public class DatadogLogsSinkConnectorConfig extends AbstractConfig {
         );
     }
 
+    private static void addBatchingConfigs(ConfigDef configDef) {
+        int orderInGroup = 0;
+        final String group = "Datadog Batching";
+
+        configDef.define(
+                FORMAT_THREADS,
+                Type.INT,
+                1,
+                ConfigDef.Range.atLeast(1),
+                Importance.LOW,
+                "The number of threads each task uses to serialize and compress batches. With a value above 1, " +
+                        "batches are formatted in parallel and still sent in the order the records were received.",
+                group,
+                ++orderInGroup,
+                Width.SHORT,
+                "Format Threads"
+        ).define(
+                BATCH_MAX_RECORDS,
+                Type.INT,
+                500,
+                ConfigDef.Range.between(1, DatadogLogsApiWriter.MAXIMUM_BATCH_ENTRIES),
+                Importance.LOW,
+                "The maximum number of records sent to Datadog in one request. The intake accepts at most 1000 log entries per request.",
+                group,
+                ++orderInGroup,
+                Width.SHORT,
+                "Max Records per Batch"
+        ).define(
+                BATCH_MAX_BYTES,
+                Type.INT,
+                DatadogLogsApiWriter.MAXIMUM_BATCH_BYTES,
+                ConfigDef.Range.between(1, DatadogLogsApiWriter.MAXIMUM_BATCH_BYTES),
+                Importance.LOW,
+                "The uncompressed size in bytes a batch is sent at, estimated from the size of the log entries of the topic so far. " +
+                        "A batch never exceeds " + DatadogLogsApiWriter.MAXIMUM_BATCH_BYTES + " bytes, the limit of the intake.",
+                group,
+                ++orderInGroup,
+                Width.SHORT,
+                "Max Bytes per Batch"
+        ).define(
+                BATCH_LINGER_MS,
+                Type.INT,
+                0,
+                ConfigDef.Range.atLeast(0),
+                Importance.LOW,
+                "How long in milliseconds records may wait for more records of their topic before being sent in a batch that is not full. " +
+                        "With 0, the records of each put are sent before it returns. Offsets are only committed once records have been sent.",
+                group,
+                ++orderInGroup,
+                Width.SHORT,
+                "Batch Linger (millis)"
+        ).define(
+                OVERSIZE_ACTION,
+                Type.STRING,
+                "drop",
+                ConfigDef.CaseInsensitiveValidString.in("drop", "truncate", "split"),
+                Importance.LOW,
+                "What to do with a record whose log entry exceeds the " + DatadogLogsApiWriter.MAXIMUM_BATCH_BYTES + " bytes limit of a request: " +
+                        "`drop` reports it to the errant record reporter, `truncate` cuts its message to fit, and `split` sends its message " +
+                        "as several log entries. Records whose value is not a string are always dropped.",
+                group,
+                ++orderInGroup,
+                Width.SHORT,
+                "Oversize Record Action"
+        );
+    }
+
+    private static void addDeliveryConfigs(ConfigDef configDef) {
+        int orderInGroup = 0;
+        final String group = "Datadog Delivery";
+
+        configDef.define(
+                MAX_IN_FLIGHT_REQUESTS,
+                Type.INT,
+                1,
+                ConfigDef.Range.atLeast(1),
+                Importance.LOW,
+                "The maximum number of requests each task keeps in flight to the Datadog intake. " +
+                        "With a value above 1 requests are sent asynchronously and offsets are only committed once they have been acknowledged.",
+                group,
+                ++orderInGroup,
+                Width.SHORT,
+                "Max In-Flight Requests"
+        ).define(
+                ADAPTIVE_CONCURRENCY,
+                Type.BOOLEAN,
+                false,
+                null,
+                Importance.LOW,
+                "Whether each task adapts the number of requests it keeps in flight and the size of its batches to the responses of the intake. " +
+                        "Both grow while the intake answers quickly, up to " + MAX_IN_FLIGHT_REQUESTS + " and " + BATCH_MAX_BYTES + ", and are halved " +
+                        "when the intake throttles requests or fails them. The requests in flight alone are halved when the intake slows down " +
+                        "more than the size of the payloads accounts for.",
+                group,
+                ++orderInGroup,
+                Width.SHORT,
+                "Adaptive Concurrency"
+        );
+    }
+
+    private static void addHttpConfigs(ConfigDef configDef) {
+        int orderInGroup = 0;
+        final String group = "Datadog HTTP";
+
+        configDef.define(
+                HTTP_MAX_CONNECTIONS,
+                Type.INT,
+                20,
+                ConfigDef.Range.atLeast(1),
+                Importance.LOW,
+                "The maximum number of connections to the intake, shared by all the tasks of the worker configured alike. " +
+                        "Requests beyond it wait for a connection to be free.",
+                group,
+                ++orderInGroup,
+                Width.SHORT,
+                "Max Connections"
+        ).define(
+                HTTP_KEEP_ALIVE_MS,
+                Type.INT,
+                60000,
+                ConfigDef.Range.atLeast(1),
+                Importance.LOW,
+                "How long in milliseconds an idle connection is kept to be reused, unless the intake asks for less.",
+                group,
+                ++orderInGroup,
+                Width.SHORT,
+                "Keep-Alive (millis)"
+        ).define(
+                HTTP_IDLE_TIMEOUT_MS,
+                Type.INT,
+                30000,
+                ConfigDef.Range.atLeast(1),
+                Importance.LOW,
+                "How long in milliseconds a connection may stay idle before being closed in the background.",
+                group,
+                ++orderInGroup,
+                Width.SHORT,
+                "Idle Timeout (millis)"
+        ).define(
+                HTTP_VERSION,
+                Type.STRING,
+                "1.1",
+                ConfigDef.CaseInsensitiveValidString.in("1.1", "2", "negotiate"),
+                Importance.LOW,
+                "The HTTP version used to reach the intake: 1.1, 2, or negotiate to use HTTP/2 when the intake offers it over TLS.",
+                group,
+                ++orderInGroup,
+                Width.SHORT,
+                "HTTP Version"
+        );
+    }
+
+    private static void addRoutingConfigs(ConfigDef configDef) {
+        int orderInGroup = 0;
+        final String group = "Datadog Routing";
+
+        configDef.define(
+                DESTINATIONS,
+                Type.LIST,
+                "",
+                Importance.LOW,
+                "The names of the destinations records are routed to on top of the default one, each configured by " +
+                        DESTINATION_PREFIX + "<name>." + DESTINATION_URL + " or ." + DESTINATION_SITE + ", ." + DESTINATION_API_KEY +
+                        " and ." + DESTINATION_MATCH + ". Each destination batches, sends and retries its records on its own.",
+                group,
+                ++orderInGroup,
+                Width.LONG,
+                "Destinations"
+        ).define(
+                ROUTE_BY,
+                Type.STRING,
+                "topic",
+                ConfigDef.CaseInsensitiveValidString.in("topic", "header", "field"),
+                Importance.LOW,
+                "What records are routed on: their `topic`, the value of the Kafka Record Header named by " + ROUTE_KEY +
+                        ", or the value of the field of the record value at the JSON path " + ROUTE_KEY + ", such as `$.owner.team`.",
+                group,
+                ++orderInGroup,
+                Width.SHORT,
+                "Route By"
+        ).define(
+                ROUTE_KEY,
+                Type.STRING,
+                null,
+                Importance.LOW,
+                "The header name or field path records are routed on, when " + ROUTE_BY + " is `header` or `field`.",
+                group,
+                ++orderInGroup,
+                Width.MEDIUM,
+                "Route Key"
+        );
+    }
+
+    private static void addExtractionConfigs(ConfigDef configDef) {
+        int orderInGroup = 0;
+        final String group = "Datadog Field Extraction";
+
+        defineFieldPath(configDef, EXTRACT_STATUS, "`status`", group, ++orderInGroup, "Status Path");
+        defineFieldPath(configDef, EXTRACT_SERVICE, "`service`, in place of " + DD_SERVICE + ",", group, ++orderInGroup, "Service Path");
+        defineFieldPath(configDef, EXTRACT_HOSTNAME, "`hostname`, in place of " + DD_HOSTNAME + ",", group, ++orderInGroup, "Hostname Path");
+        defineFieldPath(configDef, EXTRACT_TRACE_ID, "`dd.trace_id`", group, ++orderInGroup, "Trace ID Path");
+        defineFieldPath(configDef, EXTRACT_TIMESTAMP, "`timestamp`", group, ++orderInGroup, "Timestamp Path");
+        defineFieldPath(configDef, EXTRACT_TAGS, "tags appended to `ddtags`", group, ++orderInGroup, "Tags Path");
+    }
+
+    private static void defineFieldPath(ConfigDef configDef, String key, String attribute, String group, int orderInGroup,
+                                        String displayName) {
+        configDef.define(
+                key,
+                Type.STRING,
+                null,
+                Importance.LOW,
+                "The JSON path, such as `$.level` or `$.meta.tags[0]`, of the field of the record value promoted to " + attribute +
+                        " on the log entry. Only applies to values converted to structs or maps.",
+                group,
+                orderInGroup,
+                Width.MEDIUM,
+                displayName
+        );
+    }
+
+    private static void addFilterConfigs(ConfigDef configDef) {
+        int orderInGroup = 0;
+        final String group = "Datadog Filtering";
+
+        configDef.define(
+                FILTER_TOPICS_EXCLUDE,
+                Type.LIST,
+                "",
+                Importance.LOW,
+                "The topics whose records are dropped instead of being sent to Datadog.",
+                group,
+                ++orderInGroup,
+                Width.LONG,
+                "Excluded Topics"
+        ).define(
+                FILTER_FIELD,
+                Type.STRING,
+                null,
+                Importance.LOW,
+                "The JSON path, such as `$.level`, of the field of the record value records are filtered and sampled on. " +
+                        "Only applies to values converted to structs or maps.",
+                group,
+                ++orderInGroup,
+                Width.MEDIUM,
+                "Filter Field"
+        ).define(
+                FILTER_FIELD_EXCLUDE,
+                Type.LIST,
+                "",
+                Importance.LOW,
+                "The values of " + FILTER_FIELD + ", such as `debug`, of the records dropped instead of being sent to Datadog.",
+                group,
+                ++orderInGroup,
+                Width.LONG,
+                "Excluded Field Values"
+        ).define(
+                SAMPLE_RATE,
+                Type.DOUBLE,
+                1.0,
+                ConfigDef.Range.between(0.0, 1.0),
+                Importance.LOW,
+                "The share of records sent to Datadog, the others being dropped. Records are sampled on a hash of their " +
+                        "key, so that all the records of a key are either sent or dropped.",
+                group,
+                ++orderInGroup,
+                Width.SHORT,
+                "Sample Rate"
+        ).define(
+                SAMPLE_VALUES,
+                Type.LIST,
+                "",
+                Importance.LOW,
+                "The values of " + FILTER_FIELD + " of the records " + SAMPLE_RATE + " applies to, such as `info`. " +
+                        "Sampling applies to every record when empty.",
+                group,
+                ++orderInGroup,
+                Width.LONG,
+                "Sampled Field Values"
+        ).define(
+                RATE_LIMIT_RECORDS_PER_SECOND,
+                Type.INT,
+                0,
+                ConfigDef.Range.atLeast(0),
+                Importance.LOW,
+                "The maximum number of records of each topic each task sends to Datadog per second, the others being " +
+                        "dropped. Disabled when 0.",
+                group,
+                ++orderInGroup,
+                Width.SHORT,
+                "Records per Second"
+        );
+    }
+
+    private static void addSpillConfigs(ConfigDef configDef) {
+        int orderInGroup = 0;
+        final String group = "Datadog Spill Queue";
+
+        configDef.define(
+                SPILL_DIR,
+                Type.STRING,
+                null,
+                Importance.LOW,
+                "The local directory where each task writes the payloads the intake fails to accept, to send them " +
+                        "again in order once it recovers, instead of retrying them and failing the task. Offsets are " +
+                        "committed once payloads are written to disk. The payloads of a task are only sent again by " +
+                        "a task with the same id started on a worker that sees the same directory, see " +
+                        SPILL_SHARED + ". Disabled when not set.",
+                group,
+                ++orderInGroup,
+                Width.LONG,
+                "Spill Directory"
+        ).define(
+                SPILL_MAX_BYTES,
+                Type.LONG,
+                1024L * 1024 * 1024,
+                ConfigDef.Range.atLeast(1),
+                Importance.LOW,
+                "The disk space in bytes the spilled payloads of each task may take per destination. Beyond it, " +
+                        "payloads are retried in memory as when " + SPILL_DIR + " is not set.",
+                group,
+                ++orderInGroup,
+                Width.SHORT,
+                "Spill Max Bytes"
+        ).define(
+                SPILL_SEGMENT_BYTES,
+                Type.INT,
+                64 * 1024 * 1024,
+                ConfigDef.Range.atLeast(8 * 1024 * 1024),
+                Importance.LOW,
+                "The size in bytes of the files spilled payloads are written to. Files are deleted once all of " +
+                        "their payloads have been delivered.",
+                group,
+                ++orderInGroup,
+                Width.SHORT,
+                "Spill Segment Bytes"
+        ).define(
+                SPILL_SHARED,
+                Type.BOOLEAN,
+                false,
+                null,
+                Importance.LOW,
+                "Whether " + SPILL_DIR + " is on storage shared by all the workers of the cluster, such as a network " +
+                        "file system. When it is not, the payloads a task spilled stay on its worker after a " +
+                        "rebalance moves the task to another one, and tasks warn about it when they start.",
+                group,
+                ++orderInGroup,
+                Width.SHORT,
+                "Spill Directory Shared"
+        );
+    }
+
+    private static void addEgressConfigs(ConfigDef configDef) {
+        int orderInGroup = 0;
+        final String group = "Datadog Egress Budget";
+
+        configDef.define(
+                EGRESS_BYTES_PER_SECOND,
+                Type.LONG,
+                0L,
+                ConfigDef.Range.atLeast(0),
+                Importance.LOW,
+                "The compressed bytes per second the tasks of the worker may send to Datadog altogether. The " +
+                        "budget is shared by the tasks of every connector of the worker that sets a limit, and is " +
+                        "the lowest limit they set. Requests wait for their share of the budget before being sent. " +
+                        "Disabled when 0.",
+                group,
+                ++orderInGroup,
+                Width.SHORT,
+                "Egress Bytes per Second"
+        ).define(
+                EGRESS_REQUESTS_PER_SECOND,
+                Type.INT,
+                0,
+                ConfigDef.Range.atLeast(0),
+                Importance.LOW,
+                "The requests per second the tasks of the worker may send to Datadog altogether, shared like " +
+                        EGRESS_BYTES_PER_SECOND + " and also the lowest limit set. Disabled when 0.",
+                group,
+                ++orderInGroup,
+                Width.SHORT,
+                "Egress Requests per Second"
+        ).define(
+                EGRESS_WEIGHT,
+                Type.DOUBLE,
+                1.0,
+                ConfigDef.Range.atLeast(0.01),
+                Importance.LOW,
+                "The weight of the connector in the egress budget. Connectors sending at the same time share the " +
+                        "budget in proportion to their weights, whatever their number of tasks.",
+                group,
+                ++orderInGroup,
+                Width.SHORT,
+                "Egress Weight"
+        );
+    }
+
+    private FieldPath getFieldPath(String key) {
+        String path = getString(key);
+        if (path == null || path.isEmpty()) {
+            return null;
+        }
+        try {
+            return FieldPath.compile(path);
+        } catch (IllegalArgumentException e) {
+            throw new ConfigException(key, path, e.getMessage());
+        }
+    }
+
+    private static ConfigDef destinationConfigDef() {
+        return new ConfigDef()
+                .define(DESTINATION_URL, Type.STRING, null, Importance.MEDIUM,
+                        "The URL endpoint where the logs of the destination are sent.")
+                .define(DESTINATION_SITE, Type.STRING, null, Importance.MEDIUM,
+                        "The site of the Datadog intake the logs of the destination are sent to.")
+                .define(DESTINATION_API_KEY, Type.PASSWORD, ConfigDef.NO_DEFAULT_VALUE, Importance.HIGH,
+                        "The API key of the Datadog organization of the destination.")
+                .define(DESTINATION_MATCH, Type.LIST, ConfigDef.NO_DEFAULT_VALUE, Importance.MEDIUM,
+                        "The routing values of the records sent to the destination, or " + Destination.MATCH_ALL + " for every record.");
+    }
+
+    private static HttpVersionPolicy toVersionPolicy(String version) {
+        switch (version.toLowerCase()) {
+            case "2":
+                return HttpVersionPolicy.FORCE_HTTP_2;
+            case "negotiate":
+                return HttpVersionPolicy.NEGOTIATE;
+            default:
+                return HttpVersionPolicy.FORCE_HTTP_1;
+        }
+    }
+
+    private static void addCompressionConfigs(ConfigDef configDef) {
+        int orderInGroup = 0;
+        final String group = "Datadog Compression";
+
+        configDef.define(
+                COMPRESSION_TYPE,
+                Type.STRING,
+                CompressionType.GZIP.toString(),
+                ConfigDef.CaseInsensitiveValidString.in("gzip", "zstd", "none"),
+                Importance.LOW,
+                "The compression applied to the requests sent to Datadog: `gzip`, `zstd` or `none`.",
+                group,
+                ++orderInGroup,
+                Width.SHORT,
+                "Compression Type"
+        ).define(
+                COMPRESSION_LEVEL,
+                Type.INT,
+                null,
+                Importance.LOW,
+                "The compression level, from 1 (fastest) to 9 (best) for gzip and from 1 to 22 for zstd. " +
+                        "Defaults to 6 for gzip and 3 for zstd.",
+                group,
+                ++orderInGroup,
+                Width.SHORT,
+                "Compression Level"
+        );
+    }
+
+    private static void addRecordConfigs(ConfigDef configDef) {
+        int orderInGroup = 0;
+        final String group = "Datadog Records";
+
+        configDef.define(
+                JSON_PASSTHROUGH,
+                Type.BOOLEAN,
+                false,
+                Importance.LOW,
+                "Valid settings are true or false. When set to `true`, record values that are strings or bytes " +
+                        "(for example read with the StringConverter or ByteArrayConverter) are expected to already hold JSON " +
+                        "and are copied as is into the `message` field instead of being converted.",
+                group,
+                ++orderInGroup,
+                Width.SHORT,
+                "JSON Passthrough"
+        ).define(
+                JSON_PASSTHROUGH_VALIDATE,
+                Type.BOOLEAN,
+                true,
+                Importance.LOW,
+                "Valid settings are true or false. When set to `true`, values are checked to be well-formed JSON before " +
+                        "being copied in passthrough mode; values that are not are converted as usual.",
+                group,
+                ++orderInGroup,
+                Width.SHORT,
+                "Validate JSON Passthrough"
+        );
+    }
+
     private String getPasswordValue(String key) {
         Password password = getPassword(key);
         if (password != null) {
@@ -0,0 +1,282 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.metrics.JmxReporter;
+import org.apache.kafka.common.metrics.KafkaMetricsContext;
+import org.apache.kafka.common.metrics.MetricConfig;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.metrics.MetricsReporter;
+import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.common.metrics.stats.Avg;
+import org.apache.kafka.common.metrics.stats.CumulativeSum;
+import org.apache.kafka.common.metrics.stats.Max;
+import org.apache.kafka.common.metrics.stats.Meter;
+import org.apache.kafka.common.metrics.stats.Percentile;
+import org.apache.kafka.common.metrics.stats.Percentiles;
+import org.apache.kafka.common.metrics.stats.WindowedCount;
+import org.apache.kafka.common.utils.Time;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics of a task, registered with Kafka's {@link Metrics} and exposed over JMX as
+ * {@code kafka.connect:type=datadog-logs-sink-task-metrics,connector=<name>,task=<id>}, next to the metrics
+ * of Connect itself.
+ * <p>
+ * They tell apart the time spent serializing and compressing records ({@code format-time-*}) from the time
+ * spent waiting on the intake ({@code request-latency-*}). All methods are thread-safe: formatting threads
+ * and the HTTP client's I/O threads record into the same sensors as the task thread.
+ */
+public class DatadogLogsSinkMetrics implements Closeable {
+    static final String JMX_PREFIX = "kafka.connect";
+    static final String GROUP = "datadog-logs-sink-task-metrics";
+    // Requests time out after 10s; the histogram leaves room for the time spent queued in the client.
+    private static final double MAX_LATENCY_MS = 30_000;
+    private static final int HISTOGRAM_BYTES = 4000;
+
+    private final Metrics metrics;
+    private final Map<String, String> tags;
+    private final AtomicInteger inFlightRequests;
+    // Guarded by this: the time spent with requests in flight, before the current busy period if any.
+    private long busyNanos;
+    private long busySinceNanos;
+    private final AtomicInteger concurrencyLimit;
+    private final AtomicInteger batchBytesLimit;
+    private final AtomicLong spillBytes;
+    private final AtomicLong offHeapBytes;
+
+    private final Sensor recordsReceived;
+    private final Sensor recordsSent;
+    private final Sensor recordsDropped;
+    private final Sensor recordsFiltered;
+    private final Sensor payloadsSpilled;
+    private final Sensor payloadsDrained;
+    private final Sensor recordsErrant;
+    private final Sensor uncompressedBytes;
+    private final Sensor compressedBytes;
+    private final Sensor recordsPerRequest;
+    private final Sensor requestLatency;
+    private final Sensor requestErrors;
+    private final Sensor requestRetries;
+    private final Sensor formatTime;
+    private final Sensor putTime;
+    private final Sensor egressWait;
+
+    /**
+     * Creates the metrics of a task, reported over JMX.
+     */
+    static DatadogLogsSinkMetrics forTask(String connector, String task) {
+        Map<String, String> tags = new LinkedHashMap<>();
+        tags.put("connector", connector);
+        tags.put("task", task);
+        List<MetricsReporter> reporters = Collections.singletonList(new JmxReporter());
+        // The reporter takes its prefix from the namespace of the context, as for the metrics of Connect itself.
+        Metrics metrics = new Metrics(new MetricConfig(), reporters, Time.SYSTEM, new KafkaMetricsContext(JMX_PREFIX));
+        return new DatadogLogsSinkMetrics(metrics, tags);
+    }
+
+    DatadogLogsSinkMetrics(Metrics metrics, Map<String, String> tags) {
+        this.metrics = metrics;
+        this.tags = tags;
+        this.inFlightRequests = new AtomicInteger();
+        this.concurrencyLimit = new AtomicInteger();
+        this.batchBytesLimit = new AtomicInteger();
+        this.spillBytes = new AtomicLong();
+        this.offHeapBytes = new AtomicLong();
+
+        recordsReceived = meter("records-received", "record-receive", "records passed to the task");
+        recordsSent = meter("records-sent", "record-send", "records acknowledged by the intake");
+        recordsDropped = meter("records-dropped-oversize", "record-drop-oversize",
+                "records dropped because they exceed the size limit of a request");
+        recordsFiltered = meter("records-filtered", "record-filter",
+                "records dropped by the filters, sampling or rate limits before being formatted");
+        recordsErrant = meter("records-conversion-error", "record-conversion-error",
+                "records skipped because they cannot be converted to JSON");
+        uncompressedBytes = meter("bytes-uncompressed", "bytes-uncompressed",
+                "bytes of JSON acknowledged by the intake, before compression");
+        compressedBytes = meter("bytes-compressed", "bytes-compressed",
+                "bytes of request bodies acknowledged by the intake, after compression");
+        payloadsSpilled = meter("payloads-spilled", "payload-spill",
+                "payloads written to the spill queue instead of being retried in memory");
+        payloadsDrained = meter("payloads-drained", "payload-drain", "spilled payloads acknowledged by the intake");
+        requestErrors = meter("request-errors", "request-error", "requests that failed");
+        requestRetries = meter("request-retries", "request-retry", "requests sent again after a failure");
+
+        recordsPerRequest = metrics.sensor(name("records-per-request"));
+        recordsPerRequest.add(metricName("records-per-request-avg", "The average number of records per request."), new Avg());
+        recordsPerRequest.add(metricName("records-per-request-max", "The maximum number of records per request."), new Max());
+
+        requestLatency = metrics.sensor(name("request-latency"));
+        requestLatency.add(new Meter(new WindowedCount(),
+                metricName("request-rate", "The number of requests sent per second."),
+                metricName("request-total", "The total number of requests sent.")));
+        requestLatency.add(metricName("request-latency-avg", "The average time in ms to get a response from the intake."), new Avg());
+        requestLatency.add(metricName("request-latency-max", "The maximum time in ms to get a response from the intake."), new Max());
+        requestLatency.add(new Percentiles(HISTOGRAM_BYTES, MAX_LATENCY_MS, Percentiles.BucketSizing.LINEAR,
+                new Percentile(metricName("request-latency-p50", "The median time in ms to get a response from the intake."), 50),
+                new Percentile(metricName("request-latency-p90", "The 90th percentile of the time in ms to get a response from the intake."), 90),
+                new Percentile(metricName("request-latency-p99", "The 99th percentile of the time in ms to get a response from the intake."), 99)));
+
+        formatTime = metrics.sensor(name("format-time"));
+        formatTime.add(metricName("format-time-avg", "The average time in ms spent serializing and compressing a batch."), new Avg());
+        formatTime.add(metricName("format-time-max", "The maximum time in ms spent serializing and compressing a batch."), new Max());
+        formatTime.add(metricName("format-time-total", "The total time in ms spent serializing and compressing batches."), new CumulativeSum());
+
+        putTime = metrics.sensor(name("put-time"));
+        putTime.add(metricName("put-time-avg", "The average time in ms of a put."), new Avg());
+        putTime.add(metricName("put-time-max", "The maximum time in ms of a put."), new Max());
+
+        egressWait = metrics.sensor(name("egress-wait"));
+        egressWait.add(metricName("egress-wait-time-avg", "The average time in ms a request waited for the egress budget."), new Avg());
+        egressWait.add(metricName("egress-wait-time-max", "The maximum time in ms a request waited for the egress budget."), new Max());
+        egressWait.add(metricName("egress-wait-time-total", "The total time in ms requests waited for the egress budget."), new CumulativeSum());
+
+        metrics.addMetric(metricName("in-flight-requests", "The number of requests waiting for a response from the intake."),
+                (config, now) -> inFlightRequests.get());
+        metrics.addMetric(metricName("request-busy-time-total",
+                "The total time in ms during which at least one request was waiting for a response from the intake."),
+                (config, now) -> toMillis(busyNanos(System.nanoTime())));
+        metrics.addMetric(metricName("concurrency-limit", "The number of requests the task currently allows in flight."),
+                (config, now) -> concurrencyLimit.get());
+        metrics.addMetric(metricName("batch-bytes-limit", "The uncompressed size in bytes the task currently cuts batches at."),
+                (config, now) -> batchBytesLimit.get());
+        metrics.addMetric(metricName("spill-bytes", "The disk space in bytes taken by the spill queues of the task."),
+                (config, now) -> spillBytes.get());
+        metrics.addMetric(metricName("off-heap-bytes", "The direct memory in bytes held by the payload buffers of the task."),
+                (config, now) -> offHeapBytes.get());
+        metrics.addMetric(metricName("compression-ratio", "The ratio of uncompressed to compressed bytes acknowledged by the intake."),
+                (config, now) -> {
+                    double compressed = value("bytes-compressed-total");
+                    return compressed > 0 ? value("bytes-uncompressed-total") / compressed : 0;
+                });
+    }
+
+    void recordReceived(int records) {
+        recordsReceived.record(records);
+    }
+
+    void recordDropped() {
+        recordsDropped.record();
+    }
+
+    void recordFiltered(int records) {
+        recordsFiltered.record(records);
+    }
+
+    void recordConversionError() {
+        recordsErrant.record();
+    }
+
+    void recordFormat(long nanos) {
+        formatTime.record(toMillis(nanos));
+    }
+
+    void recordPut(long millis) {
+        putTime.record(millis);
+    }
+
+    void recordEgressWait(long nanos) {
+        egressWait.record(toMillis(nanos));
+    }
+
+    void recordRequestSubmitted() {
+        synchronized (this) {
+            if (inFlightRequests.getAndIncrement() == 0) {
+                busySinceNanos = System.nanoTime();
+            }
+        }
+    }
+
+    void recordRequestCompleted(long nanos) {
+        synchronized (this) {
+            if (inFlightRequests.decrementAndGet() == 0) {
+                busyNanos += System.nanoTime() - busySinceNanos;
+            }
+        }
+        requestLatency.record(toMillis(nanos));
+    }
+
+    /**
+     * @return the time spent with at least one request in flight, in which concurrent requests count once, so
+     * that it compares with wall-clock time.
+     */
+    private synchronized long busyNanos(long nowNanos) {
+        return inFlightRequests.get() > 0 ? busyNanos + nowNanos - busySinceNanos : busyNanos;
+    }
+
+    void recordSpilled(int payloads, long bytes) {
+        payloadsSpilled.record(payloads);
+        spillBytes.set(bytes);
+    }
+
+    void recordDrained(Payload payload, long bytes) {
+        payloadsDrained.record();
+        recordDelivered(payload);
+        spillBytes.set(bytes);
+    }
+
+    void recordOffHeapBytes(long bytes) {
+        offHeapBytes.set(bytes);
+    }
+
+    void recordLimits(int concurrency, int batchBytes) {
+        concurrencyLimit.set(concurrency);
+        batchBytesLimit.set(batchBytes);
+    }
+
+    void recordDelivered(Payload payload) {
+        recordsSent.record(payload.entries);
+        recordsPerRequest.record(payload.entries);
+        uncompressedBytes.record(payload.uncompressedBytes);
+        compressedBytes.record(payload.compressedBytes());
+    }
+
+    void recordRequestError() {
+        requestErrors.record();
+    }
+
+    void recordRetries(int requests) {
+        requestRetries.record(requests);
+    }
+
+    double value(String name) {
+        return (double) metrics.metric(metrics.metricName(name, GROUP, tags)).metricValue();
+    }
+
+    @Override
+    public void close() {
+        metrics.close();
+    }
+
+    private Sensor meter(String sensor, String metric, String description) {
+        Sensor meter = metrics.sensor(name(sensor));
+        meter.add(new Meter(
+                metricName(metric + "-rate", "The number of " + description + " per second."),
+                metricName(metric + "-total", "The total number of " + description + ".")));
+        return meter;
+    }
+
+    private MetricName metricName(String name, String description) {
+        return metrics.metricName(name, GROUP, description, tags);
+    }
+
+    private static String name(String sensor) {
+        return GROUP + "." + sensor;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -8,7 +8,9 @@ package com.datadoghq.connect.logs.sink;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.connect.errors.ConnectException;
+import org.apache.kafka.connect.errors.DataException;
 import org.apache.kafka.connect.errors.RetriableException;
+import org.apache.kafka.connect.sink.ErrantRecordReporter;
 import org.apache.kafka.connect.sink.SinkRecord;
 import org.apache.kafka.connect.sink.SinkTask;
 import org.slf4j.Logger;
@@ -18,6 +20,7 @@ import java.io.IOException;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
@@ -29,12 +32,14 @@ public class DatadogLogsSinkTask extends SinkTask {
 
     DatadogLogsSinkConnectorConfig config;
     DatadogLogsApiWriter writer;
+    DatadogLogsSinkMetrics metrics;
     int remainingRetries;
 
     @Override
     public void start(Map<String, String> settings) {
         config = new DatadogLogsSinkConnectorConfig(settings);
         log.info("Starting task with config={}", config);
+        metrics = DatadogLogsSinkMetrics.forTask(config.connectorName, config.taskId);
         initWriter();
         remainingRetries = config.retryMax;
     }
@@ -47,7 +52,17 @@ public class DatadogLogsSinkTask extends SinkTask {
                 log.warn("Error closing previous HTTP client before reinitialising writer", e);
             }
         }
-        writer = new DatadogLogsApiWriter(config);
+        writer = new DatadogLogsApiWriter(config, metrics, errantRecordReporter());
+    }
+
+    private ErrantRecordReporter errantRecordReporter() {
+        try {
+            return context.errantRecordReporter();
+        } catch (NoSuchMethodError | NoClassDefFoundError e) {
+            // Kafka Connect before 2.6.
+            log.warn("Errant records cannot be reported by this version of Kafka Connect; records that cannot be converted fail the task");
+            return null;
+        }
     }
 
     @Override
@@ -67,10 +82,20 @@ public class DatadogLogsSinkTask extends SinkTask {
 
         try {
             writer.write(records);
+            long elapsedMs = Duration.between(start, Instant.now()).toMillis();
+            metrics.recordPut(elapsedMs);
             log.debug(
                     "Wrote {} records in {}ms",
-                    recordsCount, Duration.between(start, Instant.now()).toMillis()
+                    recordsCount, elapsedMs
             );
+        } catch (DataException e) {
+            // Converting the same records again would fail again.
+            log.error("Write of {} records failed on a record that cannot be converted, and errant records cannot be reported", records.size(), e);
+            throw e;
+        } catch (ConnectException e) {
+            // Thrown by the errant record reporter once the errors tolerated by the connector are exceeded.
+            log.error("Write of {} records failed on reporting errant records", records.size(), e);
+            throw e;
         } catch (Exception e) {
             log.warn(
                     "Write of {} records failed, remaining retries: {}",
@@ -82,10 +107,11 @@ public class DatadogLogsSinkTask extends SinkTask {
             if (remainingRetries == 0) {
                 throw new ConnectException(e);
             } else {
-                initWriter();
-                long sleepTimeMs = computeRetryWaitMs(
-                        config.retryMax - remainingRetries,
-                        config.retryBackoffMs
+                // The writer is kept as is: it holds the payloads of earlier writes that still have to be resent.
+                // Wait at least as long as the intake asked to when it throttled the task.
+                long sleepTimeMs = Math.max(
+                        computeRetryWaitMs(config.retryMax - remainingRetries, config.retryBackoffMs),
+                        writer.retryAfterMs()
                 );
                 remainingRetries--;
                 context.timeout(sleepTimeMs);
@@ -96,6 +122,23 @@ public class DatadogLogsSinkTask extends SinkTask {
         remainingRetries = config.retryMax;
     }
 
+    @Override
+    public Map<TopicPartition, OffsetAndMetadata> preCommit(Map<TopicPartition, OffsetAndMetadata> currentOffsets) {
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            log.warn("Some requests to Datadog have not been acknowledged yet, only committing the offsets of delivered records", e);
+        }
+
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        for (Map.Entry<TopicPartition, OffsetAndMetadata> entry : writer.committableOffsets().entrySet()) {
+            if (currentOffsets.containsKey(entry.getKey())) {
+                offsets.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return offsets;
+    }
+
     @Override
     public void flush(Map<TopicPartition, OffsetAndMetadata> offsets) {
         log.debug("Flushing data to Datadog with the following offsets: {}", offsets);
@@ -104,6 +147,9 @@ public class DatadogLogsSinkTask extends SinkTask {
     @Override
     public void close(Collection<TopicPartition> partitions) {
         log.debug("Closing the task for topic partitions: {}", partitions);
+        if (writer != null) {
+            writer.closePartitions(partitions);
+        }
     }
 
     @Override
@@ -116,6 +162,9 @@ public class DatadogLogsSinkTask extends SinkTask {
                 log.warn("Error closing HTTP client during stop", e);
             }
         }
+        if (metrics != null) {
+            metrics.close();
+        }
     }
 
     @Override
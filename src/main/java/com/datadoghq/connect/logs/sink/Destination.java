@@ -0,0 +1,41 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A Datadog intake logs are sent to, with the API key of the organization they are sent to.
+ * <p>
+ * The default destination is configured by {@code datadog.url}, {@code datadog.site} and {@code datadog.api_key},
+ * and receives the records routed to no other destination. The others are listed in {@code datadog.destinations},
+ * and receive the records whose routing value, see {@code datadog.route.by}, is one of their {@link #matches}.
+ */
+public final class Destination {
+    public static final String DEFAULT_NAME = "default";
+    // Matches every record, to send them all to this destination on top of the ones they are routed to.
+    public static final String MATCH_ALL = "*";
+
+    public final String name;
+    public final String url;
+    public final String apiKey;
+    public final Set<String> matches;
+
+    Destination(String name, String url, String apiKey, List<String> matches) {
+        this.name = name;
+        this.url = url;
+        this.apiKey = apiKey;
+        this.matches = Collections.unmodifiableSet(new LinkedHashSet<>(matches));
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + url + ")";
+    }
+}
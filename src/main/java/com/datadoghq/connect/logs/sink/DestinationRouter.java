@@ -0,0 +1,124 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import org.apache.kafka.connect.header.Header;
+import org.apache.kafka.connect.sink.SinkRecord;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tells which of the configured {@link Destination}s each record is sent to.
+ * <p>
+ * Records are routed on their routing value, see {@link RouteBy}: they are sent to every destination matching
+ * that value, or to the default destination when no destination matches it, and in both cases to the
+ * destinations matching {@link Destination#MATCH_ALL}. The destinations of each value are computed once, so
+ * routing a record costs the lookup of its routing value.
+ * <p>
+ * Only used from the task thread.
+ */
+class DestinationRouter {
+    /**
+     * What records are routed on.
+     */
+    enum RouteBy {
+        TOPIC,
+        HEADER,
+        FIELD;
+
+        static RouteBy forName(String name) {
+            return valueOf(name.toUpperCase());
+        }
+
+        @Override
+        public String toString() {
+            return name().toLowerCase();
+        }
+    }
+
+    private static final int[] DEFAULT_DESTINATION = {0};
+
+    private final RouteBy routeBy;
+    private final String headerKey;
+    private final FieldPath fieldPath;
+    private final boolean singleDestination;
+    // Indexes of the destinations of each routing value listed by a destination.
+    private final Map<String, int[]> routes;
+    // Indexes of the destinations of any other routing value.
+    private final int[] unmatched;
+
+    DestinationRouter(DatadogLogsSinkConnectorConfig config) {
+        this.routeBy = config.routeBy;
+        this.headerKey = config.routeKey;
+        this.fieldPath = config.routeBy == RouteBy.FIELD ? FieldPath.compile(config.routeKey) : null;
+        this.singleDestination = config.destinations.size() == 1;
+
+        List<Integer> matchAll = new ArrayList<>();
+        Map<String, List<Integer>> matching = new LinkedHashMap<>();
+        for (int i = 1; i < config.destinations.size(); i++) {
+            for (String match : config.destinations.get(i).matches) {
+                if (Destination.MATCH_ALL.equals(match)) {
+                    matchAll.add(i);
+                } else {
+                    matching.computeIfAbsent(match, value -> new ArrayList<>()).add(i);
+                }
+            }
+        }
+
+        this.routes = new HashMap<>();
+        for (Map.Entry<String, List<Integer>> entry : matching.entrySet()) {
+            List<Integer> indexes = new ArrayList<>(entry.getValue());
+            for (Integer index : matchAll) {
+                if (!indexes.contains(index)) {
+                    indexes.add(index);
+                }
+            }
+            routes.put(entry.getKey(), toArray(indexes));
+        }
+        matchAll.add(0, 0);
+        this.unmatched = toArray(matchAll);
+    }
+
+    /**
+     * @return the indexes, in {@link DatadogLogsSinkConnectorConfig#destinations}, of the destinations of
+     * {@code record}. The array is shared and must not be modified.
+     */
+    int[] route(SinkRecord record) {
+        if (singleDestination) {
+            return DEFAULT_DESTINATION;
+        }
+        String value = routingValue(record);
+        if (value == null) {
+            return unmatched;
+        }
+        int[] destinations = routes.get(value);
+        return destinations != null ? destinations : unmatched;
+    }
+
+    private String routingValue(SinkRecord record) {
+        switch (routeBy) {
+            case HEADER:
+                Header header = record.headers().lastWithName(headerKey);
+                return header != null ? FieldPath.asString(header.value()) : null;
+            case FIELD:
+                return FieldPath.asString(fieldPath.read(record.value()));
+            default:
+                return record.topic();
+        }
+    }
+
+    private static int[] toArray(List<Integer> indexes) {
+        int[] array = new int[indexes.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = indexes.get(i);
+        }
+        return array;
+    }
+}
@@ -0,0 +1,251 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Budget of the compressed bytes and requests per second that the tasks of a worker send to Datadog altogether,
+ * so that they do not saturate the egress of the worker at the expense of its other connectors.
+ * <p>
+ * The worker has a single budget, shared by every task configured with a limit. It is created by the first of
+ * them to {@link #acquire} it and dropped once the last of them has closed its {@link Lease}. When connectors
+ * set different limits, the budget is the lowest of those set by the tasks holding a lease, for bytes and
+ * requests separately, so that no limit configured is exceeded; it is recomputed as tasks come and go.
+ * Connectors sending at the same time share the budget in proportion to their weights, whatever their number of
+ * tasks, and the tasks of a connector sending at the same time split its share evenly. A task that stops sending
+ * leaves its share to the others after {@link #ACTIVE_NANOS}.
+ * <p>
+ * Each lease paces the requests of its task at the task's share of the budget, with the generic cell rate
+ * algorithm, so sending a request only touches the state of its own task. The shares are recomputed from the
+ * weights of the connectors sending, at most every {@link #SHARE_REFRESH_NANOS}, by whichever task first finds
+ * them out of date.
+ */
+final class EgressBudget {
+    // Tasks that sent a request within this time count in the weights the budget is shared among.
+    static final long ACTIVE_NANOS = TimeUnit.SECONDS.toNanos(1);
+    static final long SHARE_REFRESH_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    // After a pause, a task may send up to a second of its share at once.
+    static final long BURST_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final Logger log = LoggerFactory.getLogger(EgressBudget.class);
+    // Null while no task holds a lease.
+    private static EgressBudget budget;
+
+    private final List<Lease> leases;
+    private final AtomicLong nextRefreshNanos;
+    // The lowest limits of the leases, 0 when none sets one.
+    private volatile Limits limits;
+    // Sum of the weights of the connectors with tasks that sent recently.
+    private volatile double activeWeight;
+    // The number of tasks that sent recently of each of those connectors. Written after the weight and read
+    // before it, so that a connector counted here is counted in the weight.
+    private volatile Map<String, Integer> activeTasks;
+
+    private EgressBudget() {
+        this.leases = new CopyOnWriteArrayList<>();
+        this.nextRefreshNanos = new AtomicLong(System.nanoTime());
+        this.activeTasks = Collections.emptyMap();
+    }
+
+    /**
+     * @return a lease on the budget of the worker, to close once the caller is done with it, or null if
+     * {@code config} sets no limit and the requests of the task are not budgeted.
+     */
+    static synchronized Lease acquire(DatadogLogsSinkConnectorConfig config) {
+        if (config.egressBytesPerSecond == 0 && config.egressRequestsPerSecond == 0) {
+            return null;
+        }
+        if (budget == null) {
+            budget = new EgressBudget();
+        }
+        Lease lease = new Lease(budget, new Limits(config.egressBytesPerSecond, config.egressRequestsPerSecond),
+                config.connectorName, config.egressWeight, System.nanoTime());
+        budget.leases.add(lease);
+        budget.updateLimits();
+        return lease;
+    }
+
+    private static synchronized void release(Lease lease) {
+        EgressBudget released = lease.budget;
+        released.leases.remove(lease);
+        if (released.leases.isEmpty()) {
+            log.debug("Dropping egress budget of {}", released.limits);
+            if (budget == released) {
+                budget = null;
+            }
+        } else {
+            released.updateLimits();
+        }
+    }
+
+    private void updateLimits() {
+        long bytesPerSecond = 0;
+        int requestsPerSecond = 0;
+        for (Lease lease : leases) {
+            bytesPerSecond = lowest(bytesPerSecond, lease.limits.bytesPerSecond);
+            requestsPerSecond = (int) lowest(requestsPerSecond, lease.limits.requestsPerSecond);
+        }
+        Limits updated = new Limits(bytesPerSecond, requestsPerSecond);
+        if (!updated.equals(limits)) {
+            log.info("Egress budget of the worker is {}", updated);
+            limits = updated;
+        }
+    }
+
+    // The lowest of two limits, 0 standing for no limit.
+    private static long lowest(long limit, long other) {
+        return limit == 0 ? other : other == 0 ? limit : Math.min(limit, other);
+    }
+
+    /**
+     * @return the share of the budget of {@code lease}, among the tasks that sent recently.
+     */
+    private double share(Lease lease, long nowNanos) {
+        long next = nextRefreshNanos.get();
+        if (nowNanos - next >= 0 && nextRefreshNanos.compareAndSet(next, nowNanos + SHARE_REFRESH_NANOS)) {
+            Map<String, Integer> tasks = new HashMap<>();
+            double weight = 0;
+            for (Lease other : leases) {
+                if (nowNanos - other.lastActiveNanos < ACTIVE_NANOS
+                        && tasks.merge(other.connectorName, 1, Integer::sum) == 1) {
+                    // The tasks of a connector share its configuration, and its weight.
+                    weight += other.weight;
+                }
+            }
+            activeWeight = weight;
+            activeTasks = tasks;
+        }
+        // A task that just started sending may not be counted yet, nor its connector.
+        Integer tasks = activeTasks.get(lease.connectorName);
+        if (tasks == null) {
+            return lease.weight / Math.max(activeWeight, lease.weight);
+        }
+        return lease.weight / activeWeight / tasks;
+    }
+
+    /**
+     * The part of the budget held by a task. Not thread-safe: only the task thread sends requests.
+     */
+    static final class Lease implements Closeable {
+        private final EgressBudget budget;
+        // The limits configured for the task, which may be higher than those of the budget.
+        private final Limits limits;
+        private final String connectorName;
+        private final double weight;
+        private volatile long lastActiveNanos;
+        // The times at which the task would have sent its bytes and requests so far at its share of the budget.
+        private long bytesDueNanos;
+        private long requestsDueNanos;
+        private boolean closed;
+
+        private Lease(EgressBudget budget, Limits limits, String connectorName, double weight, long nowNanos) {
+            this.budget = budget;
+            this.limits = limits;
+            this.connectorName = connectorName;
+            this.weight = weight;
+            // Not counted in the shares until it sends.
+            this.lastActiveNanos = nowNanos - ACTIVE_NANOS;
+            this.bytesDueNanos = nowNanos;
+            this.requestsDueNanos = nowNanos;
+        }
+
+        /**
+         * Waits until a request of {@code bytes} compressed bytes fits in the share of the budget of the task.
+         *
+         * @return the time waited in nanoseconds.
+         */
+        long await(long bytes) {
+            long now = System.nanoTime();
+            long waitNanos = reserve(bytes, now);
+            long deadline = now + waitNanos;
+            long remaining = waitNanos;
+            // Sending early rather than failing when interrupted, as the task is being stopped.
+            while (remaining > 0 && !Thread.currentThread().isInterrupted()) {
+                LockSupport.parkNanos(remaining);
+                remaining = deadline - System.nanoTime();
+            }
+            return waitNanos;
+        }
+
+        /**
+         * Counts a request of {@code bytes} compressed bytes against the share of the budget of the task.
+         *
+         * @return how long to wait in nanoseconds before sending it, 0 if it can be sent right away.
+         */
+        long reserve(long bytes, long nowNanos) {
+            lastActiveNanos = nowNanos;
+            Limits limits = budget.limits;
+            double share = budget.share(this, nowNanos);
+            long waitNanos = 0;
+            if (limits.bytesPerSecond > 0) {
+                bytesDueNanos = Math.max(bytesDueNanos, nowNanos);
+                waitNanos = bytesDueNanos - BURST_NANOS - nowNanos;
+                bytesDueNanos += (long) (bytes * (double) TimeUnit.SECONDS.toNanos(1) / (limits.bytesPerSecond * share));
+            }
+            if (limits.requestsPerSecond > 0) {
+                requestsDueNanos = Math.max(requestsDueNanos, nowNanos);
+                waitNanos = Math.max(waitNanos, requestsDueNanos - BURST_NANOS - nowNanos);
+                requestsDueNanos += (long) (TimeUnit.SECONDS.toNanos(1) / (limits.requestsPerSecond * share));
+            }
+            return Math.max(waitNanos, 0);
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                release(this);
+            }
+        }
+    }
+
+    /**
+     * Bytes and requests per second, 0 when unlimited.
+     */
+    private static final class Limits {
+        private final long bytesPerSecond;
+        private final int requestsPerSecond;
+
+        private Limits(long bytesPerSecond, int requestsPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+            this.requestsPerSecond = requestsPerSecond;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Limits)) {
+                return false;
+            }
+            Limits other = (Limits) o;
+            return bytesPerSecond == other.bytesPerSecond && requestsPerSecond == other.requestsPerSecond;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(bytesPerSecond) * 31 + requestsPerSecond;
+        }
+
+        @Override
+        public String toString() {
+            return bytesPerSecond + " bytes/s and " + requestsPerSecond + " requests/s";
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import org.apache.kafka.connect.sink.ErrantRecordReporter;
+import org.apache.kafka.connect.sink.SinkRecord;
+
+import java.util.List;
+
+/**
+ * Collects the records that cannot be sent to the intake, to report them to Connect's {@link ErrantRecordReporter},
+ * which sends them to the dead letter queue or logs them depending on the {@code errors.*} settings of the connector.
+ * <p>
+ * Formatting threads collect the errant records of a batch along with its payloads; the task thread
+ * {@link #report}s them once those payloads are queued, as the reporter is not meant to be called concurrently,
+ * and so that the records of a batch formatted again after a failure are only reported once. Reporting is
+ * asynchronous: Connect waits for the reported records to be written before committing their offsets.
+ */
+class ErrantRecords {
+    private final ErrantRecordReporter reporter;
+
+    /**
+     * @param reporter of the task, or null if the connector has no error reporting or runs on a version of
+     *                 Connect before 2.6.
+     */
+    ErrantRecords(ErrantRecordReporter reporter) {
+        this.reporter = reporter;
+    }
+
+    /**
+     * @return false if errant records cannot be reported, in which case they fail the task instead.
+     */
+    boolean enabled() {
+        return reporter != null;
+    }
+
+    /**
+     * @throws org.apache.kafka.connect.errors.ConnectException if the errors tolerated by the connector are exceeded.
+     */
+    void report(List<ErrantRecord> errant) {
+        if (reporter == null) {
+            return;
+        }
+        for (ErrantRecord record : errant) {
+            reporter.report(record.record, record.error);
+        }
+    }
+
+    static final class ErrantRecord {
+        private final SinkRecord record;
+        private final Throwable error;
+
+        ErrantRecord(SinkRecord record, Throwable error) {
+            this.record = record;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Promotes fields of the record value to the reserved attributes of the log entry, so that the intake does not
+ * have to parse the message again to find them: {@code status}, {@code service}, {@code hostname},
+ * {@code dd.trace_id}, {@code timestamp}, and tags appended to {@code ddtags}.
+ * <p>
+ * Fields are found by {@link FieldPath}s compiled with the configuration. A promoted {@code service} or
+ * {@code hostname} takes precedence over the configured one, which is used for records without the field. The
+ * fields are copied, not removed from the message.
+ * <p>
+ * Immutable and thread-safe: the formatters share the one of the configuration.
+ */
+class FieldExtractor {
+    private static final byte[] STATUS_FIELD = ",\"status\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SERVICE_FIELD = ",\"service\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] HOSTNAME_FIELD = ",\"hostname\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] TRACE_ID_FIELD = ",\"dd.trace_id\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] TIMESTAMP_FIELD = ",\"timestamp\":".getBytes(StandardCharsets.UTF_8);
+
+    // Null when the field is not promoted.
+    private final FieldPath status;
+    private final FieldPath service;
+    private final FieldPath hostname;
+    private final FieldPath traceId;
+    private final FieldPath timestamp;
+    private final FieldPath tags;
+
+    FieldExtractor(FieldPath status, FieldPath service, FieldPath hostname, FieldPath traceId, FieldPath timestamp,
+                   FieldPath tags) {
+        this.status = status;
+        this.service = service;
+        this.hostname = hostname;
+        this.traceId = traceId;
+        this.timestamp = timestamp;
+        this.tags = tags;
+    }
+
+    /**
+     * @return false if no field is promoted, in which case the metadata of the topic is written as is.
+     */
+    boolean enabled() {
+        return status != null || service != null || hostname != null || traceId != null || timestamp != null
+                || tags != null;
+    }
+
+    /**
+     * Writes the metadata of the topic, see {@link MetadataEnvelope#topicFields(String)}, merged with the fields
+     * promoted from {@code value}, and closes the entry.
+     */
+    void writeFields(RecordBuffer out, Object value, byte[] topicFields, MetadataEnvelope envelope) {
+        int tagsLength = envelope.tagsLength(topicFields);
+        String recordTags = tags != null ? joinTags(tags.read(value)) : null;
+        if (recordTags == null || recordTags.isEmpty()) {
+            out.write(topicFields, 0, tagsLength);
+        } else {
+            // Reopen the tags of the topic to append those of the record.
+            out.write(topicFields, 0, tagsLength - 1);
+            out.write(',');
+            Utf8Json.writeEscaped(out, recordTags);
+            out.write('"');
+        }
+
+        writeString(out, HOSTNAME_FIELD, hostname, value, envelope.hostnameField());
+        writeString(out, SERVICE_FIELD, service, value, envelope.serviceField());
+        writeString(out, STATUS_FIELD, status, value, null);
+        writeString(out, TRACE_ID_FIELD, traceId, value, null);
+        writeTimestamp(out, value);
+        out.write('}');
+    }
+
+    private static void writeString(RecordBuffer out, byte[] field, FieldPath path, Object value, byte[] fallback) {
+        String promoted = path != null ? FieldPath.asString(path.read(value)) : null;
+        if (promoted != null) {
+            out.write(field);
+            Utf8Json.writeString(out, promoted);
+        } else if (fallback != null) {
+            out.write(fallback);
+        }
+    }
+
+    private void writeTimestamp(RecordBuffer out, Object value) {
+        if (timestamp == null) {
+            return;
+        }
+        Object promoted = timestamp.read(value);
+        if (promoted == null) {
+            return;
+        }
+
+        out.write(TIMESTAMP_FIELD);
+        if (promoted instanceof Date) {
+            Utf8Json.writeLong(out, ((Date) promoted).getTime());
+        } else if (promoted instanceof Long || promoted instanceof Integer) {
+            // Milliseconds since the epoch.
+            Utf8Json.writeLong(out, ((Number) promoted).longValue());
+        } else {
+            // A date string, parsed by the intake.
+            Utf8Json.writeString(out, FieldPath.asString(promoted));
+        }
+    }
+
+    /**
+     * @return the tags of a value holding either a comma separated string, a list of tags, or a map of tag
+     * names to values.
+     */
+    private static String joinTags(Object value) {
+        if (value instanceof Collection) {
+            StringBuilder joined = new StringBuilder();
+            for (Object tag : (Collection<?>) value) {
+                if (tag != null) {
+                    if (joined.length() > 0) {
+                        joined.append(',');
+                    }
+                    joined.append(FieldPath.asString(tag));
+                }
+            }
+            return joined.toString();
+        }
+        if (value instanceof Map) {
+            StringBuilder joined = new StringBuilder();
+            for (Map.Entry<?, ?> tag : ((Map<?, ?>) value).entrySet()) {
+                if (joined.length() > 0) {
+                    joined.append(',');
+                }
+                joined.append(tag.getKey()).append(':').append(FieldPath.asString(tag.getValue()));
+            }
+            return joined.toString();
+        }
+        return FieldPath.asString(value);
+    }
+}
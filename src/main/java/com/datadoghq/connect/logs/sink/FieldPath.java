@@ -0,0 +1,136 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import org.apache.kafka.connect.data.Field;
+import org.apache.kafka.connect.data.Struct;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A path to a value nested in a record value, in a subset of the JSON path syntax: field names separated by
+ * dots, array indexes in brackets, and names holding dots in quoted brackets, optionally starting with
+ * {@code $}. For example {@code $.http.status}, {@code tags[0]} or {@code $['service.name']}.
+ * <p>
+ * Paths are parsed once and read from {@link Struct}s, {@link Map}s and {@link List}s, as converted by Connect;
+ * string and bytes values are not parsed. Immutable and thread-safe.
+ */
+final class FieldPath {
+    private final String path;
+    // Field names as strings and array indexes as integers.
+    private final Object[] segments;
+
+    private FieldPath(String path, Object[] segments) {
+        this.path = path;
+        this.segments = segments;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the path is not valid.
+     */
+    static FieldPath compile(String path) {
+        List<Object> segments = new ArrayList<>();
+        int i = 0;
+        if (path.startsWith("$")) {
+            i = 1;
+            if (i < path.length() && path.charAt(i) == '.') {
+                i++;
+            }
+        }
+
+        while (i < path.length()) {
+            char c = path.charAt(i);
+            if (c == '[') {
+                int end = path.indexOf(']', i);
+                if (end < 0) {
+                    throw new IllegalArgumentException("Unclosed bracket in " + path);
+                }
+                String inside = path.substring(i + 1, end);
+                if (inside.length() >= 2 && (inside.charAt(0) == '\'' || inside.charAt(0) == '"')
+                        && inside.charAt(inside.length() - 1) == inside.charAt(0)) {
+                    segments.add(inside.substring(1, inside.length() - 1));
+                } else {
+                    try {
+                        segments.add(Integer.parseInt(inside));
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Invalid index " + inside + " in " + path);
+                    }
+                }
+                i = end + 1;
+                if (i < path.length() && path.charAt(i) == '.') {
+                    i++;
+                }
+            } else {
+                int end = i;
+                while (end < path.length() && path.charAt(end) != '.' && path.charAt(end) != '[') {
+                    end++;
+                }
+                if (end == i) {
+                    throw new IllegalArgumentException("Empty field name in " + path);
+                }
+                segments.add(path.substring(i, end));
+                i = end < path.length() && path.charAt(end) == '.' ? end + 1 : end;
+            }
+        }
+
+        if (segments.isEmpty()) {
+            throw new IllegalArgumentException("No field in " + path);
+        }
+        return new FieldPath(path, segments.toArray());
+    }
+
+    /**
+     * @return the value at this path in {@code value}, or null if there is none.
+     */
+    Object read(Object value) {
+        for (Object segment : segments) {
+            if (segment instanceof Integer) {
+                int index = (Integer) segment;
+                if (!(value instanceof List) || index < 0 || index >= ((List<?>) value).size()) {
+                    return null;
+                }
+                value = ((List<?>) value).get(index);
+            } else if (value instanceof Struct) {
+                Struct struct = (Struct) value;
+                Field field = struct.schema().field((String) segment);
+                if (field == null) {
+                    return null;
+                }
+                value = struct.get(field);
+            } else if (value instanceof Map) {
+                value = ((Map<?, ?>) value).get(segment);
+            } else {
+                return null;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * @return the text of a value read from a path, bytes being decoded as UTF-8, or null.
+     */
+    static String asString(Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof byte[]) {
+            return new String((byte[]) value, StandardCharsets.UTF_8);
+        }
+        if (value instanceof ByteBuffer) {
+            return StandardCharsets.UTF_8.decode(((ByteBuffer) value).duplicate()).toString();
+        }
+        return value.toString();
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip compressor reusing the same {@link Deflater} for every payload instead of allocating a new native
+ * one, and writing the gzip header and trailer itself. The deflater only writes to arrays before Java 11, so
+ * its output goes through a small chunk on the heap on its way to the direct buffer of the payload.
+ */
+class GzipCompressor implements PayloadCompressor {
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+    private static final int GZIP_TRAILER_SIZE = 8;
+    // Writes are gathered into chunks of this size before being handed to the deflater, which saves a native
+    // call per entry and per comma.
+    private static final int INPUT_BUFFER_SIZE = 16384;
+    private static final int DEFLATE_CHUNK_SIZE = 8192;
+
+    private final Deflater deflater;
+    private final CRC32 crc;
+    private final byte[] input;
+    private final byte[] deflated;
+    private int inputLength;
+    private PayloadBuffer out;
+
+    GzipCompressor(int level) {
+        this.deflater = new Deflater(level, true);
+        this.crc = new CRC32();
+        this.input = new byte[INPUT_BUFFER_SIZE];
+        this.deflated = new byte[DEFLATE_CHUNK_SIZE];
+    }
+
+    @Override
+    public void begin(PayloadBuffer out) {
+        this.out = out;
+        out.write(GZIP_HEADER);
+        deflater.reset();
+        crc.reset();
+        inputLength = 0;
+    }
+
+    @Override
+    public void write(int b) {
+        if (inputLength == input.length) {
+            flushInput();
+        }
+        input[inputLength++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        if (inputLength + length > input.length) {
+            flushInput();
+            if (length > input.length) {
+                compress(bytes, offset, length);
+                return;
+            }
+        }
+        System.arraycopy(bytes, offset, input, inputLength, length);
+        inputLength += length;
+    }
+
+    @Override
+    public void finish() {
+        flushInput();
+        deflater.finish();
+        while (!deflater.finished()) {
+            deflate();
+        }
+
+        out.ensureCapacity(GZIP_TRAILER_SIZE);
+        writeIntLE((int) crc.getValue());
+        writeIntLE((int) deflater.getBytesRead());
+        out = null;
+    }
+
+    @Override
+    public void close() {
+        deflater.end();
+    }
+
+    private void flushInput() {
+        if (inputLength > 0) {
+            compress(input, 0, inputLength);
+            inputLength = 0;
+        }
+    }
+
+    private void compress(byte[] bytes, int offset, int length) {
+        crc.update(bytes, offset, length);
+        deflater.setInput(bytes, offset, length);
+        while (!deflater.needsInput()) {
+            deflate();
+        }
+    }
+
+    private void deflate() {
+        out.write(deflated, 0, deflater.deflate(deflated, 0, DEFLATE_CHUNK_SIZE));
+    }
+
+    private void writeIntLE(int value) {
+        out.put(value);
+        out.put(value >>> 8);
+        out.put(value >>> 16);
+        out.put(value >>> 24);
+    }
+}
@@ -0,0 +1,151 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import org.apache.kafka.connect.errors.DataException;
+import org.apache.kafka.connect.header.Header;
+import org.apache.kafka.connect.header.Headers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes the Kafka headers of a record as a JSON object, straight into the buffer of its log entry.
+ * <p>
+ * Header values are converted like record values, see {@link ConnectJsonSerializer}, except for bytes, which
+ * are written as a string according to {@link BytesFormat}. When several headers have the same key, the last
+ * one wins, as with {@link Headers#lastWithName(String)}. A header whose value cannot be converted is written
+ * as its string representation instead of failing the record.
+ * <p>
+ * Not thread-safe: each formatter has its own.
+ */
+class HeaderEncoder {
+    private static final Logger log = LoggerFactory.getLogger(HeaderEncoder.class);
+
+    /**
+     * How header values holding bytes are written.
+     */
+    enum BytesFormat {
+        // Decoded as a UTF-8 string, or written as base64 when they are not valid UTF-8.
+        UTF8,
+        BASE64;
+
+        static BytesFormat forName(String name) {
+            return valueOf(name.toUpperCase());
+        }
+
+        @Override
+        public String toString() {
+            return name().toLowerCase();
+        }
+    }
+
+    // Only the headers with these keys are written; all of them when empty.
+    private final Set<String> allowlist;
+    private final BytesFormat bytesFormat;
+    private final CharsetDecoder utf8Decoder;
+    // Headers of the record being written, reused from one record to the next.
+    private final List<Header> headers;
+
+    HeaderEncoder(List<String> allowlist, BytesFormat bytesFormat) {
+        this.allowlist = new HashSet<>(allowlist);
+        this.bytesFormat = bytesFormat;
+        this.utf8Decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        this.headers = new ArrayList<>();
+    }
+
+    void write(RecordBuffer out, Headers recordHeaders) {
+        headers.clear();
+        for (Header header : recordHeaders) {
+            if (allowlist.isEmpty() || allowlist.contains(header.key())) {
+                headers.add(header);
+            }
+        }
+
+        out.write('{');
+        boolean first = true;
+        for (int i = 0; i < headers.size(); i++) {
+            Header header = headers.get(i);
+            if (isOverridden(i)) {
+                continue;
+            }
+            if (!first) {
+                out.write(',');
+            }
+            first = false;
+            Utf8Json.writeString(out, header.key());
+            out.write(':');
+            writeValue(out, header);
+        }
+        out.write('}');
+    }
+
+    /**
+     * @return true if a later header has the same key as the one at {@code index}. Records carry few headers, so
+     * scanning them is cheaper than hashing their keys.
+     */
+    private boolean isOverridden(int index) {
+        String key = headers.get(index).key();
+        for (int i = index + 1; i < headers.size(); i++) {
+            if (key.equals(headers.get(i).key())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writeValue(RecordBuffer out, Header header) {
+        Object value = header.value();
+        if (value instanceof byte[]) {
+            writeBytes(out, ByteBuffer.wrap((byte[]) value));
+            return;
+        }
+        if (value instanceof ByteBuffer) {
+            writeBytes(out, ((ByteBuffer) value).duplicate());
+            return;
+        }
+
+        int start = out.size();
+        try {
+            ConnectJsonSerializer.writeValue(out, header.schema(), value);
+        } catch (DataException e) {
+            log.debug("Could not convert the value of header {}, writing it as a string", header.key(), e);
+            out.truncate(start);
+            Utf8Json.writeString(out, String.valueOf(value));
+        }
+    }
+
+    private void writeBytes(RecordBuffer out, ByteBuffer bytes) {
+        if (bytesFormat == BytesFormat.UTF8) {
+            try {
+                CharBuffer chars = utf8Decoder.decode(bytes.duplicate());
+                Utf8Json.writeString(out, chars.toString());
+                return;
+            } catch (CharacterCodingException e) {
+                // Not text: fall back to base64.
+            }
+        }
+
+        byte[] encoded = Base64.getEncoder().encode(bytes).array();
+        out.ensureCapacity(encoded.length + 2);
+        out.put('"');
+        out.write(encoded);
+        out.put('"');
+    }
+}
@@ -0,0 +1,37 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+/**
+ * Sends payloads uncompressed, trading egress bytes for the CPU time of compression.
+ */
+class IdentityCompressor implements PayloadCompressor {
+    private PayloadBuffer out;
+
+    @Override
+    public void begin(PayloadBuffer out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(int b) {
+        out.write(b);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        out.write(bytes, offset, length);
+    }
+
+    @Override
+    public void finish() {
+        out = null;
+    }
+
+    @Override
+    public void close() {
+    }
+}
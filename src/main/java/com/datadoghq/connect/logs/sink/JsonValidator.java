@@ -0,0 +1,197 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+/**
+ * Single-pass, allocation-free check that a byte range holds exactly one well-formed JSON value.
+ * <p>
+ * It checks the JSON grammar only: bytes outside the ASCII range are accepted inside strings as they are,
+ * without validating the UTF-8 encoding.
+ */
+final class JsonValidator {
+    private static final int MAX_DEPTH = 512;
+
+    private final byte[] bytes;
+    private final int end;
+    private int pos;
+
+    private JsonValidator(byte[] bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.pos = offset;
+        this.end = offset + length;
+    }
+
+    static boolean isValid(byte[] bytes, int offset, int length) {
+        JsonValidator validator = new JsonValidator(bytes, offset, length);
+        validator.skipWhitespace();
+        if (!validator.value(0)) {
+            return false;
+        }
+        validator.skipWhitespace();
+        return validator.pos == validator.end;
+    }
+
+    private boolean value(int depth) {
+        if (pos >= end || depth > MAX_DEPTH) {
+            return false;
+        }
+        switch (bytes[pos]) {
+            case '{':
+                return object(depth + 1);
+            case '[':
+                return array(depth + 1);
+            case '"':
+                return string();
+            case 't':
+                return literal("true");
+            case 'f':
+                return literal("false");
+            case 'n':
+                return literal("null");
+            default:
+                return number();
+        }
+    }
+
+    private boolean object(int depth) {
+        pos++;
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return true;
+        }
+        while (true) {
+            if (peek() != '"' || !string()) {
+                return false;
+            }
+            skipWhitespace();
+            if (peek() != ':') {
+                return false;
+            }
+            pos++;
+            skipWhitespace();
+            if (!value(depth)) {
+                return false;
+            }
+            skipWhitespace();
+            int next = peek();
+            pos++;
+            if (next == '}') {
+                return true;
+            } else if (next != ',') {
+                return false;
+            }
+            skipWhitespace();
+        }
+    }
+
+    private boolean array(int depth) {
+        pos++;
+        skipWhitespace();
+        if (peek() == ']') {
+            pos++;
+            return true;
+        }
+        while (true) {
+            if (!value(depth)) {
+                return false;
+            }
+            skipWhitespace();
+            int next = peek();
+            pos++;
+            if (next == ']') {
+                return true;
+            } else if (next != ',') {
+                return false;
+            }
+            skipWhitespace();
+        }
+    }
+
+    private boolean string() {
+        pos++;
+        while (pos < end) {
+            int c = bytes[pos++] & 0xFF;
+            if (c == '"') {
+                return true;
+            } else if (c < 0x20) {
+                return false;
+            } else if (c == '\\') {
+                int escaped = next();
+                if (escaped == 'u') {
+                    for (int i = 0; i < 4; i++) {
+                        if (Character.digit(next(), 16) < 0) {
+                            return false;
+                        }
+                    }
+                } else if (escaped < 0 || "\"\\/bfnrt".indexOf(escaped) < 0) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean number() {
+        if (peek() == '-') {
+            pos++;
+        }
+        if (peek() == '0') {
+            pos++;
+        } else if (!digits()) {
+            return false;
+        }
+        if (peek() == '.') {
+            pos++;
+            if (!digits()) {
+                return false;
+            }
+        }
+        if (peek() == 'e' || peek() == 'E') {
+            pos++;
+            if (peek() == '+' || peek() == '-') {
+                pos++;
+            }
+            return digits();
+        }
+        return true;
+    }
+
+    private boolean digits() {
+        int start = pos;
+        while (pos < end && bytes[pos] >= '0' && bytes[pos] <= '9') {
+            pos++;
+        }
+        return pos > start;
+    }
+
+    private boolean literal(String literal) {
+        for (int i = 0; i < literal.length(); i++) {
+            if (pos >= end || bytes[pos++] != literal.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int next() {
+        return pos < end ? bytes[pos++] : -1;
+    }
+
+    private int peek() {
+        return pos < end ? bytes[pos] : -1;
+    }
+
+    private void skipWhitespace() {
+        while (pos < end) {
+            byte c = bytes[pos];
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return;
+            }
+            pos++;
+        }
+    }
+}
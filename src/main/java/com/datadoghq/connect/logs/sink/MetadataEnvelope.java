@@ -0,0 +1,123 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The Datadog metadata of log entries that does not depend on the record, encoded once as JSON bytes.
+ * <p>
+ * Entries are written as the message, the {@link #source()} bytes, the fields taken from the record, and the
+ * {@link #topicFields(String)} bytes, which hold the tags, hostname and service and close the entry. The bytes
+ * of the topics seen most recently are cached, up to {@link #MAX_CACHED_TOPICS}.
+ * <p>
+ * Not thread-safe: each formatter has its own.
+ */
+class MetadataEnvelope {
+    static final int MAX_CACHED_TOPICS = 1000;
+
+    private static final byte[] DDSOURCE_FIELD = ",\"ddsource\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] DDTAGS_FIELD = ",\"ddtags\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] HOSTNAME_FIELD = ",\"hostname\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SERVICE_FIELD = ",\"service\":".getBytes(StandardCharsets.UTF_8);
+
+    private final DatadogLogsSinkConnectorConfig config;
+    private final RecordBuffer buffer;
+    private final byte[] source;
+    private final byte[] hostnameField;
+    private final byte[] serviceField;
+    private final Map<String, byte[]> topicFields;
+
+    MetadataEnvelope(DatadogLogsSinkConnectorConfig config) {
+        this.config = config;
+        this.buffer = new RecordBuffer(256);
+        this.topicFields = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                return size() > MAX_CACHED_TOPICS;
+            }
+        };
+
+        buffer.write(DDSOURCE_FIELD);
+        Utf8Json.writeString(buffer, config.ddSource);
+        this.source = Arrays.copyOf(buffer.array(), buffer.size());
+        this.hostnameField = encodeField(HOSTNAME_FIELD, config.ddHostname);
+        this.serviceField = encodeField(SERVICE_FIELD, config.ddService);
+    }
+
+    /**
+     * @return the {@code ddsource} field, written right after the message.
+     */
+    byte[] source() {
+        return source;
+    }
+
+    /**
+     * @return the fields that depend on the topic, followed by the closing brace of the entry.
+     */
+    byte[] topicFields(String topic) {
+        byte[] fields = topicFields.get(topic);
+        if (fields == null) {
+            fields = encodeTopicFields(topic);
+            topicFields.put(topic, fields);
+        }
+        return fields;
+    }
+
+    /**
+     * @return the length of the {@code ddtags} field at the start of {@code topicFields}, which ends with the
+     * closing quote of the tags.
+     */
+    int tagsLength(byte[] topicFields) {
+        return topicFields.length - hostnameField.length - serviceField.length - 1;
+    }
+
+    /**
+     * @return the configured {@code hostname} field, empty if there is none.
+     */
+    byte[] hostnameField() {
+        return hostnameField;
+    }
+
+    /**
+     * @return the configured {@code service} field, empty if there is none.
+     */
+    byte[] serviceField() {
+        return serviceField;
+    }
+
+    int cachedTopics() {
+        return topicFields.size();
+    }
+
+    private byte[] encodeTopicFields(String topic) {
+        buffer.reset();
+
+        String tags = "topic:" + topic;
+        if (config.ddTags != null) {
+            tags += "," + config.ddTags;
+        }
+        buffer.write(DDTAGS_FIELD);
+        Utf8Json.writeString(buffer, tags);
+        buffer.write(hostnameField);
+        buffer.write(serviceField);
+        buffer.write('}');
+        return Arrays.copyOf(buffer.array(), buffer.size());
+    }
+
+    private byte[] encodeField(byte[] field, String value) {
+        if (value == null) {
+            return new byte[0];
+        }
+        buffer.reset();
+        buffer.write(field);
+        Utf8Json.writeString(buffer, value);
+        return Arrays.copyOf(buffer.array(), buffer.size());
+    }
+}
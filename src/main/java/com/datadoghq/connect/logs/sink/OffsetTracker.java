@@ -0,0 +1,160 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.connect.sink.SinkRecord;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps track of which record offsets have been delivered to the intake, so that only those are committed.
+ * <p>
+ * Records are accepted by the writer once, then added to batches, one per destination they are routed to. Each
+ * batch is marked here when it is opened, and the offset of a partition becomes committable once every batch
+ * holding its records up to that offset has been delivered: it moves up to the lowest offset still held by a
+ * batch not delivered yet, or past the highest offset delivered when there is none. Marks are acknowledged out
+ * of order when requests complete out of order, or when destinations deliver at different paces.
+ * <p>
+ * Not thread-safe: it is only used from the task thread.
+ */
+class OffsetTracker {
+    // Highest offset accepted per partition, used to skip the records Connect redelivers after a failed put.
+    private final Map<TopicPartition, Long> acceptedOffsets;
+    // Marks of the batches not delivered yet, per partition.
+    private final Map<TopicPartition, List<Mark>> pendingMarks;
+    // Offset following the highest delivered record, per partition.
+    private final Map<TopicPartition, Long> deliveredOffsets;
+    private final Map<TopicPartition, OffsetAndMetadata> committableOffsets;
+
+    OffsetTracker() {
+        this.acceptedOffsets = new HashMap<>();
+        this.pendingMarks = new HashMap<>();
+        this.deliveredOffsets = new HashMap<>();
+        this.committableOffsets = new HashMap<>();
+    }
+
+    /**
+     * Filters out the records accepted by an earlier call, which Connect delivers again after a put failed.
+     * Records within the same call are never filtered against each other.
+     *
+     * @return the records seen for the first time.
+     */
+    List<SinkRecord> accept(Collection<SinkRecord> records) {
+        List<SinkRecord> accepted = new ArrayList<>(records.size());
+        Map<TopicPartition, Long> highest = new HashMap<>();
+        for (SinkRecord record : records) {
+            if (record == null) {
+                continue;
+            }
+            TopicPartition partition = new TopicPartition(record.topic(), record.kafkaPartition());
+            Long previous = acceptedOffsets.get(partition);
+            if (previous != null && record.kafkaOffset() <= previous) {
+                continue;
+            }
+            accepted.add(record);
+            highest.merge(partition, record.kafkaOffset(), Math::max);
+        }
+        acceptedOffsets.putAll(highest);
+        return accepted;
+    }
+
+    /**
+     * @return the mark of a new batch, to {@link #add} its records to as they are batched, and to
+     * {@link #acknowledge(Mark)} once every payload of the batch has been delivered.
+     */
+    Mark open() {
+        return new Mark();
+    }
+
+    void add(Mark mark, SinkRecord record) {
+        TopicPartition partition = new TopicPartition(record.topic(), record.kafkaPartition());
+        long[] range = mark.offsets.get(partition);
+        if (range == null) {
+            mark.offsets.put(partition, new long[]{record.kafkaOffset(), record.kafkaOffset()});
+            pendingMarks.computeIfAbsent(partition, p -> new ArrayList<>()).add(mark);
+        } else {
+            range[0] = Math.min(range[0], record.kafkaOffset());
+            range[1] = Math.max(range[1], record.kafkaOffset());
+        }
+    }
+
+    void acknowledge(Mark mark) {
+        for (Map.Entry<TopicPartition, long[]> entry : mark.offsets.entrySet()) {
+            TopicPartition partition = entry.getKey();
+            List<Mark> marks = pendingMarks.get(partition);
+            if (marks == null || !marks.remove(mark)) {
+                // Acknowledged already, or the partition was revoked since.
+                continue;
+            }
+
+            deliver(partition, entry.getValue()[1]);
+        }
+    }
+
+    /**
+     * Counts a record that is not sent, such as a filtered one, as delivered, so that its offset can be committed
+     * once the records before it are delivered.
+     */
+    void skip(SinkRecord record) {
+        deliver(new TopicPartition(record.topic(), record.kafkaPartition()), record.kafkaOffset());
+    }
+
+    private void deliver(TopicPartition partition, long offset) {
+        long delivered = deliveredOffsets.merge(partition, offset + 1, Math::max);
+        long committable = delivered;
+        List<Mark> marks = pendingMarks.get(partition);
+        if (marks != null) {
+            for (Mark pending : marks) {
+                committable = Math.min(committable, pending.offsets.get(partition)[0]);
+            }
+        }
+
+        OffsetAndMetadata current = committableOffsets.get(partition);
+        if (current == null || committable > current.offset()) {
+            committableOffsets.put(partition, new OffsetAndMetadata(committable));
+        }
+    }
+
+    /**
+     * @return for each partition, the offset of the first record that has not been delivered yet.
+     */
+    Map<TopicPartition, OffsetAndMetadata> committableOffsets() {
+        return committableOffsets;
+    }
+
+    /**
+     * Forgets everything about partitions that are no longer assigned to the task. Their records are read
+     * again from the last committed offset by whichever task they are assigned to next.
+     */
+    void remove(Collection<TopicPartition> partitions) {
+        for (TopicPartition partition : partitions) {
+            acceptedOffsets.remove(partition);
+            List<Mark> marks = pendingMarks.remove(partition);
+            if (marks != null) {
+                for (Mark mark : marks) {
+                    mark.offsets.remove(partition);
+                }
+            }
+            deliveredOffsets.remove(partition);
+            committableOffsets.remove(partition);
+        }
+    }
+
+    static final class Mark {
+        // Lowest and highest offset of the batch, per partition.
+        private final Map<TopicPartition, long[]> offsets;
+
+        private Mark() {
+            this.offsets = new HashMap<>();
+        }
+    }
+}
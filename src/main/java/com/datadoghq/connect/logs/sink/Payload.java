@@ -0,0 +1,26 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+/**
+ * The compressed body of one intake request along with the size of what it holds. The body is the valid
+ * region of a reused direct buffer, which is released once the request has been delivered.
+ */
+final class Payload {
+    final PayloadBuffer body;
+    final int entries;
+    final int uncompressedBytes;
+
+    Payload(PayloadBuffer body, int entries, int uncompressedBytes) {
+        this.body = body;
+        this.entries = entries;
+        this.uncompressedBytes = uncompressedBytes;
+    }
+
+    int compressedBytes() {
+        return body.size();
+    }
+}
@@ -0,0 +1,126 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Growable buffer of direct memory holding a compressed payload, or the uncompressed one before it is
+ * compressed as a whole. Payloads are up to several megabytes, which on the heap take humongous G1 regions;
+ * off the heap they cost no GC pause, and are written to the socket without being copied first.
+ * <p>
+ * The buffer is written from its start, its position being its size, and read through {@link #contents()}.
+ * Its capacity only grows, by replacing the direct buffer with a larger one; the capacity allocated is
+ * counted in the counter given to it, so that the direct memory held by a task can be reported.
+ * Not thread-safe.
+ */
+final class PayloadBuffer {
+    // Null when the buffer is not counted.
+    private final AtomicLong allocatedBytes;
+    private ByteBuffer buffer;
+
+    PayloadBuffer(int initialCapacity, AtomicLong allocatedBytes) {
+        this.allocatedBytes = allocatedBytes;
+        this.buffer = ByteBuffer.allocateDirect(initialCapacity);
+        if (allocatedBytes != null) {
+            allocatedBytes.addAndGet(initialCapacity);
+        }
+    }
+
+    void reset() {
+        buffer.clear();
+    }
+
+    int size() {
+        return buffer.position();
+    }
+
+    int capacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Makes room for at least {@code extra} more bytes.
+     */
+    void ensureCapacity(int extra) {
+        int required = buffer.position() + extra;
+        if (required > buffer.capacity()) {
+            int capacity = Math.max(required, buffer.capacity() << 1);
+            ByteBuffer grown = ByteBuffer.allocateDirect(capacity);
+            buffer.flip();
+            grown.put(buffer);
+            if (allocatedBytes != null) {
+                allocatedBytes.addAndGet(capacity - buffer.capacity());
+            }
+            buffer = grown;
+        }
+    }
+
+    void write(int b) {
+        if (!buffer.hasRemaining()) {
+            ensureCapacity(1);
+        }
+        buffer.put((byte) b);
+    }
+
+    void write(byte[] bytes) {
+        write(bytes, 0, bytes.length);
+    }
+
+    void write(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        buffer.put(bytes, offset, length);
+    }
+
+    /**
+     * Writes the remaining bytes of {@code source}, which is left at its limit.
+     */
+    void write(ByteBuffer source) {
+        ensureCapacity(source.remaining());
+        buffer.put(source);
+    }
+
+    /**
+     * Unchecked write for callers that already reserved space with {@link #ensureCapacity(int)}.
+     */
+    void put(int b) {
+        buffer.put((byte) b);
+    }
+
+    /**
+     * @return the direct buffer, for native code to write into from {@link #size()} after
+     * {@link #ensureCapacity(int)}. It is replaced when the capacity grows.
+     */
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * Counts {@code length} bytes written straight into {@link #buffer()}.
+     */
+    void advance(int length) {
+        buffer.position(buffer.position() + length);
+    }
+
+    /**
+     * @return a view of the bytes written, from its position 0 to its limit, sharing the memory of the buffer.
+     */
+    ByteBuffer contents() {
+        ByteBuffer contents = buffer.duplicate();
+        contents.flip();
+        return contents;
+    }
+
+    /**
+     * Stops counting the capacity of the buffer, which is left to the garbage collector.
+     */
+    void discard() {
+        if (allocatedBytes != null) {
+            allocatedBytes.addAndGet(-buffer.capacity());
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+/**
+ * Compression stage of a {@link PayloadEncoder}: turns the uncompressed JSON array of a payload into the
+ * request body, written into the buffer given to {@link #begin(PayloadBuffer)}.
+ * <p>
+ * A compressor is reused for every payload of its encoder and is not thread-safe.
+ */
+interface PayloadCompressor {
+
+    /**
+     * Starts a new payload, written into {@code out}.
+     */
+    void begin(PayloadBuffer out);
+
+    void write(int b);
+
+    void write(byte[] bytes, int offset, int length);
+
+    /**
+     * Writes whatever is left of the payload to the buffer given to {@link #begin(PayloadBuffer)}.
+     */
+    void finish();
+
+    /**
+     * Releases the native memory of the compressor, if any. It cannot be used afterwards.
+     */
+    void close();
+}
@@ -0,0 +1,90 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+/**
+ * Assembles the compressed JSON array sent as the body of one intake request.
+ * <p>
+ * Entries are appended as already encoded UTF-8 JSON and go straight into the {@link PayloadCompressor}. With
+ * gzip the uncompressed batch never exists in memory; zstd gathers it in a staging buffer to compress it as a
+ * single frame. The encoder tracks the uncompressed size of the array so that callers can cut batches before
+ * they exceed the intake limit.
+ * <p>
+ * The compressor is reused for every payload, and the compressed bytes are written into a buffer taken from
+ * a {@link BufferFreeList}. The buffer is handed over with the {@link Payload} and goes back to the list once
+ * the request has been delivered.
+ */
+class PayloadEncoder {
+    private final BufferFreeList freeBuffers;
+    private final PayloadCompressor compressor;
+    private PayloadBuffer compressed;
+    private int uncompressedBytes;
+    private int entries;
+
+    PayloadEncoder(BufferFreeList freeBuffers, PayloadCompressor compressor) {
+        this.freeBuffers = freeBuffers;
+        this.compressor = compressor;
+    }
+
+    /**
+     * Starts a new payload, discarding anything appended since the last {@link #finish()}.
+     */
+    void begin() {
+        if (compressed == null) {
+            compressed = freeBuffers.acquire();
+        }
+        compressed.reset();
+        compressor.begin(compressed);
+        compressor.write('[');
+        uncompressedBytes = 2; // for '[' and ']' in JSON
+        entries = 0;
+    }
+
+    /**
+     * @return the uncompressed size of the payload if an entry of {@code entryBytes} bytes were appended.
+     */
+    int sizeWith(int entryBytes) {
+        return uncompressedBytes + entryBytes + (entries > 0 ? 1 : 0);
+    }
+
+    void append(byte[] entry, int offset, int length) {
+        if (entries > 0) {
+            compressor.write(',');
+        }
+        compressor.write(entry, offset, length);
+        uncompressedBytes = sizeWith(length);
+        entries++;
+    }
+
+    int entries() {
+        return entries;
+    }
+
+    int uncompressedBytes() {
+        return uncompressedBytes;
+    }
+
+    /**
+     * Closes the JSON array and compresses what is left of it.
+     *
+     * @return the compressed payload, which now owns the buffer it was written into.
+     */
+    Payload finish() {
+        compressor.write(']');
+        compressor.finish();
+
+        Payload payload = new Payload(compressed, entries, uncompressedBytes);
+        compressed = null;
+        return payload;
+    }
+
+    /**
+     * Releases the native memory of the compressor. The encoder cannot be used afterwards.
+     */
+    void close() {
+        compressor.close();
+    }
+}
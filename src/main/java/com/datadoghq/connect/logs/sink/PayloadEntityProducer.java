@@ -0,0 +1,86 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.nio.AsyncEntityProducer;
+import org.apache.hc.core5.http.nio.DataStreamChannel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Request entity streaming the valid region of a payload buffer, where {@code SimpleHttpRequest} would need
+ * the body as an array of its own. The buffer is direct, so it is written to the socket without being copied.
+ */
+final class PayloadEntityProducer implements AsyncEntityProducer {
+    private final ByteBuffer content;
+    private final String contentType;
+    private final String contentEncoding;
+
+    PayloadEntityProducer(Payload payload, ContentType contentType, String contentEncoding) {
+        this.content = payload.body.contents();
+        this.contentType = contentType.toString();
+        this.contentEncoding = contentEncoding;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public long getContentLength() {
+        return content.limit();
+    }
+
+    @Override
+    public int available() {
+        return content.remaining();
+    }
+
+    @Override
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    @Override
+    public boolean isChunked() {
+        return false;
+    }
+
+    @Override
+    public Set<String> getTrailerNames() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public void produce(DataStreamChannel channel) throws IOException {
+        if (content.hasRemaining()) {
+            channel.write(content);
+        }
+        if (!content.hasRemaining()) {
+            channel.endStream();
+        }
+    }
+
+    @Override
+    public void failed(Exception cause) {
+        releaseResources();
+    }
+
+    @Override
+    public void releaseResources() {
+        content.rewind();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer holding the encoded JSON of a single log entry. It is reset and reused for every record
+ * and exposes its backing array so its content can be copied without {@code toByteArray()}.
+ * Unlike {@link java.io.ByteArrayOutputStream} none of its methods are synchronized.
+ */
+class RecordBuffer {
+    private byte[] buf;
+    private int count;
+
+    RecordBuffer(int initialSize) {
+        this.buf = new byte[initialSize];
+    }
+
+    void reset() {
+        count = 0;
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * Discards everything written after the first {@code size} bytes.
+     */
+    void truncate(int size) {
+        count = size;
+    }
+
+    byte[] array() {
+        return buf;
+    }
+
+    /**
+     * Makes room for at least {@code extra} more bytes.
+     */
+    void ensureCapacity(int extra) {
+        int required = count + extra;
+        if (required > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(required, buf.length << 1));
+        }
+    }
+
+    void write(int b) {
+        if (count == buf.length) {
+            ensureCapacity(1);
+        }
+        buf[count++] = (byte) b;
+    }
+
+    void write(byte[] bytes) {
+        write(bytes, 0, bytes.length);
+    }
+
+    void write(byte[] bytes, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, buf, count, length);
+        count += length;
+    }
+
+    /**
+     * Writes a string known to contain only ASCII characters, such as a number or a JSON literal.
+     */
+    void writeAscii(String s) {
+        int length = s.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            buf[count++] = (byte) s.charAt(i);
+        }
+    }
+
+    /**
+     * Counts {@code length} bytes written straight into {@link #array()} after {@link #ensureCapacity(int)}.
+     */
+    void advance(int length) {
+        count += length;
+    }
+
+    /**
+     * Unchecked write for callers that already reserved space with {@link #ensureCapacity(int)}.
+     */
+    void put(int b) {
+        buf[count++] = (byte) b;
+    }
+}
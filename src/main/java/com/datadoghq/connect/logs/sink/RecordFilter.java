@@ -0,0 +1,149 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import org.apache.kafka.connect.sink.SinkRecord;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drops records before they are serialized, so that noisy topics and log levels cost neither CPU nor egress.
+ * <p>
+ * Records are checked against the cheapest predicates first and only read as far as needed:
+ * <ol>
+ *     <li>records of excluded topics are dropped;</li>
+ *     <li>records whose filter field holds an excluded value are dropped;</li>
+ *     <li>records sampled out are dropped, the decision being a hash of the record key, so that the records of
+ *     a key are all kept or all dropped, by every task and across restarts;</li>
+ *     <li>records beyond the rate limit of their topic are dropped, the limit being per task.</li>
+ * </ol>
+ * Only the record key and the filter field of the Connect value are read; no JSON is built.
+ * <p>
+ * Not thread-safe: it is only used from the task thread.
+ */
+class RecordFilter {
+    private final Set<String> excludedTopics;
+    private final FieldPath field;
+    private final Set<String> excludedValues;
+    // Null when sampling applies to every record.
+    private final Set<String> sampledValues;
+    // Records whose key hashes below this threshold are kept.
+    private final long sampleThreshold;
+    private final double recordsPerSecond;
+    private final Map<String, TokenBucket> buckets;
+
+    RecordFilter(DatadogLogsSinkConnectorConfig config) {
+        this.excludedTopics = new HashSet<>(config.filterTopicsExclude);
+        this.field = config.filterField;
+        this.excludedValues = new HashSet<>(config.filterFieldExclude);
+        this.sampledValues = config.sampleValues.isEmpty() ? null : new HashSet<>(config.sampleValues);
+        this.sampleThreshold = config.sampleRate >= 1.0 ? Long.MAX_VALUE : (long) (config.sampleRate * Long.MAX_VALUE);
+        this.recordsPerSecond = config.rateLimitRecordsPerSecond;
+        this.buckets = new HashMap<>();
+    }
+
+    /**
+     * @return false if no record is ever dropped.
+     */
+    boolean enabled() {
+        return !excludedTopics.isEmpty() || !excludedValues.isEmpty() || sampleThreshold != Long.MAX_VALUE
+                || recordsPerSecond > 0;
+    }
+
+    /**
+     * @return true if the record is to be sent.
+     */
+    boolean accept(SinkRecord record, long nowNanos) {
+        if (excludedTopics.contains(record.topic())) {
+            return false;
+        }
+
+        if (field != null && (!excludedValues.isEmpty() || sampledValues != null)) {
+            String value = FieldPath.asString(field.read(record.value()));
+            if (value != null && excludedValues.contains(value)) {
+                return false;
+            }
+            if (sampleThreshold != Long.MAX_VALUE && (sampledValues == null || sampledValues.contains(value))
+                    && !sampledIn(record)) {
+                return false;
+            }
+        } else if (sampleThreshold != Long.MAX_VALUE && !sampledIn(record)) {
+            return false;
+        }
+
+        if (recordsPerSecond > 0) {
+            TokenBucket bucket = buckets.computeIfAbsent(record.topic(), topic -> new TokenBucket(recordsPerSecond, nowNanos));
+            return bucket.tryAcquire(nowNanos);
+        }
+        return true;
+    }
+
+    private boolean sampledIn(SinkRecord record) {
+        // Spread the hash over the positive longs, so that the threshold keeps the configured share.
+        return (mix(keyHash(record)) >>> 1) < sampleThreshold;
+    }
+
+    private static long keyHash(SinkRecord record) {
+        Object key = record.key();
+        if (key == null) {
+            return record.kafkaOffset() * 31 + (record.kafkaPartition() != null ? record.kafkaPartition() : 0);
+        }
+        if (key instanceof byte[]) {
+            return Arrays.hashCode((byte[]) key);
+        }
+        if (key instanceof ByteBuffer) {
+            return key.hashCode();
+        }
+        if (key instanceof Number) {
+            return Long.hashCode(((Number) key).longValue());
+        }
+        return FieldPath.asString(key).hashCode();
+    }
+
+    /**
+     * The finalizer of MurmurHash3, which turns close hashes into uniformly spread ones.
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Allows {@code recordsPerSecond} records per second, in bursts of up to a second's worth.
+     */
+    private static final class TokenBucket {
+        private final double recordsPerSecond;
+        private double tokens;
+        private long refilledNanos;
+
+        private TokenBucket(double recordsPerSecond, long nowNanos) {
+            this.recordsPerSecond = recordsPerSecond;
+            this.tokens = recordsPerSecond;
+            this.refilledNanos = nowNanos;
+        }
+
+        private boolean tryAcquire(long nowNanos) {
+            double elapsedSeconds = (nowNanos - refilledNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+            tokens = Math.min(recordsPerSecond, tokens + elapsedSeconds * recordsPerSecond);
+            refilledNanos = nowNanos;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+    }
+}
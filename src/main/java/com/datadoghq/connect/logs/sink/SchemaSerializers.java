@@ -0,0 +1,383 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import org.apache.kafka.connect.data.Date;
+import org.apache.kafka.connect.data.Decimal;
+import org.apache.kafka.connect.data.Field;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.data.Time;
+import org.apache.kafka.connect.data.Timestamp;
+import org.apache.kafka.connect.errors.DataException;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serializes Struct values with the writers compiled for their schema, instead of walking the schema for every
+ * record as {@link ConnectJsonSerializer} does. Compiled writers hold the encoded field names and one writer per
+ * field, chosen once for its type.
+ * <p>
+ * Converters such as Avro's reuse the same {@code Schema} instance for every record of a schema version, so
+ * compiled writers are cached by schema identity: comparing Connect schemas with {@code equals} walks them whole.
+ * The writers of the schemas seen most recently are cached, up to {@link #MAX_CACHED_SCHEMAS}. The output is
+ * the same as {@link ConnectJsonSerializer}'s, which values of other types are left to.
+ * <p>
+ * Not thread-safe: each formatter has its own.
+ */
+class SchemaSerializers {
+    static final int MAX_CACHED_SCHEMAS = 1000;
+
+    private final Map<SchemaKey, ValueWriter> writers;
+    // The last schema looked up, which is that of the next record most of the time.
+    private Schema lastSchema;
+    private ValueWriter lastWriter;
+
+    SchemaSerializers() {
+        this.writers = new LinkedHashMap<SchemaKey, ValueWriter>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<SchemaKey, ValueWriter> eldest) {
+                return size() > MAX_CACHED_SCHEMAS;
+            }
+        };
+    }
+
+    void writeValue(RecordBuffer out, Schema schema, Object value) {
+        if (schema == null || schema.type() != Schema.Type.STRUCT) {
+            ConnectJsonSerializer.writeValue(out, schema, value);
+            return;
+        }
+        writer(schema).write(out, value);
+    }
+
+    int cachedSchemas() {
+        return writers.size();
+    }
+
+    private ValueWriter writer(Schema schema) {
+        if (schema == lastSchema) {
+            return lastWriter;
+        }
+        SchemaKey key = new SchemaKey(schema);
+        ValueWriter writer = writers.get(key);
+        if (writer == null) {
+            writer = compile(schema);
+            writers.put(key, writer);
+        }
+        lastSchema = schema;
+        lastWriter = writer;
+        return writer;
+    }
+
+    private static ValueWriter compile(Schema schema) {
+        if (schema.name() != null) {
+            switch (schema.name()) {
+                case Decimal.LOGICAL_NAME:
+                    return new DecimalWriter(schema);
+                case Date.LOGICAL_NAME:
+                case Time.LOGICAL_NAME:
+                case Timestamp.LOGICAL_NAME:
+                    return new DateWriter(schema);
+                default:
+                    break;
+            }
+        }
+        switch (schema.type()) {
+            case INT8:
+            case INT16:
+            case INT32:
+            case INT64:
+                return new IntegerWriter(schema);
+            case FLOAT32:
+                return new Float32Writer(schema);
+            case FLOAT64:
+                return new Float64Writer(schema);
+            case BOOLEAN:
+                return new BooleanWriter(schema);
+            case STRING:
+                return new StringWriter(schema);
+            case BYTES:
+                return new BytesWriter(schema);
+            case ARRAY:
+                return new ArrayWriter(schema);
+            case MAP:
+                return new MapWriter(schema);
+            case STRUCT:
+                return new StructWriter(schema);
+            default:
+                throw new DataException("Couldn't convert schema of type " + schema.type() + " to JSON.");
+        }
+    }
+
+    private static final class SchemaKey {
+        private final Schema schema;
+
+        SchemaKey(Schema schema) {
+            this.schema = schema;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof SchemaKey && ((SchemaKey) o).schema == schema;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(schema);
+        }
+    }
+
+    /**
+     * Writes the values of one schema, handling null values and type errors like {@link ConnectJsonSerializer}.
+     */
+    private abstract static class ValueWriter {
+        final Schema schema;
+
+        ValueWriter(Schema schema) {
+            this.schema = schema;
+        }
+
+        final void write(RecordBuffer out, Object value) {
+            if (value == null) {
+                if (schema.defaultValue() != null) {
+                    value = schema.defaultValue();
+                } else if (schema.isOptional()) {
+                    Utf8Json.writeNull(out);
+                    return;
+                } else {
+                    throw new DataException("Conversion error: null value for field that is required and has no default value");
+                }
+            }
+            try {
+                writeNonNull(out, value);
+            } catch (ClassCastException e) {
+                throw new DataException("Invalid type for " + schema.type() + ": " + value.getClass());
+            }
+        }
+
+        abstract void writeNonNull(RecordBuffer out, Object value);
+    }
+
+    private static final class IntegerWriter extends ValueWriter {
+        IntegerWriter(Schema schema) {
+            super(schema);
+        }
+
+        @Override
+        void writeNonNull(RecordBuffer out, Object value) {
+            Utf8Json.writeLong(out, ((Number) value).longValue());
+        }
+    }
+
+    private static final class Float32Writer extends ValueWriter {
+        Float32Writer(Schema schema) {
+            super(schema);
+        }
+
+        @Override
+        void writeNonNull(RecordBuffer out, Object value) {
+            Utf8Json.writeFloat(out, (Float) value);
+        }
+    }
+
+    private static final class Float64Writer extends ValueWriter {
+        Float64Writer(Schema schema) {
+            super(schema);
+        }
+
+        @Override
+        void writeNonNull(RecordBuffer out, Object value) {
+            Utf8Json.writeDouble(out, (Double) value);
+        }
+    }
+
+    private static final class BooleanWriter extends ValueWriter {
+        BooleanWriter(Schema schema) {
+            super(schema);
+        }
+
+        @Override
+        void writeNonNull(RecordBuffer out, Object value) {
+            Utf8Json.writeBoolean(out, (Boolean) value);
+        }
+    }
+
+    private static final class StringWriter extends ValueWriter {
+        StringWriter(Schema schema) {
+            super(schema);
+        }
+
+        @Override
+        void writeNonNull(RecordBuffer out, Object value) {
+            Utf8Json.writeString(out, ((CharSequence) value).toString());
+        }
+    }
+
+    private static final class BytesWriter extends ValueWriter {
+        BytesWriter(Schema schema) {
+            super(schema);
+        }
+
+        @Override
+        void writeNonNull(RecordBuffer out, Object value) {
+            ConnectJsonSerializer.writeBytes(out, value);
+        }
+    }
+
+    private static final class DecimalWriter extends ValueWriter {
+        DecimalWriter(Schema schema) {
+            super(schema);
+        }
+
+        @Override
+        void writeNonNull(RecordBuffer out, Object value) {
+            if (!(value instanceof BigDecimal)) {
+                throw new DataException("Invalid type for Decimal, expected BigDecimal but was " + value.getClass());
+            }
+            out.writeAscii(value.toString());
+        }
+    }
+
+    /**
+     * Writes Date, Time and Timestamp values as their number of days or milliseconds.
+     */
+    private static final class DateWriter extends ValueWriter {
+        // Date, Time or Timestamp, for error messages.
+        private final String typeName;
+
+        DateWriter(Schema schema) {
+            super(schema);
+            this.typeName = schema.name().substring(schema.name().lastIndexOf('.') + 1);
+        }
+
+        @Override
+        void writeNonNull(RecordBuffer out, Object value) {
+            if (!(value instanceof java.util.Date)) {
+                throw new DataException("Invalid type for " + typeName + ", expected Date but was " + value.getClass());
+            }
+            java.util.Date date = (java.util.Date) value;
+            switch (schema.name()) {
+                case Date.LOGICAL_NAME:
+                    Utf8Json.writeLong(out, Date.fromLogical(schema, date));
+                    break;
+                case Time.LOGICAL_NAME:
+                    Utf8Json.writeLong(out, Time.fromLogical(schema, date));
+                    break;
+                default:
+                    Utf8Json.writeLong(out, Timestamp.fromLogical(schema, date));
+                    break;
+            }
+        }
+    }
+
+    private static final class ArrayWriter extends ValueWriter {
+        private final ValueWriter elementWriter;
+
+        ArrayWriter(Schema schema) {
+            super(schema);
+            this.elementWriter = compile(schema.valueSchema());
+        }
+
+        @Override
+        void writeNonNull(RecordBuffer out, Object value) {
+            out.write('[');
+            boolean first = true;
+            for (Object element : (Collection<?>) value) {
+                if (!first) {
+                    out.write(',');
+                }
+                elementWriter.write(out, element);
+                first = false;
+            }
+            out.write(']');
+        }
+    }
+
+    /**
+     * Writes maps with string keys as JSON objects, and other maps as arrays of {@code [key, value]} pairs.
+     */
+    private static final class MapWriter extends ValueWriter {
+        private final boolean objectMode;
+        private final ValueWriter keyWriter;
+        private final ValueWriter valueWriter;
+
+        MapWriter(Schema schema) {
+            super(schema);
+            this.objectMode = schema.keySchema().type() == Schema.Type.STRING;
+            this.keyWriter = objectMode ? null : compile(schema.keySchema());
+            this.valueWriter = compile(schema.valueSchema());
+        }
+
+        @Override
+        void writeNonNull(RecordBuffer out, Object value) {
+            out.write(objectMode ? '{' : '[');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first) {
+                    out.write(',');
+                }
+                if (objectMode) {
+                    Utf8Json.writeString(out, String.valueOf(entry.getKey()));
+                    out.write(':');
+                    valueWriter.write(out, entry.getValue());
+                } else {
+                    out.write('[');
+                    keyWriter.write(out, entry.getKey());
+                    out.write(',');
+                    valueWriter.write(out, entry.getValue());
+                    out.write(']');
+                }
+                first = false;
+            }
+            out.write(objectMode ? '}' : ']');
+        }
+    }
+
+    private static final class StructWriter extends ValueWriter {
+        private final Field[] fields;
+        // The name of each field with its quotes and colon, preceded by the opening brace or a comma.
+        private final byte[][] prefixes;
+        private final ValueWriter[] fieldWriters;
+
+        StructWriter(Schema schema) {
+            super(schema);
+            List<Field> schemaFields = schema.fields();
+            this.fields = schemaFields.toArray(new Field[0]);
+            this.prefixes = new byte[fields.length][];
+            this.fieldWriters = new ValueWriter[fields.length];
+            RecordBuffer buffer = new RecordBuffer(64);
+            for (int i = 0; i < fields.length; i++) {
+                buffer.reset();
+                buffer.write(i == 0 ? '{' : ',');
+                Utf8Json.writeString(buffer, fields[i].name());
+                buffer.write(':');
+                prefixes[i] = Arrays.copyOf(buffer.array(), buffer.size());
+                fieldWriters[i] = compile(fields[i].schema());
+            }
+        }
+
+        @Override
+        void writeNonNull(RecordBuffer out, Object value) {
+            Struct struct = (Struct) value;
+            if (struct.schema() != schema && !struct.schema().equals(schema)) {
+                throw new DataException("Mismatching schema.");
+            }
+            if (fields.length == 0) {
+                out.write('{');
+            }
+            for (int i = 0; i < fields.length; i++) {
+                out.write(prefixes[i]);
+                fieldWriters[i].write(out, struct.get(fields[i]));
+            }
+            out.write('}');
+        }
+    }
+}
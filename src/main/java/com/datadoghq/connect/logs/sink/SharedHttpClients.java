@@ -0,0 +1,205 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.config.TlsConfig;
+import org.apache.hc.client5.http.impl.DefaultConnectionKeepAliveStrategy;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClientBuilder;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.ssl.ClientTlsStrategyBuilder;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.ssl.SSLContexts;
+import org.apache.hc.core5.util.TimeValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP clients shared by the tasks running in the same worker, so that they draw from one pool of connections
+ * to the intake instead of each opening its own.
+ * <p>
+ * Tasks configured alike share a client, which is created by the first of them to {@link #acquire} it and closed
+ * once the last of them has closed its {@link Lease}. Its connections are kept alive across requests, retries
+ * and tasks, and its TLS context is created once, so that new connections resume the TLS sessions of earlier
+ * ones instead of doing full handshakes.
+ */
+final class SharedHttpClients {
+    private static final Logger log = LoggerFactory.getLogger(SharedHttpClients.class);
+    private static final Map<Settings, SharedClient> clients = new HashMap<>();
+
+    private SharedHttpClients() {
+    }
+
+    /**
+     * @return a lease on the client matching the HTTP settings of {@code config} for {@code destination}, to
+     * close once the caller is done with it. Each destination has its own client, so that its connections are
+     * not taken by the requests to another.
+     */
+    static synchronized Lease acquire(DatadogLogsSinkConnectorConfig config, Destination destination) {
+        Settings settings = new Settings(config, destination);
+        SharedClient shared = clients.get(settings);
+        if (shared == null) {
+            log.debug("Creating HTTP client with {}", settings);
+            shared = new SharedClient(build(settings));
+            clients.put(settings, shared);
+        }
+        shared.references++;
+        return new Lease(settings, shared);
+    }
+
+    private static void release(Settings settings, SharedClient shared) {
+        synchronized (SharedHttpClients.class) {
+            if (--shared.references > 0) {
+                return;
+            }
+            clients.remove(settings);
+        }
+        // Outside of the lock, so that the other tasks do not wait for the connections to drain.
+        log.debug("Closing HTTP client with {}", settings);
+        shared.client.close(CloseMode.GRACEFUL);
+    }
+
+    private static CloseableHttpAsyncClient build(Settings settings) {
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(DatadogLogsApiWriter.CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .setResponseTimeout(DatadogLogsApiWriter.RESPONSE_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .build();
+        TimeValue keepAlive = TimeValue.ofMilliseconds(settings.keepAliveMs);
+
+        HttpAsyncClientBuilder builder = HttpAsyncClients.custom()
+                .setDefaultRequestConfig(requestConfig)
+                .setConnectionManager(PoolingAsyncClientConnectionManagerBuilder.create()
+                        .setMaxConnTotal(settings.maxConnections)
+                        .setMaxConnPerRoute(settings.maxConnections)
+                        // The HTTP version is picked per connection, TLS or not.
+                        .setDefaultTlsConfig(TlsConfig.custom()
+                                .setVersionPolicy(settings.versionPolicy)
+                                .build())
+                        // One TLS context for every connection, whose session cache lets them resume sessions.
+                        .setTlsStrategy(ClientTlsStrategyBuilder.create()
+                                .setSslContext(SSLContexts.createSystemDefault())
+                                .buildAsync())
+                        .build())
+                // Keep connections alive for as long as the intake allows, up to the configured duration.
+                .setKeepAliveStrategy((response, context) -> {
+                    TimeValue advertised = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                    return TimeValue.isPositive(advertised) && advertised.compareTo(keepAlive) < 0 ? advertised : keepAlive;
+                })
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofMilliseconds(settings.idleTimeoutMs))
+                // Disable automatic decompression: we send compressed payloads, not receive them.
+                .disableContentCompression()
+                // Disable automatic redirect following to keep behaviour identical to HttpURLConnection defaults.
+                .disableRedirectHandling();
+
+        if (settings.proxyURL != null && !settings.proxyURL.isEmpty()) {
+            HttpHost proxy = new HttpHost(settings.proxyURL, settings.proxyPort);
+            builder.setProxy(proxy);
+        }
+
+        CloseableHttpAsyncClient client = builder.build();
+        client.start();
+        return client;
+    }
+
+    /**
+     * A reference to a shared client, released when closed.
+     */
+    static final class Lease implements Closeable {
+        private final Settings settings;
+        private final SharedClient shared;
+        private boolean closed;
+
+        private Lease(Settings settings, SharedClient shared) {
+            this.settings = settings;
+            this.shared = shared;
+        }
+
+        CloseableHttpAsyncClient client() {
+            return shared.client;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                release(settings, shared);
+            }
+        }
+    }
+
+    private static final class SharedClient {
+        private final CloseableHttpAsyncClient client;
+        private int references;
+
+        private SharedClient(CloseableHttpAsyncClient client) {
+            this.client = client;
+        }
+    }
+
+    /**
+     * The settings that tell apart the clients tasks may share.
+     */
+    private static final class Settings {
+        private final String destination;
+        private final String proxyURL;
+        private final Integer proxyPort;
+        private final int maxConnections;
+        private final int keepAliveMs;
+        private final int idleTimeoutMs;
+        private final HttpVersionPolicy versionPolicy;
+
+        private Settings(DatadogLogsSinkConnectorConfig config, Destination destination) {
+            this.destination = destination.name + "@" + destination.url;
+            this.proxyURL = config.proxyURL;
+            this.proxyPort = config.proxyPort;
+            this.maxConnections = config.httpMaxConnections;
+            this.keepAliveMs = config.httpKeepAliveMs;
+            this.idleTimeoutMs = config.httpIdleTimeoutMs;
+            this.versionPolicy = config.httpVersionPolicy;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Settings)) {
+                return false;
+            }
+            Settings other = (Settings) o;
+            return maxConnections == other.maxConnections
+                    && keepAliveMs == other.keepAliveMs
+                    && idleTimeoutMs == other.idleTimeoutMs
+                    && destination.equals(other.destination)
+                    && Objects.equals(proxyURL, other.proxyURL)
+                    && Objects.equals(proxyPort, other.proxyPort)
+                    && versionPolicy == other.versionPolicy;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(destination, proxyURL, proxyPort, maxConnections, keepAliveMs, idleTimeoutMs, versionPolicy);
+        }
+
+        @Override
+        public String toString() {
+            return "destination=" + destination + ", maxConnections=" + maxConnections + ", keepAliveMs=" + keepAliveMs
+                    + ", idleTimeoutMs=" + idleTimeoutMs + ", versionPolicy=" + versionPolicy
+                    + ", proxy=" + proxyURL + ":" + proxyPort;
+        }
+    }
+}
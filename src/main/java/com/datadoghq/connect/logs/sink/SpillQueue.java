@@ -0,0 +1,470 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import org.apache.kafka.common.utils.ByteBufferUnmapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A queue of compressed payloads on disk, written when the intake fails to accept them and read back in order
+ * to send them again once it recovers.
+ * <p>
+ * Payloads are appended to segments: files of {@code segmentBytes} mapped in memory, created as the queue grows
+ * and unmapped and deleted once every payload they hold has been delivered, so that their disk space is freed
+ * right away rather than once their mapping is garbage collected. A payload is durable once {@link #sync()}
+ * returns.
+ * Each entry is a header, holding the length and CRC32 of the body and the size of what it holds, followed by the
+ * body, and each segment ends at the first entry with a length of zero or a checksum that does not match, so that
+ * a write torn by a crash is ignored when the queue is opened again.
+ * <p>
+ * Entries are read with {@link #next(PayloadBuffer)}, in order, and may be delivered out of order; the head of the
+ * queue, saved in a file of its own, only moves past the entries delivered in a row, so that after a crash the
+ * queue is read again from the oldest entry not delivered. Entries delivered after it may be sent twice.
+ * <p>
+ * The directory is locked while the queue is open. Not thread-safe: it is only used from the task thread.
+ */
+class SpillQueue implements Closeable {
+    // Length, CRC32, entries and uncompressed bytes of the body.
+    static final int ENTRY_HEADER_BYTES = 16;
+    private static final String SEGMENT_SUFFIX = ".segment";
+    private static final String HEAD_FILE = "head";
+    private static final String LOCK_FILE = "lock";
+    // Segment id, position and CRC32 of both.
+    private static final int HEAD_BYTES = 16;
+
+    private static final Logger log = LoggerFactory.getLogger(SpillQueue.class);
+
+    private final Path directory;
+    private final long maxBytes;
+    private final int segmentBytes;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final MappedByteBuffer head;
+    // Oldest first; the last one is appended to.
+    private final Deque<Segment> segments;
+    // Entries read and not delivered yet, in the order they were read.
+    private final Deque<Entry> pending;
+    // Entries whose delivery failed, to be read again before the others.
+    private final Deque<Entry> retries;
+    private final CRC32 crc;
+    private Segment readSegment;
+    private int readPosition;
+    private boolean dirty;
+    private boolean headDirty;
+
+    private SpillQueue(Path directory, long maxBytes, int segmentBytes, FileChannel lockChannel, FileLock lock,
+                       MappedByteBuffer head) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.segmentBytes = segmentBytes;
+        this.lockChannel = lockChannel;
+        this.lock = lock;
+        this.head = head;
+        this.segments = new ArrayDeque<>();
+        this.pending = new ArrayDeque<>();
+        this.retries = new ArrayDeque<>();
+        this.crc = new CRC32();
+    }
+
+    /**
+     * Opens the queue in {@code directory}, creating it if needed, and recovers the payloads left by the previous
+     * owner of the directory.
+     *
+     * @param maxBytes     the disk space the segments may take; payloads are refused beyond it.
+     * @param segmentBytes the size of each segment, which bounds the size of a payload.
+     * @throws IOException if the directory cannot be read or written, or is locked by another queue.
+     */
+    static SpillQueue open(Path directory, long maxBytes, int segmentBytes) throws IOException {
+        Files.createDirectories(directory);
+        FileChannel lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        SpillQueue queue = null;
+        try {
+            FileLock lock;
+            try {
+                lock = lockChannel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                // Locked by another task of this worker.
+                lock = null;
+            }
+            if (lock == null) {
+                throw new IOException("Spill directory " + directory + " is used by another task");
+            }
+            MappedByteBuffer head;
+            try (FileChannel channel = FileChannel.open(directory.resolve(HEAD_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                head = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEAD_BYTES);
+            }
+            queue = new SpillQueue(directory, maxBytes, segmentBytes, lockChannel, lock, head);
+            queue.recover();
+            return queue;
+        } catch (IOException | RuntimeException e) {
+            if (queue != null) {
+                queue.close();
+            } else {
+                lockChannel.close();
+            }
+            throw e;
+        }
+    }
+
+    private void recover() throws IOException {
+        List<Long> ids = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    ids.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    log.warn("Ignoring unexpected file {} in spill directory", file);
+                }
+            }
+        }
+        Collections.sort(ids);
+
+        long headId = head.getLong(0);
+        int headPosition = head.getInt(8);
+        if (head.getInt(12) != headChecksum(headId, headPosition) || !ids.contains(headId)) {
+            // No head yet, or torn: read everything left.
+            headId = ids.isEmpty() ? 0 : ids.get(0);
+            headPosition = 0;
+        }
+
+        for (long id : ids) {
+            if (id < headId) {
+                Files.deleteIfExists(segmentPath(id));
+            } else {
+                segments.addLast(Segment.map(segmentPath(id), id));
+            }
+        }
+        if (segments.isEmpty()) {
+            segments.addLast(Segment.create(segmentPath(headId), headId, segmentBytes));
+        }
+
+        Segment tail = segments.peekLast();
+        tail.writePosition = scan(tail, tail.id == headId ? headPosition : 0);
+        readSegment = segments.peekFirst();
+        readPosition = Math.min(headPosition, readSegment.writePosition);
+        saveHead(readSegment.id, readPosition);
+        if (!isEmpty()) {
+            log.info("Recovered {} bytes of spilled payloads from {}", sizeBytes(), directory);
+        }
+    }
+
+    /**
+     * @return the position following the last valid entry of the segment from {@code position}.
+     */
+    private int scan(Segment segment, int position) {
+        int next = position;
+        while ((next = nextEntry(segment, next)) >= 0) {
+            position = next;
+        }
+        return position;
+    }
+
+    /**
+     * @return the position of the entry following the one at {@code position}, or -1 if there is no valid entry
+     * at {@code position}.
+     */
+    private int nextEntry(Segment segment, int position) {
+        ByteBuffer buffer = segment.buffer;
+        if (position + ENTRY_HEADER_BYTES > buffer.capacity()) {
+            return -1;
+        }
+        int length = buffer.getInt(position);
+        if (length <= 0 || length > buffer.capacity() - position - ENTRY_HEADER_BYTES) {
+            return -1;
+        }
+        if (buffer.getInt(position + 4) != checksum(buffer, position + ENTRY_HEADER_BYTES, length)) {
+            return -1;
+        }
+        return position + ENTRY_HEADER_BYTES + length;
+    }
+
+    /**
+     * Appends a payload to the queue; it is durable once {@link #sync()} returns.
+     *
+     * @return false if the queue is full, or the payload does not fit in a segment.
+     */
+    boolean append(Payload payload) throws IOException {
+        int length = payload.compressedBytes();
+        int entryBytes = ENTRY_HEADER_BYTES + length;
+        if (entryBytes > segmentBytes) {
+            return false;
+        }
+
+        Segment tail = segments.peekLast();
+        if (tail.writePosition + entryBytes > tail.buffer.capacity()) {
+            if ((long) (segments.size() + 1) * segmentBytes > maxBytes) {
+                return false;
+            }
+            tail.buffer.force();
+            tail = Segment.create(segmentPath(tail.id + 1), tail.id + 1, segmentBytes);
+            segments.addLast(tail);
+        }
+
+        ByteBuffer buffer = tail.buffer.duplicate();
+        int position = tail.writePosition;
+        buffer.position(position + ENTRY_HEADER_BYTES);
+        buffer.put(payload.body.contents());
+        buffer.putInt(position + 4, checksum(buffer, position + ENTRY_HEADER_BYTES, length));
+        buffer.putInt(position + 8, payload.entries);
+        buffer.putInt(position + 12, payload.uncompressedBytes);
+        // The length last, so that the entry is only valid once complete.
+        buffer.putInt(position, length);
+        tail.writePosition = position + entryBytes;
+        if (tail.writePosition + 4 <= buffer.capacity()) {
+            // Ends the segment here, in case it held entries torn by a crash.
+            buffer.putInt(tail.writePosition, 0);
+        }
+        dirty = true;
+        return true;
+    }
+
+    /**
+     * Forces the payloads appended and the head moved since the last call to disk.
+     */
+    void sync() {
+        if (dirty) {
+            segments.peekLast().buffer.force();
+            dirty = false;
+        }
+        if (headDirty) {
+            forceHead();
+        }
+    }
+
+    /**
+     * Reads the next payload to send: first the ones whose delivery failed, then the ones never read.
+     *
+     * @param buffer the payload is copied into, unless a failed payload, which keeps its own buffer, is returned.
+     * @return the entry, or null if every payload has been read.
+     */
+    Entry next(PayloadBuffer buffer) {
+        Entry retry = retries.pollFirst();
+        if (retry != null) {
+            return retry;
+        }
+
+        while (readPosition >= readSegment.writePosition || nextEntry(readSegment, readPosition) < 0) {
+            if (readSegment == segments.peekLast()) {
+                return null;
+            }
+            readSegment = nextSegment(readSegment);
+            readPosition = 0;
+        }
+
+        ByteBuffer source = readSegment.buffer.duplicate();
+        int length = source.getInt(readPosition);
+        int entries = source.getInt(readPosition + 8);
+        int uncompressedBytes = source.getInt(readPosition + 12);
+        buffer.reset();
+        source.limit(readPosition + ENTRY_HEADER_BYTES + length).position(readPosition + ENTRY_HEADER_BYTES);
+        buffer.write(source);
+
+        int end = readPosition + ENTRY_HEADER_BYTES + length;
+        Entry entry = new Entry(new Payload(buffer, entries, uncompressedBytes), readSegment.id, end);
+        readPosition = end;
+        pending.addLast(entry);
+        return entry;
+    }
+
+    private Segment nextSegment(Segment segment) {
+        boolean found = false;
+        for (Segment next : segments) {
+            if (found) {
+                return next;
+            }
+            found = next == segment;
+        }
+        throw new IllegalStateException("No segment after " + segment.id);
+    }
+
+    /**
+     * Marks an entry as delivered, and moves the head past the entries delivered in a row, deleting the
+     * segments left behind.
+     */
+    void delivered(Entry entry) throws IOException {
+        entry.delivered = true;
+        Entry last = null;
+        while (!pending.isEmpty() && pending.peekFirst().delivered) {
+            last = pending.removeFirst();
+        }
+        if (last == null) {
+            return;
+        }
+
+        while (segments.peekFirst().id < last.segmentId) {
+            delete(segments.removeFirst());
+        }
+        if (isEmpty() && segments.size() == 1) {
+            // Start over at the beginning of the segment, rather than create another one for the next outage.
+            Segment tail = segments.peekFirst();
+            tail.writePosition = 0;
+            tail.buffer.putInt(0, 0);
+            readPosition = 0;
+            saveHead(tail.id, 0);
+            // Before the next entries overwrite the ones the head on disk may still point past, which would
+            // skip them after a crash.
+            forceHead();
+        } else {
+            saveHead(last.segmentId, last.end);
+        }
+    }
+
+    /**
+     * Keeps an entry whose delivery failed to be returned by {@link #next(PayloadBuffer)} again, before the others.
+     */
+    void failed(Entry entry) {
+        retries.addLast(entry);
+    }
+
+    /**
+     * @return true if every payload appended has been delivered.
+     */
+    boolean isEmpty() {
+        if (!pending.isEmpty() || !retries.isEmpty()) {
+            return false;
+        }
+        return readSegment == segments.peekLast() && readPosition >= readSegment.writePosition;
+    }
+
+    /**
+     * @return the disk space taken by the segments.
+     */
+    long sizeBytes() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.buffer.capacity();
+        }
+        return bytes;
+    }
+
+    private void saveHead(long id, int position) {
+        head.putLong(0, id);
+        head.putInt(8, position);
+        head.putInt(12, headChecksum(id, position));
+        headDirty = true;
+    }
+
+    private void forceHead() {
+        head.force();
+        headDirty = false;
+    }
+
+    /**
+     * Unmaps and deletes a segment every payload of which has been delivered; nothing refers to its buffer
+     * anymore, as payloads are copied out of it when read.
+     */
+    private void delete(Segment segment) throws IOException {
+        Path path = segmentPath(segment.id);
+        ByteBufferUnmapper.unmap(path.toString(), segment.buffer);
+        Files.deleteIfExists(path);
+    }
+
+    private int headChecksum(long id, int position) {
+        ByteBuffer bytes = ByteBuffer.allocate(12).putLong(0, id).putInt(8, position);
+        crc.reset();
+        crc.update(bytes.array(), 0, 12);
+        return (int) crc.getValue();
+    }
+
+    private int checksum(ByteBuffer buffer, int position, int length) {
+        ByteBuffer body = buffer.duplicate();
+        body.limit(position + length).position(position);
+        crc.reset();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+
+    private Path segmentPath(long id) {
+        return directory.resolve(String.format("%020d%s", id, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Forces what was written to disk and releases the directory. Payloads read and not delivered are read
+     * again by the next queue opened on the directory.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            for (Segment segment : segments) {
+                segment.buffer.force();
+            }
+            forceHead();
+        } finally {
+            try {
+                lock.release();
+            } finally {
+                lockChannel.close();
+            }
+        }
+    }
+
+    /**
+     * A payload read from the queue, along with where it ends so that the head can move past it.
+     */
+    static final class Entry {
+        final Payload payload;
+        private final long segmentId;
+        private final int end;
+        private boolean delivered;
+
+        private Entry(Payload payload, long segmentId, int end) {
+            this.payload = payload;
+            this.segmentId = segmentId;
+            this.end = end;
+        }
+    }
+
+    private static final class Segment {
+        private final long id;
+        private final MappedByteBuffer buffer;
+        // Only meaningful for the last segment.
+        private int writePosition;
+
+        private Segment(long id, MappedByteBuffer buffer) {
+            this.id = id;
+            this.buffer = buffer;
+        }
+
+        private static Segment create(Path path, long id, int segmentBytes) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                return new Segment(id, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes));
+            }
+        }
+
+        private static Segment map(Path path, long id) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // Segments keep the size they were created with, should the setting change.
+                long size = channel.size();
+                Segment segment = new Segment(id, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+                // Entries of segments other than the last are found by reading them.
+                segment.writePosition = (int) size;
+                return segment;
+            }
+        }
+    }
+}
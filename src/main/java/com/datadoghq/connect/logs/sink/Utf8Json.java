@@ -0,0 +1,193 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+/**
+ * Low-level JSON writers that encode straight to UTF-8 bytes in a {@link RecordBuffer}.
+ * <p>
+ * Escaping follows Gson's {@code JsonWriter} with HTML escaping disabled, which is what log entries were
+ * historically serialized with: quotes, backslashes, control characters and U+2028/U+2029 are escaped and
+ * everything else is written verbatim.
+ */
+final class Utf8Json {
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final byte[] HEX = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+    private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes();
+
+    // For each ASCII character: 0 if written as is, 'u' for a \\u00XX escape, otherwise the escape letter.
+    private static final byte[] ASCII_ESCAPES = new byte[128];
+
+    static {
+        for (int c = 0; c < 0x20; c++) {
+            ASCII_ESCAPES[c] = 'u';
+        }
+        ASCII_ESCAPES['"'] = '"';
+        ASCII_ESCAPES['\\'] = '\\';
+        ASCII_ESCAPES['\t'] = 't';
+        ASCII_ESCAPES['\b'] = 'b';
+        ASCII_ESCAPES['\n'] = 'n';
+        ASCII_ESCAPES['\r'] = 'r';
+        ASCII_ESCAPES['\f'] = 'f';
+    }
+
+    private Utf8Json() {
+    }
+
+    static void writeNull(RecordBuffer out) {
+        out.write(NULL);
+    }
+
+    static void writeBoolean(RecordBuffer out, boolean value) {
+        out.write(value ? TRUE : FALSE);
+    }
+
+    static void writeLong(RecordBuffer out, long value) {
+        if (value == Long.MIN_VALUE) {
+            out.write(MIN_LONG);
+            return;
+        }
+        out.ensureCapacity(20);
+        if (value < 0) {
+            out.put('-');
+            value = -value;
+        }
+        byte[] digits = out.array();
+        int start = out.size();
+        do {
+            out.put((int) ('0' + value % 10));
+            value /= 10;
+        } while (value != 0);
+        // Digits were written least significant first.
+        for (int i = start, j = out.size() - 1; i < j; i++, j--) {
+            byte tmp = digits[i];
+            digits[i] = digits[j];
+            digits[j] = tmp;
+        }
+    }
+
+    /**
+     * Writes {@code value} as a JSON number, or as the string {@code "NaN"}, {@code "Infinity"} or
+     * {@code "-Infinity"} as {@code JsonConverter} does, since JSON has no number for them.
+     */
+    static void writeFloat(RecordBuffer out, float value) {
+        if (Float.isFinite(value)) {
+            out.writeAscii(Float.toString(value));
+        } else {
+            writeString(out, Float.toString(value));
+        }
+    }
+
+    /**
+     * Writes {@code value} as {@link #writeFloat} does.
+     */
+    static void writeDouble(RecordBuffer out, double value) {
+        if (Double.isFinite(value)) {
+            out.writeAscii(Double.toString(value));
+        } else {
+            writeString(out, Double.toString(value));
+        }
+    }
+
+    /**
+     * Writes {@code s} as a quoted and escaped JSON string.
+     */
+    static void writeString(RecordBuffer out, String s) {
+        out.ensureCapacity(s.length() + 2);
+        out.put('"');
+        writeEscaped(out, s);
+        out.write('"');
+    }
+
+    /**
+     * Writes {@code s} escaped as in a JSON string but without quotes, to extend a string already opened.
+     */
+    static void writeEscaped(RecordBuffer out, String s) {
+        int length = s.length();
+        out.ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                byte escape = ASCII_ESCAPES[c];
+                if (escape == 0) {
+                    out.write(c);
+                } else if (escape == 'u') {
+                    writeUnicodeEscape(out, c);
+                } else {
+                    out.ensureCapacity(2);
+                    out.put('\\');
+                    out.put(escape);
+                }
+            } else if (c < 0x800) {
+                out.ensureCapacity(2);
+                out.put(0xC0 | (c >> 6));
+                out.put(0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                    out.ensureCapacity(4);
+                    out.put(0xF0 | (codePoint >> 18));
+                    out.put(0x80 | ((codePoint >> 12) & 0x3F));
+                    out.put(0x80 | ((codePoint >> 6) & 0x3F));
+                    out.put(0x80 | (codePoint & 0x3F));
+                } else {
+                    // Unpaired surrogates cannot be encoded; use the same replacement as String.getBytes().
+                    out.write('?');
+                }
+            } else if (c == 0x2028 || c == 0x2029) {
+                writeUnicodeEscape(out, c);
+            } else {
+                out.ensureCapacity(3);
+                out.put(0xE0 | (c >> 12));
+                out.put(0x80 | ((c >> 6) & 0x3F));
+                out.put(0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    /**
+     * Writes {@code s} encoded as UTF-8 without quoting or escaping it, for text that is already JSON.
+     */
+    static void writeUtf8(RecordBuffer out, String s) {
+        int length = s.length();
+        out.ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                out.write(c);
+            } else if (c < 0x800) {
+                out.ensureCapacity(2);
+                out.put(0xC0 | (c >> 6));
+                out.put(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                out.ensureCapacity(4);
+                out.put(0xF0 | (codePoint >> 18));
+                out.put(0x80 | ((codePoint >> 12) & 0x3F));
+                out.put(0x80 | ((codePoint >> 6) & 0x3F));
+                out.put(0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                out.write('?');
+            } else {
+                out.ensureCapacity(3);
+                out.put(0xE0 | (c >> 12));
+                out.put(0x80 | ((c >> 6) & 0x3F));
+                out.put(0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private static void writeUnicodeEscape(RecordBuffer out, char c) {
+        out.ensureCapacity(6);
+        out.put('\\');
+        out.put('u');
+        out.put(HEX[(c >> 12) & 0xF]);
+        out.put(HEX[(c >> 8) & 0xF]);
+        out.put(HEX[(c >> 4) & 0xF]);
+        out.put(HEX[c & 0xF]);
+    }
+}
@@ -0,0 +1,60 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdCompressCtx;
+
+/**
+ * Zstandard compressor. The payload is gathered uncompressed in a reused direct buffer and compressed as a
+ * single frame once finished, straight into the direct buffer of the payload, with a compression context that
+ * is kept from one payload to the next.
+ * <p>
+ * The uncompressed buffer is taken from the {@link BufferFreeList} of the payloads, so that its direct memory
+ * is counted with theirs, and given back when the compressor is closed.
+ */
+class ZstdCompressor implements PayloadCompressor {
+    private final ZstdCompressCtx context;
+    private final BufferFreeList freeBuffers;
+    private final PayloadBuffer input;
+    private PayloadBuffer out;
+
+    ZstdCompressor(int level, BufferFreeList freeBuffers) {
+        this.context = new ZstdCompressCtx().setLevel(level);
+        this.freeBuffers = freeBuffers;
+        this.input = freeBuffers.acquire();
+    }
+
+    @Override
+    public void begin(PayloadBuffer out) {
+        this.out = out;
+        input.reset();
+    }
+
+    @Override
+    public void write(int b) {
+        input.write(b);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) {
+        input.write(bytes, offset, length);
+    }
+
+    @Override
+    public void finish() {
+        int bound = (int) Zstd.compressBound(input.size());
+        out.ensureCapacity(bound);
+        out.advance(context.compressDirectByteBuffer(out.buffer(), out.size(), bound, input.buffer(), 0, input.size()));
+        out = null;
+    }
+
+    @Override
+    public void close() {
+        context.close();
+        freeBuffers.release(input);
+    }
+}
@@ -0,0 +1,130 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class AdaptiveLimiterTest {
+    private static final long LATENCY = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int BYTES = 100;
+
+    @Test
+    public void limits_whenDisabled_stayAtMaximum() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(false, 8, 1600);
+
+        limiter.onThrottled(-1, LATENCY, 0);
+        limiter.onFailure(LATENCY, LATENCY * 10);
+
+        Assert.assertEquals(8, limiter.concurrencyLimit());
+        Assert.assertEquals(1600, limiter.batchBytesLimit());
+    }
+
+    @Test
+    public void limits_givenHealthyIntake_growUpToMaximum() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(true, 8, 1600);
+        Assert.assertEquals(1, limiter.concurrencyLimit());
+        Assert.assertEquals(100, limiter.batchBytesLimit());
+
+        long now = 0;
+        for (int i = 0; i < 1000; i++) {
+            now += LATENCY;
+            limiter.onSuccess(BYTES, LATENCY, now);
+        }
+
+        Assert.assertEquals(8, limiter.concurrencyLimit());
+        Assert.assertEquals(1600, limiter.batchBytesLimit());
+    }
+
+    @Test
+    public void limits_givenThrottling_halveOncePerRoundTrip() {
+        AdaptiveLimiter limiter = grownLimiter();
+        long now = LATENCY * 10000;
+
+        limiter.onThrottled(-1, LATENCY, now);
+        limiter.onThrottled(-1, LATENCY, now + 1);
+
+        Assert.assertEquals(4, limiter.concurrencyLimit());
+        Assert.assertEquals(800, limiter.batchBytesLimit());
+
+        limiter.onFailure(LATENCY, now + LATENCY);
+        Assert.assertEquals(2, limiter.concurrencyLimit());
+        Assert.assertEquals(400, limiter.batchBytesLimit());
+    }
+
+    @Test
+    public void limits_givenGrowingLatency_decrease() {
+        AdaptiveLimiter limiter = grownLimiter();
+
+        long slow = (long) (LATENCY * AdaptiveLimiter.LATENCY_TOLERANCE * 2);
+        limiter.onSuccess(BYTES, slow, LATENCY * 10000);
+
+        Assert.assertEquals(4, limiter.concurrencyLimit());
+    }
+
+    @Test
+    public void limits_givenLatencyGrowingWithBatchSize_growUpToMaximum() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(true, 8, 1600);
+        long fixed = TimeUnit.MILLISECONDS.toNanos(20);
+        long perByte = TimeUnit.MICROSECONDS.toNanos(100);
+
+        long now = 0;
+        for (int i = 0; i < 1000; i++) {
+            int bytes = limiter.batchBytesLimit();
+            long latency = fixed + perByte * bytes;
+            now += latency;
+            limiter.onSuccess(bytes, latency, now);
+        }
+
+        Assert.assertEquals(8, limiter.concurrencyLimit());
+        Assert.assertEquals(1600, limiter.batchBytesLimit());
+
+        // A queue building up at the intake still halves the concurrency, but not the batch size.
+        long queued = (fixed + perByte * 1600) * 3;
+        limiter.onSuccess(1600, queued, now + queued);
+        Assert.assertEquals(4, limiter.concurrencyLimit());
+        Assert.assertEquals(1600, limiter.batchBytesLimit());
+    }
+
+    @Test
+    public void limits_neverGoBelowMinimum() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(true, 8, 1600);
+        long now = 0;
+        for (int i = 0; i < 20; i++) {
+            now += LATENCY;
+            limiter.onFailure(LATENCY, now);
+        }
+
+        Assert.assertEquals(1, limiter.concurrencyLimit());
+        Assert.assertEquals(100, limiter.batchBytesLimit());
+    }
+
+    @Test
+    public void retryAfterMs_givenThrottling_untilDelayElapsedOrSuccess() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(false, 1, 1600);
+        long now = TimeUnit.SECONDS.toNanos(1);
+
+        limiter.onThrottled(TimeUnit.SECONDS.toNanos(5), LATENCY, now);
+        Assert.assertEquals(5000, limiter.retryAfterMs(now));
+        Assert.assertEquals(2000, limiter.retryAfterMs(now + TimeUnit.SECONDS.toNanos(3)));
+        Assert.assertEquals(0, limiter.retryAfterMs(now + TimeUnit.SECONDS.toNanos(6)));
+
+        limiter.onSuccess(BYTES, LATENCY, now);
+        Assert.assertEquals(0, limiter.retryAfterMs(now));
+    }
+
+    private static AdaptiveLimiter grownLimiter() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter(true, 8, 1600);
+        long now = 0;
+        for (int i = 0; i < 1000; i++) {
+            now += LATENCY;
+            limiter.onSuccess(BYTES, LATENCY, now);
+        }
+        return limiter;
+    }
+}
@@ -0,0 +1,177 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import org.apache.kafka.connect.data.Date;
+import org.apache.kafka.connect.data.Decimal;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.data.Time;
+import org.apache.kafka.connect.data.Timestamp;
+import org.apache.kafka.connect.errors.DataException;
+import org.apache.kafka.connect.json.JsonConverter;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+public class ConnectJsonSerializerTest {
+    private JsonConverter jsonConverter;
+
+    @Before
+    public void setUp() {
+        jsonConverter = new JsonConverter();
+        Map<String, String> jsonConverterConfig = new HashMap<>();
+        jsonConverterConfig.put("schemas.enable", "false");
+        jsonConverterConfig.put("decimal.format", "NUMERIC");
+        jsonConverter.configure(jsonConverterConfig, false);
+    }
+
+    // The serializer replaced a JsonConverter -> String -> Gson round trip and must produce the same text.
+    private void assertSameAsJsonConverter(Schema schema, Object value) {
+        byte[] converted = jsonConverter.fromConnectData("topic", schema, value);
+        JsonElement element = new JsonParser().parse(new String(converted, StandardCharsets.UTF_8));
+
+        assertEquals(element.toString(), serialize(schema, value));
+    }
+
+    private static String serialize(Schema schema, Object value) {
+        RecordBuffer out = new RecordBuffer(16);
+        ConnectJsonSerializer.writeValue(out, schema, value);
+        return new String(out.array(), 0, out.size(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void schemaless_primitives() {
+        assertSameAsJsonConverter(null, "someValue");
+        assertSameAsJsonConverter(null, 42);
+        assertSameAsJsonConverter(null, -42L);
+        assertSameAsJsonConverter(null, Long.MIN_VALUE);
+        assertSameAsJsonConverter(null, (byte) 7);
+        assertSameAsJsonConverter(null, (short) -7);
+        assertSameAsJsonConverter(null, 1.5f);
+        assertSameAsJsonConverter(null, 1.0E10);
+        assertSameAsJsonConverter(null, 0.1);
+        assertSameAsJsonConverter(null, true);
+        assertSameAsJsonConverter(null, new byte[]{1, 2, 3, (byte) 0xFF});
+    }
+
+    @Test
+    public void nonFiniteNumbers_areWrittenAsStrings() {
+        assertSameAsJsonConverter(null, Float.NaN);
+        assertSameAsJsonConverter(null, Double.POSITIVE_INFINITY);
+        assertSameAsJsonConverter(null, Double.NEGATIVE_INFINITY);
+
+        Schema schema = SchemaBuilder.struct()
+                .field("f", Schema.FLOAT32_SCHEMA)
+                .field("d", Schema.FLOAT64_SCHEMA)
+                .build();
+        assertSameAsJsonConverter(schema, new Struct(schema).put("f", Float.POSITIVE_INFINITY).put("d", Double.NaN));
+        assertEquals("{\"f\":\"Infinity\",\"d\":\"NaN\"}",
+                serialize(schema, new Struct(schema).put("f", Float.POSITIVE_INFINITY).put("d", Double.NaN)));
+    }
+
+    @Test
+    public void strings_areEscapedLikeGson() {
+        assertSameAsJsonConverter(null, "quote \" backslash \\ slash / tab \t newline \n cr \r");
+        assertSameAsJsonConverter(null, "control \u0000 \u0001 \u001f \b \f");
+        assertSameAsJsonConverter(null, "html <a href='x'>&amp;</a> =");
+        assertSameAsJsonConverter(null, "unicode \u00e9 \u4e16\u754c \uD83D\uDE00 \u2028 \u2029");
+    }
+
+    @Test
+    public void schemaless_collections() {
+        Map<String, Object> nested = new LinkedHashMap<>();
+        nested.put("a", 1);
+        nested.put("b", Arrays.asList("x", null, 2.5));
+        nested.put("c", null);
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("nested", nested);
+        map.put("empty", new HashMap<>());
+        assertSameAsJsonConverter(null, map);
+
+        Map<Object, Object> nonStringKeys = new LinkedHashMap<>();
+        nonStringKeys.put(1, "one");
+        nonStringKeys.put(2, "two");
+        assertSameAsJsonConverter(null, nonStringKeys);
+    }
+
+    @Test
+    public void struct_withSchema() {
+        Schema inner = SchemaBuilder.struct().field("flag", Schema.OPTIONAL_BOOLEAN_SCHEMA).build();
+        Schema schema = SchemaBuilder.struct()
+                .field("int8", Schema.INT8_SCHEMA)
+                .field("int16", Schema.INT16_SCHEMA)
+                .field("int32", Schema.INT32_SCHEMA)
+                .field("int64", Schema.INT64_SCHEMA)
+                .field("float32", Schema.FLOAT32_SCHEMA)
+                .field("float64", Schema.FLOAT64_SCHEMA)
+                .field("string", Schema.STRING_SCHEMA)
+                .field("optional", Schema.OPTIONAL_STRING_SCHEMA)
+                .field("defaulted", SchemaBuilder.string().defaultValue("default").build())
+                .field("bytes", Schema.BYTES_SCHEMA)
+                .field("array", SchemaBuilder.array(Schema.INT32_SCHEMA).build())
+                .field("map", SchemaBuilder.map(Schema.STRING_SCHEMA, Schema.INT32_SCHEMA).build())
+                .field("intMap", SchemaBuilder.map(Schema.INT32_SCHEMA, Schema.STRING_SCHEMA).build())
+                .field("inner", inner)
+                .build();
+
+        Map<String, Integer> map = new LinkedHashMap<>();
+        map.put("k1", 1);
+        map.put("k2", 2);
+        Map<Integer, String> intMap = new LinkedHashMap<>();
+        intMap.put(1, "v1");
+
+        Struct struct = new Struct(schema)
+                .put("int8", (byte) 1)
+                .put("int16", (short) 2)
+                .put("int32", 3)
+                .put("int64", 4L)
+                .put("float32", 5.5f)
+                .put("float64", 6.25)
+                .put("string", "seven")
+                .put("bytes", new byte[]{8})
+                .put("array", Arrays.asList(9, 10))
+                .put("map", map)
+                .put("intMap", intMap)
+                .put("inner", new Struct(inner).put("flag", true));
+
+        assertSameAsJsonConverter(schema, struct);
+    }
+
+    @Test
+    public void logicalTypes() {
+        assertSameAsJsonConverter(Decimal.schema(2), new BigDecimal("1.56"));
+        assertSameAsJsonConverter(Decimal.schema(0), new BigDecimal("1E+3"));
+        assertSameAsJsonConverter(Date.SCHEMA, new java.util.Date(86_400_000L * 3));
+        assertSameAsJsonConverter(Time.SCHEMA, new java.util.Date(12_345L));
+        assertSameAsJsonConverter(Timestamp.SCHEMA, new java.util.Date(1713974401224L));
+    }
+
+    @Test
+    public void requiredNullField_throwsDataException() {
+        Schema schema = SchemaBuilder.struct().field("required", Schema.STRING_SCHEMA).build();
+        Struct struct = new Struct(schema);
+
+        assertThrows(DataException.class, () -> serialize(schema, struct));
+    }
+
+    @Test
+    public void unsupportedSchemalessType_throwsDataException() {
+        assertThrows(DataException.class, () -> serialize(null, new Object()));
+    }
+}
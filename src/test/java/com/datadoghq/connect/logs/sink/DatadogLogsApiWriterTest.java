@@ -8,6 +8,9 @@ package com.datadoghq.connect.logs.sink;
 import com.datadoghq.connect.logs.sink.util.RequestInfo;
 import com.datadoghq.connect.logs.sink.util.RestHelper;
 import com.datadoghq.connect.logs.util.Project;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.metrics.Metrics;
 import org.apache.kafka.common.record.TimestampType;
 import org.apache.kafka.connect.data.Decimal;
 import org.apache.kafka.connect.data.Schema;
@@ -15,22 +18,34 @@ import org.apache.kafka.connect.data.SchemaBuilder;
 import org.apache.kafka.connect.data.Struct;
 import org.apache.kafka.connect.header.ConnectHeaders;
 import org.apache.kafka.connect.header.Headers;
+import org.apache.kafka.connect.errors.DataException;
+import org.apache.kafka.connect.sink.ErrantRecordReporter;
 import org.apache.kafka.connect.sink.SinkRecord;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.nio.charset.StandardCharsets;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 public class DatadogLogsApiWriterTest {
     private static String apiKey = "API_KEY";
@@ -38,6 +53,9 @@ public class DatadogLogsApiWriterTest {
     private List<SinkRecord> records;
     private RestHelper restHelper;
 
+    @Rule
+    public TemporaryFolder spillFolder = new TemporaryFolder();
+
     @Before
     public void setUp() throws Exception {
         records = new ArrayList<>();
@@ -161,6 +179,547 @@ public class DatadogLogsApiWriterTest {
         writer.write(records);
     }
 
+    @Test
+    public void writer_withMaxInFlightRequests_sendsAllBatchesByFlush() throws IOException {
+        props.put(DatadogLogsSinkConnectorConfig.MAX_IN_FLIGHT_REQUESTS, "4");
+        DatadogLogsSinkConnectorConfig config = new DatadogLogsSinkConnectorConfig(false, 1, props);
+        DatadogLogsApiWriter writer = new DatadogLogsApiWriter(config);
+
+        for (int i = 0; i < 10; i++) {
+            records.add(new SinkRecord("someTopic", 0, null, "someKey", null, "someValue" + i, i));
+        }
+        writer.write(records);
+        writer.flush();
+
+        Assert.assertEquals(10, restHelper.getCapturedRequests().size());
+        writer.close();
+    }
+
+    @Test
+    public void writer_withMaxInFlightRequests_resendsFailedRequestOnNextWrite() throws IOException {
+        props.put(DatadogLogsSinkConnectorConfig.MAX_IN_FLIGHT_REQUESTS, "2");
+        DatadogLogsSinkConnectorConfig config = new DatadogLogsSinkConnectorConfig(false, 500, props);
+        DatadogLogsApiWriter writer = new DatadogLogsApiWriter(config);
+
+        restHelper.setHttpStatusCode(503);
+        records.add(new SinkRecord("someTopic", 0, null, "someKey", null, "someValue1", 0));
+        writer.write(records);
+        try {
+            writer.flush();
+            Assert.fail("Expected the failed request to be reported by flush");
+        } catch (IOException expected) {
+        }
+
+        restHelper.setHttpStatusCode(200);
+        restHelper.flushCapturedRequests();
+        writer.write(new ArrayList<>());
+        writer.flush();
+
+        Assert.assertEquals(1, restHelper.getCapturedRequests().size());
+        Assert.assertTrue(restHelper.getCapturedRequests().get(0).getBody().contains("someValue1"));
+        writer.close();
+    }
+
+    @Test
+    public void writer_withFormatThreads_sendsBatchesInOrder() throws IOException {
+        props.put(DatadogLogsSinkConnectorConfig.FORMAT_THREADS, "4");
+        DatadogLogsSinkConnectorConfig config = new DatadogLogsSinkConnectorConfig(false, 1, props);
+        DatadogLogsApiWriter writer = new DatadogLogsApiWriter(config);
+
+        for (int i = 0; i < 20; i++) {
+            records.add(new SinkRecord("someTopic", 0, null, "someKey", null, "someValue" + i, i));
+        }
+        writer.write(records);
+
+        Assert.assertEquals(20, restHelper.getCapturedRequests().size());
+        for (int i = 0; i < 20; i++) {
+            Assert.assertEquals("[{\"message\":\"someValue" + i + "\",\"ddsource\":\"kafka-connect\",\"ddtags\":\"topic:someTopic\"}]",
+                    restHelper.getCapturedRequests().get(i).getBody());
+        }
+        writer.close();
+    }
+
+    @Test
+    public void writer_withFormatThreads_afterFailure_sendsBatchesFormattedAheadOnce() throws IOException {
+        props.put(DatadogLogsSinkConnectorConfig.FORMAT_THREADS, "4");
+        DatadogLogsSinkConnectorConfig config = new DatadogLogsSinkConnectorConfig(false, 1, props);
+        List<SinkRecord> errant = new ArrayList<>();
+        DatadogLogsApiWriter writer = new DatadogLogsApiWriter(config,
+                new DatadogLogsSinkMetrics(new Metrics(), Collections.emptyMap()), reportingTo(errant));
+
+        restHelper.setHttpStatusCode(503);
+        records.add(new SinkRecord("someTopic", 0, null, "someKey", null, "someValue0", 0));
+        records.add(new SinkRecord("someTopic", 0, null, "someKey", Schema.INT32_SCHEMA, "notAnInt", 1));
+        for (int i = 2; i < 6; i++) {
+            records.add(new SinkRecord("someTopic", 0, null, "someKey", null, "someValue" + i, i));
+        }
+        try {
+            writer.write(records);
+            Assert.fail("Expected the failed request to be reported by write");
+        } catch (IOException expected) {
+        }
+
+        restHelper.setHttpStatusCode(200);
+        restHelper.flushCapturedRequests();
+        writer.write(records);
+        writer.flush();
+
+        Assert.assertEquals(1, errant.size());
+        Assert.assertEquals(1, errant.get(0).kafkaOffset());
+        List<String> bodies = new ArrayList<>();
+        for (RequestInfo request : restHelper.getCapturedRequests()) {
+            bodies.add(request.getBody());
+        }
+        List<String> expected = new ArrayList<>();
+        for (int i : new int[]{0, 2, 3, 4, 5}) {
+            expected.add("[{\"message\":\"someValue" + i + "\",\"ddsource\":\"kafka-connect\",\"ddtags\":\"topic:someTopic\"}]");
+        }
+        Assert.assertEquals(expected, bodies);
+        Assert.assertEquals(6, writer.committableOffsets().get(new TopicPartition("someTopic", 0)).offset());
+        writer.close();
+    }
+
+    @Test
+    public void writer_withZstdCompression_sendsZstdPayload() throws IOException {
+        props.put(DatadogLogsSinkConnectorConfig.COMPRESSION_TYPE, "zstd");
+        DatadogLogsSinkConnectorConfig config = new DatadogLogsSinkConnectorConfig(false, 500, props);
+        DatadogLogsApiWriter writer = new DatadogLogsApiWriter(config);
+
+        records.add(new SinkRecord("someTopic", 0, null, "someKey", null, "someValue1", 0));
+        writer.write(records);
+
+        Assert.assertEquals(1, restHelper.getCapturedRequests().size());
+        RequestInfo request = restHelper.getCapturedRequests().get(0);
+        Assert.assertTrue(request.getHeaders().contains("Content-Encoding:zstd"));
+        Assert.assertEquals("[{\"message\":\"someValue1\",\"ddsource\":\"kafka-connect\",\"ddtags\":\"topic:someTopic\"}]", request.getBody());
+        writer.close();
+    }
+
+    @Test
+    public void writer_withoutCompression_sendsPlainPayload() throws IOException {
+        props.put(DatadogLogsSinkConnectorConfig.COMPRESSION_TYPE, "none");
+        DatadogLogsSinkConnectorConfig config = new DatadogLogsSinkConnectorConfig(false, 500, props);
+        DatadogLogsApiWriter writer = new DatadogLogsApiWriter(config);
+
+        records.add(new SinkRecord("someTopic", 0, null, "someKey", null, "someValue1", 0));
+        writer.write(records);
+
+        Assert.assertEquals(1, restHelper.getCapturedRequests().size());
+        RequestInfo request = restHelper.getCapturedRequests().get(0);
+        for (String header : request.getHeaders()) {
+            Assert.assertFalse(header.startsWith("Content-Encoding"));
+        }
+        Assert.assertEquals("[{\"message\":\"someValue1\",\"ddsource\":\"kafka-connect\",\"ddtags\":\"topic:someTopic\"}]", request.getBody());
+        writer.close();
+    }
+
+    @Test
+    public void writer_withLinger_accumulatesRecordsAcrossWrites() throws IOException {
+        props.put(DatadogLogsSinkConnectorConfig.BATCH_LINGER_MS, "600000");
+        DatadogLogsSinkConnectorConfig config = new DatadogLogsSinkConnectorConfig(false, 3, props);
+        DatadogLogsApiWriter writer = new DatadogLogsApiWriter(config);
+
+        records.add(new SinkRecord("someTopic", 0, null, "someKey", null, "someValue1", 0));
+        records.add(new SinkRecord("someTopic", 0, null, "someKey", null, "someValue2", 1));
+        writer.write(records);
+        Assert.assertEquals(0, restHelper.getCapturedRequests().size());
+
+        records.clear();
+        records.add(new SinkRecord("someTopic", 0, null, "someKey", null, "someValue3", 2));
+        writer.write(records);
+
+        Assert.assertEquals(1, restHelper.getCapturedRequests().size());
+        Assert.assertEquals("[{\"message\":\"someValue1\",\"ddsource\":\"kafka-connect\",\"ddtags\":\"topic:someTopic\"},"
+                        + "{\"message\":\"someValue2\",\"ddsource\":\"kafka-connect\",\"ddtags\":\"topic:someTopic\"},"
+                        + "{\"message\":\"someValue3\",\"ddsource\":\"kafka-connect\",\"ddtags\":\"topic:someTopic\"}]",
+                restHelper.getCapturedRequests().get(0).getBody());
+        writer.close();
+    }
+
+    @Test
+    public void writer_withLinger_sendsBatchOnceLingerExpired() throws Exception {
+        props.put(DatadogLogsSinkConnectorConfig.BATCH_LINGER_MS, "50");
+        DatadogLogsSinkConnectorConfig config = new DatadogLogsSinkConnectorConfig(false, 500, props);
+        DatadogLogsApiWriter writer = new DatadogLogsApiWriter(config);
+
+        records.add(new SinkRecord("someTopic", 0, null, "someKey", null, "someValue1", 0));
+        writer.write(records);
+        Assert.assertEquals(0, restHelper.getCapturedRequests().size());
+
+        Thread.sleep(100);
+        writer.write(new ArrayList<>());
+
+        Assert.assertEquals(1, restHelper.getCapturedRequests().size());
+        writer.close();
+    }
+
+    @Test
+    public void writer_withBatchMaxBytes_cutsBatchesOnEstimatedSize() throws IOException {
+        props.put(DatadogLogsSinkConnectorConfig.BATCH_LINGER_MS, "600000");
+        props.put(DatadogLogsSinkConnectorConfig.BATCH_MAX_BYTES, "2048");
+        DatadogLogsSinkConnectorConfig config = new DatadogLogsSinkConnectorConfig(false, 500, props);
+        DatadogLogsApiWriter writer = new DatadogLogsApiWriter(config);
+
+        // Until a batch of the topic has been formatted, entries are assumed to be 1KB.
+        records.add(new SinkRecord("someTopic", 0, null, "someKey", null, "someValue1", 0));
+        records.add(new SinkRecord("someTopic", 0, null, "someKey", null, "someValue2", 1));
+        writer.write(records);
+
+        Assert.assertEquals(1, restHelper.getCapturedRequests().size());
+        writer.close();
+    }
+
+    @Test
+    public void writer_withBatchMaxBytes_cutsBeforeExceedingEstimatedSize() throws IOException {
+        props.put(DatadogLogsSinkConnectorConfig.BATCH_LINGER_MS, "600000");
+        props.put(DatadogLogsSinkConnectorConfig.BATCH_MAX_BYTES, "2500");
+        DatadogLogsSinkConnectorConfig config = new DatadogLogsSinkConnectorConfig(false, 500, props);
+        DatadogLogsApiWriter writer = new DatadogLogsApiWriter(config);
+
+        // Entries are assumed to be 1KB: a third record would take the batch over 2500 bytes.
+        for (int i = 0; i < 3; i++) {
+            records.add(new SinkRecord("someTopic", 0, null, "someKey", null, "someValue" + i, i));
+        }
+        writer.write(records);
+
+        Assert.assertEquals(1, restHelper.getCapturedRequests().size());
+        Assert.assertFalse(restHelper.getCapturedRequests().get(0).getBody().contains("someValue2"));
+        writer.close();
+    }
+
+    @Test
+    public void writer_givenMoreRecordsThanIntakeAccepts_splitsPayloadsAtEntryLimit() throws IOException {
+        DatadogLogsSinkConnectorConfig config = new DatadogLogsSinkConnectorConfig(false, 1500, props);
+        DatadogLogsApiWriter writer = new DatadogLogsApiWriter(config);
+
+        for (int i = 0; i < 1500; i++) {
+            records.add(new SinkRecord("someTopic", 0, null, "someKey", null, "someValue" + i, i));
+        }
+        writer.write(records);
+
+        Assert.assertEquals(2, restHelper.getCapturedRequests().size());
+        Assert.assertEquals(DatadogLogsApiWriter.MAXIMUM_BATCH_ENTRIES, new com.google.gson.JsonParser()
+                .parse(restHelper.getCapturedRequests().get(0).getBody()).getAsJsonArray().size());
+        Assert.assertEquals(500, new com.google.gson.JsonParser()
+                .parse(restHelper.getCapturedRequests().get(1).getBody()).getAsJsonArray().size());
+        writer.close();
+    }
+
+    @Test
+    public void writer_committableOffsets_onlyCoverDeliveredRecords() throws IOException {
+        props.put(DatadogLogsSinkConnectorConfig.BATCH_LINGER_MS, "600000");
+        DatadogLogsSinkConnectorConfig config = new DatadogLogsSinkConnectorConfig(false, 2, props);
+        DatadogLogsApiWriter writer = new DatadogLogsApiWriter(config);
+
+        records.add(new SinkRecord("someTopic", 0, null, "someKey", null, "someValue1", 10));
+        records.add(new SinkRecord("someTopic", 0, null, "someKey", null, "someValue2", 11));
+        records.add(new SinkRecord("someTopic", 0, null, "someKey", null, "someValue3", 12));
+        writer.write(records);
+
+        Map<TopicPartition, OffsetAndMetadata> offsets = writer.committableOffsets();
+        Assert.assertEquals(1, offsets.size());
+        Assert.assertEquals(12, offsets.get(new TopicPartition("someTopic", 0)).offset());
+        writer.close();
+    }
+
+    @Test
+    public void writer_afterFailure_skipsRedeliveredRecords() throws IOException {
+        DatadogLogsSinkConnectorConfig config = new DatadogLogsSinkConnectorConfig(false, 500, props);
+        DatadogLogsApiWriter writer = new DatadogLogsApiWriter(config);
+
+        restHelper.setHttpStatusCode(503);
+        records.add(new SinkRecord("someTopic", 0, null, "someKey", null, "someValue1", 0));
+        try {
+            writer.write(records);
+            Assert.fail("Expected the failed request to be reported by write");
+        } catch (IOException expected) {
+        }
+        Assert.assertTrue(writer.committableOffsets().isEmpty());
+
+        restHelper.setHttpStatusCode(200);
+        restHelper.flushCapturedRequests();
+        writer.write(records);
+
+        Assert.assertEquals(1, restHelper.getCapturedRequests().size());
+        Assert.assertEquals("[{\"message\":\"someValue1\",\"ddsource\":\"kafka-connect\",\"ddtags\":\"topic:someTopic\"}]",
+                restHelper.getCapturedRequests().get(0).getBody());
+        Assert.assertEquals(1, writer.committableOffsets().get(new TopicPartition("someTopic", 0)).offset());
+        writer.close();
+    }
+
+    @Test
+    public void writer_afterPartialFailure_resendsOnlyFailedPayload() throws IOException {
+        props.put(DatadogLogsSinkConnectorConfig.MAX_IN_FLIGHT_REQUESTS, "3");
+        DatadogLogsSinkConnectorConfig config = new DatadogLogsSinkConnectorConfig(false, 1, props);
+        DatadogLogsApiWriter writer = new DatadogLogsApiWriter(config);
+
+        restHelper.failRequestsContaining("someValue2", 500);
+        for (int i = 1; i <= 3; i++) {
+            records.add(new SinkRecord("someTopic", 0, null, "someKey", null, "someValue" + i, i));
+        }
+        writer.write(records);
+        try {
+            writer.flush();
+            Assert.fail("Expected the failed request to be reported by flush");
+        } catch (IOException expected) {
+        }
+        Assert.assertEquals(3, restHelper.getCapturedRequests().size());
+        Assert.assertEquals(2, writer.committableOffsets().get(new TopicPartition("someTopic", 0)).offset());
+
+        restHelper.failRequestsContaining(null, 200);
+        restHelper.flushCapturedRequests();
+        writer.write(records);
+        writer.flush();
+
+        Assert.assertEquals(1, restHelper.getCapturedRequests().size());
+        Assert.assertEquals("[{\"message\":\"someValue2\",\"ddsource\":\"kafka-connect\",\"ddtags\":\"topic:someTopic\"}]",
+                restHelper.getCapturedRequests().get(0).getBody());
+        Assert.assertEquals(4, writer.committableOffsets().get(new TopicPartition("someTopic", 0)).offset());
+        writer.close();
+    }
+
+    @Test
+    public void writer_afterFailure_dropsPayloadsOfClosedPartitions() throws IOException {
+        DatadogLogsSinkConnectorConfig config = new DatadogLogsSinkConnectorConfig(false, 500, props);
+        DatadogLogsApiWriter writer = new DatadogLogsApiWriter(config);
+
+        restHelper.setHttpStatusCode(503);
+        records.add(new SinkRecord("someTopic", 0, null, "someKey", null, "someValue1", 0));
+        try {
+            writer.write(records);
+            Assert.fail("Expected the failed request to be reported by write");
+        } catch (IOException expected) {
+        }
+
+        writer.closePartitions(Collections.singletonList(new TopicPartition("someTopic", 0)));
+        restHelper.setHttpStatusCode(200);
+        restHelper.flushCapturedRequests();
+        writer.write(new ArrayList<>());
+
+        Assert.assertEquals(0, restHelper.getCapturedRequests().size());
+        writer.close();
+    }
+
+    @Test
+    public void writer_withDestinations_routesRecordsByTopic() throws IOException {
+        props.put(DatadogLogsSinkConnectorConfig.DESTINATIONS, "other");
+        props.put("datadog.destination.other.url", "localhost:8080");
+        props.put("datadog.destination.other.api_key", "OTHER_API_KEY");
+        props.put("datadog.destination.other.match", "someTopic2");
+        DatadogLogsSinkConnectorConfig config = new DatadogLogsSinkConnectorConfig(false, 500, props);
+        DatadogLogsApiWriter writer = new DatadogLogsApiWriter(config);
+
+        records.add(new SinkRecord("someTopic1", 0, null, "someKey", null, "someValue1", 0));
+        records.add(new SinkRecord("someTopic2", 0, null, "someKey", null, "someValue2", 0));
+        writer.write(records);
+
+        Assert.assertEquals(2, restHelper.getCapturedRequests().size());
+        for (RequestInfo request : restHelper.getCapturedRequests()) {
+            String expectedApiKey = request.getBody().contains("someValue2") ? "OTHER_API_KEY" : apiKey;
+            Assert.assertTrue(request.getHeaders().contains("DD-API-KEY:" + expectedApiKey));
+        }
+        writer.close();
+    }
+
+    @Test
+    public void writer_withDestinationMatchingAll_sendsRecordsToBoth() throws IOException {
+        props.put(DatadogLogsSinkConnectorConfig.DESTINATIONS, "copy");
+        props.put("datadog.destination.copy.url", "localhost:8080");
+        props.put("datadog.destination.copy.api_key", "COPY_API_KEY");
+        props.put("datadog.destination.copy.match", Destination.MATCH_ALL);
+        DatadogLogsSinkConnectorConfig config = new DatadogLogsSinkConnectorConfig(false, 500, props);
+        DatadogLogsApiWriter writer = new DatadogLogsApiWriter(config);
+
+        records.add(new SinkRecord("someTopic", 0, null, "someKey", null, "someValue1", 0));
+        writer.write(records);
+
+        Assert.assertEquals(2, restHelper.getCapturedRequests().size());
+        Set<String> apiKeys = new HashSet<>();
+        for (RequestInfo request : restHelper.getCapturedRequests()) {
+            Assert.assertTrue(request.getBody().contains("someValue1"));
+            apiKeys.add(request.getHeaders().contains("DD-API-KEY:COPY_API_KEY") ? "COPY_API_KEY" : apiKey);
+        }
+        Assert.assertEquals(2, apiKeys.size());
+        Assert.assertEquals(1, writer.committableOffsets().get(new TopicPartition("someTopic", 0)).offset());
+        writer.close();
+    }
+
+    @Test
+    public void writer_withFailingDestination_keepsDeliveringToOthers() throws IOException {
+        props.put(DatadogLogsSinkConnectorConfig.DESTINATIONS, "other");
+        props.put(DatadogLogsSinkConnectorConfig.ROUTE_BY, "field");
+        props.put(DatadogLogsSinkConnectorConfig.ROUTE_KEY, "team");
+        props.put("datadog.destination.other.url", "localhost:8080");
+        props.put("datadog.destination.other.api_key", "OTHER_API_KEY");
+        props.put("datadog.destination.other.match", "b");
+        DatadogLogsSinkConnectorConfig config = new DatadogLogsSinkConnectorConfig(false, 500, props);
+        DatadogLogsApiWriter writer = new DatadogLogsApiWriter(config);
+
+        restHelper.failRequestsContaining("forTeamB", 500);
+        for (int i = 0; i < 3; i++) {
+            Map<String, String> value = new HashMap<>();
+            value.put("team", i == 1 ? "b" : "a");
+            value.put("text", i == 1 ? "forTeamB" : "forTeamA");
+            records.add(new SinkRecord("someTopic", 0, null, "someKey", null, value, i));
+        }
+        try {
+            writer.write(records);
+            Assert.fail("Expected the failed destination to be reported by write");
+        } catch (IOException expected) {
+        }
+
+        Assert.assertEquals(2, restHelper.getCapturedRequests().size());
+        Assert.assertEquals(1, writer.committableOffsets().get(new TopicPartition("someTopic", 0)).offset());
+
+        restHelper.failRequestsContaining(null, 200);
+        restHelper.flushCapturedRequests();
+        writer.write(records);
+
+        Assert.assertEquals(1, restHelper.getCapturedRequests().size());
+        Assert.assertTrue(restHelper.getCapturedRequests().get(0).getHeaders().contains("DD-API-KEY:OTHER_API_KEY"));
+        Assert.assertEquals(3, writer.committableOffsets().get(new TopicPartition("someTopic", 0)).offset());
+        writer.close();
+    }
+
+    @Test
+    public void writer_withExtractedFields_promotesThemToTheEnvelope() throws IOException {
+        props.put(DatadogLogsSinkConnectorConfig.DD_SERVICE, "test-service");
+        props.put(DatadogLogsSinkConnectorConfig.EXTRACT_STATUS, "$.level");
+        props.put(DatadogLogsSinkConnectorConfig.EXTRACT_SERVICE, "$.app.name");
+        props.put(DatadogLogsSinkConnectorConfig.EXTRACT_HOSTNAME, "$.host");
+        props.put(DatadogLogsSinkConnectorConfig.EXTRACT_TRACE_ID, "$.trace_id");
+        props.put(DatadogLogsSinkConnectorConfig.EXTRACT_TIMESTAMP, "$.ts");
+        props.put(DatadogLogsSinkConnectorConfig.EXTRACT_TAGS, "$.tags");
+        DatadogLogsSinkConnectorConfig config = new DatadogLogsSinkConnectorConfig(false, 500, props);
+        DatadogLogsApiWriter writer = new DatadogLogsApiWriter(config);
+
+        Map<String, Object> value = new LinkedHashMap<>();
+        value.put("level", "error");
+        value.put("app", Collections.singletonMap("name", "checkout"));
+        value.put("host", "web-1");
+        value.put("trace_id", 123L);
+        value.put("ts", 1700000000000L);
+        value.put("tags", Arrays.asList("env:prod", "team:\"payments\""));
+        records.add(new SinkRecord("someTopic", 0, null, "someKey", null, value, 0));
+        records.add(new SinkRecord("someTopic", 0, null, "someKey", null, Collections.singletonMap("text", "plain"), 1));
+        writer.write(records);
+
+        Assert.assertEquals(1, restHelper.getCapturedRequests().size());
+        String body = restHelper.getCapturedRequests().get(0).getBody();
+        Assert.assertTrue(body, body.contains(",\"ddsource\":\"kafka-connect\",\"ddtags\":\"topic:someTopic,env:prod,team:\\\"payments\\\"\","
+                + "\"hostname\":\"web-1\",\"service\":\"checkout\",\"status\":\"error\",\"dd.trace_id\":\"123\",\"timestamp\":1700000000000}"));
+        Assert.assertTrue(body, body.endsWith("{\"message\":{\"text\":\"plain\"},\"ddsource\":\"kafka-connect\",\"ddtags\":\"topic:someTopic\","
+                + "\"service\":\"test-service\"}]"));
+        writer.close();
+    }
+
+    @Test
+    public void writer_withFilters_dropsRecordsButCommitsTheirOffsets() throws IOException {
+        props.put(DatadogLogsSinkConnectorConfig.FILTER_TOPICS_EXCLUDE, "noisyTopic");
+        props.put(DatadogLogsSinkConnectorConfig.FILTER_FIELD, "$.level");
+        props.put(DatadogLogsSinkConnectorConfig.FILTER_FIELD_EXCLUDE, "debug");
+        DatadogLogsSinkConnectorConfig config = new DatadogLogsSinkConnectorConfig(false, 500, props);
+        DatadogLogsSinkMetrics metrics = new DatadogLogsSinkMetrics(new Metrics(), Collections.emptyMap());
+        DatadogLogsApiWriter writer = new DatadogLogsApiWriter(config, metrics);
+
+        records.add(new SinkRecord("someTopic", 0, null, "someKey", null, Collections.singletonMap("level", "error"), 0));
+        records.add(new SinkRecord("someTopic", 0, null, "someKey", null, Collections.singletonMap("level", "debug"), 1));
+        records.add(new SinkRecord("noisyTopic", 0, null, "someKey", null, "someValue", 7));
+        writer.write(records);
+
+        Assert.assertEquals(1, restHelper.getCapturedRequests().size());
+        String body = restHelper.getCapturedRequests().get(0).getBody();
+        Assert.assertTrue(body, body.contains("error"));
+        Assert.assertFalse(body, body.contains("debug"));
+        Assert.assertEquals(2, writer.committableOffsets().get(new TopicPartition("someTopic", 0)).offset());
+        Assert.assertEquals(8, writer.committableOffsets().get(new TopicPartition("noisyTopic", 0)).offset());
+        Assert.assertEquals(2.0, metrics.value("record-filter-total"), 0);
+        writer.close();
+    }
+
+    @Test
+    public void writer_withSpillDir_spillsFailedPayloadsAndDrainsThemInOrder() throws Exception {
+        props.put(DatadogLogsSinkConnectorConfig.SPILL_DIR, spillFolder.getRoot().getPath());
+        props.put(DatadogLogsSinkConnectorConfig.RETRY_BACKOFF_MS, "100");
+        DatadogLogsSinkConnectorConfig config = new DatadogLogsSinkConnectorConfig(false, 1, props);
+        DatadogLogsSinkMetrics metrics = new DatadogLogsSinkMetrics(new Metrics(), Collections.emptyMap());
+        DatadogLogsApiWriter writer = new DatadogLogsApiWriter(config, metrics);
+
+        restHelper.setHttpStatusCode(500);
+        records.add(new SinkRecord("someTopic", 0, null, "someKey", null, "someValue1", 0));
+        records.add(new SinkRecord("someTopic", 0, null, "someKey", null, "someValue2", 1));
+        writer.write(records);
+        writer.flush();
+
+        Assert.assertEquals(2, writer.committableOffsets().get(new TopicPartition("someTopic", 0)).offset());
+        Assert.assertEquals(2.0, metrics.value("payload-spill-total"), 0);
+
+        restHelper.setHttpStatusCode(200);
+        restHelper.flushCapturedRequests();
+        Thread.sleep(150);
+        writer.write(Collections.emptyList());
+        writer.flush();
+
+        Assert.assertEquals(2, restHelper.getCapturedRequests().size());
+        Assert.assertTrue(restHelper.getCapturedRequests().get(0).getBody().contains("someValue1"));
+        Assert.assertTrue(restHelper.getCapturedRequests().get(1).getBody().contains("someValue2"));
+        Assert.assertEquals(2.0, metrics.value("payload-drain-total"), 0);
+        writer.close();
+    }
+
+    @Test
+    public void writer_withSpillDir_keepsRejectedPayloadsInMemory() throws Exception {
+        props.put(DatadogLogsSinkConnectorConfig.SPILL_DIR, spillFolder.getRoot().getPath());
+        DatadogLogsSinkConnectorConfig config = new DatadogLogsSinkConnectorConfig(false, 1, props);
+        DatadogLogsSinkMetrics metrics = new DatadogLogsSinkMetrics(new Metrics(), Collections.emptyMap());
+        DatadogLogsApiWriter writer = new DatadogLogsApiWriter(config, metrics);
+
+        restHelper.failRequestsContaining("someValue2", 400);
+        records.add(new SinkRecord("someTopic", 0, null, "someKey", null, "someValue1", 0));
+        records.add(new SinkRecord("someTopic", 0, null, "someKey", null, "someValue2", 1));
+        try {
+            writer.write(records);
+            Assert.fail("Expected the rejected request to be reported by write");
+        } catch (IOException expected) {
+        }
+
+        Assert.assertEquals(0.0, metrics.value("payload-spill-total"), 0);
+        Assert.assertEquals(1, writer.committableOffsets().get(new TopicPartition("someTopic", 0)).offset());
+
+        restHelper.failRequestsContaining(null, 200);
+        restHelper.flushCapturedRequests();
+        writer.write(Collections.emptyList());
+        writer.flush();
+
+        Assert.assertEquals(1, restHelper.getCapturedRequests().size());
+        Assert.assertTrue(restHelper.getCapturedRequests().get(0).getBody().contains("someValue2"));
+        Assert.assertEquals(2, writer.committableOffsets().get(new TopicPartition("someTopic", 0)).offset());
+        writer.close();
+    }
+
+    @Test
+    public void writer_withSpillDir_recoversSpilledPayloadsAfterRestart() throws Exception {
+        props.put(DatadogLogsSinkConnectorConfig.SPILL_DIR, spillFolder.getRoot().getPath());
+        DatadogLogsSinkConnectorConfig config = new DatadogLogsSinkConnectorConfig(false, 500, props);
+        DatadogLogsApiWriter writer = new DatadogLogsApiWriter(config);
+
+        restHelper.setHttpStatusCode(500);
+        records.add(new SinkRecord("someTopic", 0, null, "someKey", null, "someValue1", 0));
+        writer.write(records);
+        writer.flush();
+        writer.close();
+
+        restHelper.setHttpStatusCode(200);
+        restHelper.flushCapturedRequests();
+        writer = new DatadogLogsApiWriter(config);
+        writer.write(Collections.emptyList());
+        writer.flush();
+
+        Assert.assertEquals(1, restHelper.getCapturedRequests().size());
+        Assert.assertTrue(restHelper.getCapturedRequests().get(0).getBody().contains("someValue1"));
+        writer.close();
+    }
+
     @Test
     public void metadata_asOneBatch_shouldPopulatePerBatch() throws IOException {
         props.put(DatadogLogsSinkConnectorConfig.DD_TAGS, "team:agent-core, author:berzan");
@@ -245,6 +804,39 @@ public class DatadogLogsApiWriterTest {
         props.remove(DatadogLogsSinkConnectorConfig.PARSE_RECORD_HEADERS);
     }
 
+    @Test
+    public void writer_jsonPassthrough_copiesJsonValues() throws IOException {
+        props.put(DatadogLogsSinkConnectorConfig.JSON_PASSTHROUGH, "true");
+        DatadogLogsSinkConnectorConfig config = new DatadogLogsSinkConnectorConfig(false, 500, props);
+        DatadogLogsApiWriter writer = new DatadogLogsApiWriter(config);
+
+        records.add(new SinkRecord("someTopic", 0, null, "key", Schema.STRING_SCHEMA, "{\"level\":\"info\", \"count\": 2}", 0));
+        records.add(new SinkRecord("someTopic", 0, null, "key", Schema.BYTES_SCHEMA,
+                "[1,true,null]".getBytes(StandardCharsets.UTF_8), 1));
+        writer.write(records);
+
+        Assert.assertEquals(1, restHelper.getCapturedRequests().size());
+        Assert.assertEquals("[{\"message\":{\"level\":\"info\", \"count\": 2},\"ddsource\":\"kafka-connect\",\"ddtags\":\"topic:someTopic\"},"
+                        + "{\"message\":[1,true,null],\"ddsource\":\"kafka-connect\",\"ddtags\":\"topic:someTopic\"}]",
+                restHelper.getCapturedRequests().get(0).getBody());
+    }
+
+    @Test
+    public void writer_jsonPassthrough_convertsInvalidJson() throws IOException {
+        props.put(DatadogLogsSinkConnectorConfig.JSON_PASSTHROUGH, "true");
+        DatadogLogsSinkConnectorConfig config = new DatadogLogsSinkConnectorConfig(false, 500, props);
+        DatadogLogsApiWriter writer = new DatadogLogsApiWriter(config);
+
+        records.add(new SinkRecord("someTopic", 0, null, "key", null, "plain text", 0));
+        records.add(new SinkRecord("someTopic", 0, null, "key", null, "{\"truncated\":", 1));
+        writer.write(records);
+
+        Assert.assertEquals(1, restHelper.getCapturedRequests().size());
+        Assert.assertEquals("[{\"message\":\"plain text\",\"ddsource\":\"kafka-connect\",\"ddtags\":\"topic:someTopic\"},"
+                        + "{\"message\":\"{\\\"truncated\\\":\",\"ddsource\":\"kafka-connect\",\"ddtags\":\"topic:someTopic\"}]",
+                restHelper.getCapturedRequests().get(0).getBody());
+    }
+
     // --- byte-size batch splitting tests ---
 
     private String generatePayload(int targetBytes) {
@@ -320,6 +912,99 @@ public class DatadogLogsApiWriterTest {
                 restHelper.getCapturedRequests().get(0).getBody().contains("normalMessage"));
     }
 
+    @Test
+    public void writer_oversizedSingleMessage_isReportedAsErrant() throws IOException {
+        DatadogLogsSinkConnectorConfig config = new DatadogLogsSinkConnectorConfig(false, 500, props);
+        List<SinkRecord> errant = new ArrayList<>();
+        DatadogLogsApiWriter writer = new DatadogLogsApiWriter(config,
+                new DatadogLogsSinkMetrics(new Metrics(), Collections.emptyMap()), reportingTo(errant));
+
+        records.add(new SinkRecord("someTopic", 0, null, "key", null, "normalMessage", 0));
+        records.add(new SinkRecord("someTopic", 0, null, "key", null, generatePayload(DatadogLogsApiWriter.MAXIMUM_BATCH_BYTES + 1000), 1));
+        writer.write(records);
+
+        Assert.assertEquals(1, restHelper.getCapturedRequests().size());
+        Assert.assertEquals(1, errant.size());
+        Assert.assertEquals(1, errant.get(0).kafkaOffset());
+        Assert.assertEquals(2, writer.committableOffsets().get(new TopicPartition("someTopic", 0)).offset());
+    }
+
+    @Test
+    public void writer_withTruncateOversizeAction_sendsTruncatedMessage() throws IOException {
+        props.put(DatadogLogsSinkConnectorConfig.OVERSIZE_ACTION, "truncate");
+        DatadogLogsSinkConnectorConfig config = new DatadogLogsSinkConnectorConfig(false, 500, props);
+        DatadogLogsApiWriter writer = new DatadogLogsApiWriter(config);
+
+        String oversized = generatePayload(DatadogLogsApiWriter.MAXIMUM_BATCH_BYTES + 1000);
+        records.add(new SinkRecord("someTopic", 0, null, "key", null, oversized, 0));
+        records.add(new SinkRecord("someTopic", 0, null, "key", null, "normalMessage", 1));
+        writer.write(records);
+
+        Assert.assertEquals(1, restHelper.getCapturedRequests().size());
+        String body = restHelper.getCapturedRequests().get(0).getBody();
+        Assert.assertTrue(body.length() < DatadogLogsApiWriter.MAXIMUM_BATCH_BYTES);
+        com.google.gson.JsonArray entries = new com.google.gson.JsonParser().parse(body).getAsJsonArray();
+        Assert.assertEquals(2, entries.size());
+        Assert.assertEquals("normalMessage", entries.get(1).getAsJsonObject().get("message").getAsString());
+        String message = entries.get(0).getAsJsonObject().get("message").getAsString();
+        Assert.assertTrue(message.length() > DatadogLogsApiWriter.MAXIMUM_BATCH_BYTES * 0.9);
+        Assert.assertTrue(oversized.startsWith(message));
+    }
+
+    @Test
+    public void writer_withSplitOversizeAction_sendsWholeMessageInSeveralEntries() throws IOException {
+        props.put(DatadogLogsSinkConnectorConfig.OVERSIZE_ACTION, "split");
+        DatadogLogsSinkConnectorConfig config = new DatadogLogsSinkConnectorConfig(false, 500, props);
+        DatadogLogsApiWriter writer = new DatadogLogsApiWriter(config);
+
+        String oversized = generatePayload(DatadogLogsApiWriter.MAXIMUM_BATCH_BYTES * 2 + 1000);
+        records.add(new SinkRecord("someTopic", 0, null, "key", null, oversized, 0));
+        writer.write(records);
+
+        StringBuilder reassembled = new StringBuilder();
+        for (RequestInfo request : restHelper.getCapturedRequests()) {
+            Assert.assertTrue(request.getBody().length() < DatadogLogsApiWriter.MAXIMUM_BATCH_BYTES);
+            for (com.google.gson.JsonElement entry : new com.google.gson.JsonParser().parse(request.getBody()).getAsJsonArray()) {
+                reassembled.append(entry.getAsJsonObject().get("message").getAsString());
+            }
+        }
+        Assert.assertEquals(3, restHelper.getCapturedRequests().size());
+        Assert.assertEquals(oversized, reassembled.toString());
+    }
+
+    @Test
+    public void writer_givenConversionError_reportsRecordAndSendsOthers() throws IOException {
+        DatadogLogsSinkConnectorConfig config = new DatadogLogsSinkConnectorConfig(false, 500, props);
+        List<SinkRecord> errant = new ArrayList<>();
+        DatadogLogsApiWriter writer = new DatadogLogsApiWriter(config,
+                new DatadogLogsSinkMetrics(new Metrics(), Collections.emptyMap()), reportingTo(errant));
+
+        records.add(new SinkRecord("someTopic", 0, null, "key", Schema.INT32_SCHEMA, "notAnInt", 0));
+        records.add(new SinkRecord("someTopic", 0, null, "key", null, "normalMessage", 1));
+        writer.write(records);
+
+        Assert.assertEquals(1, errant.size());
+        Assert.assertEquals(0, errant.get(0).kafkaOffset());
+        Assert.assertEquals(1, restHelper.getCapturedRequests().size());
+        Assert.assertTrue(restHelper.getCapturedRequests().get(0).getBody().contains("normalMessage"));
+    }
+
+    @Test(expected = DataException.class)
+    public void writer_givenConversionErrorWithoutReporter_throws() throws IOException {
+        DatadogLogsSinkConnectorConfig config = new DatadogLogsSinkConnectorConfig(false, 500, props);
+        DatadogLogsApiWriter writer = new DatadogLogsApiWriter(config);
+
+        records.add(new SinkRecord("someTopic", 0, null, "key", Schema.INT32_SCHEMA, "notAnInt", 0));
+        writer.write(records);
+    }
+
+    private static ErrantRecordReporter reportingTo(List<SinkRecord> errant) {
+        return (record, error) -> {
+            errant.add(record);
+            return CompletableFuture.completedFuture(null);
+        };
+    }
+
     @Test
     public void writer_nullValueRecords_dontCorruptBatch() throws IOException {
         DatadogLogsSinkConnectorConfig config = new DatadogLogsSinkConnectorConfig(false, 500, props);
@@ -356,7 +1041,7 @@ public class DatadogLogsApiWriterTest {
 
         Assert.assertEquals("Payload char length", charCount, cjkPayload.length());
         Assert.assertEquals("Payload byte length is 3x char length",
-                charCount * 3, DatadogLogsApiWriter.utf8ByteLength(cjkPayload));
+                charCount * 3, cjkPayload.getBytes(StandardCharsets.UTF_8).length);
 
         records.add(new SinkRecord("someTopic", 0, null, "key", null, cjkPayload, 0));
         records.add(new SinkRecord("someTopic", 0, null, "key", null, cjkPayload, 1));
@@ -366,24 +1051,97 @@ public class DatadogLogsApiWriterTest {
                 2, restHelper.getCapturedRequests().size());
     }
 
-    // --- utf8ByteLength tests ---
+    @Test
+    public void writer_specialCharacters_areWrittenVerbatim() throws IOException {
+        DatadogLogsSinkConnectorConfig config = new DatadogLogsSinkConnectorConfig(false, 500, props);
+        DatadogLogsApiWriter writer = new DatadogLogsApiWriter(config);
+
+        records.add(new SinkRecord("someTopic", 0, null, "key", null, "<a href='x'>text</a> \"quoted\"", 0));
+        writer.write(records);
+
+        Assert.assertEquals(1, restHelper.getCapturedRequests().size());
+        Assert.assertEquals("[{\"message\":\"<a href='x'>text</a> \\\"quoted\\\"\",\"ddsource\":\"kafka-connect\",\"ddtags\":\"topic:someTopic\"}]",
+                restHelper.getCapturedRequests().get(0).getBody());
+    }
+
+    @Test
+    public void writer_recordsMetrics_ofDeliveredRequests() throws IOException {
+        DatadogLogsSinkConnectorConfig config = new DatadogLogsSinkConnectorConfig(false, 2, props);
+        DatadogLogsSinkMetrics metrics = new DatadogLogsSinkMetrics(new Metrics(), Collections.emptyMap());
+        DatadogLogsApiWriter writer = new DatadogLogsApiWriter(config, metrics);
+
+        for (int i = 0; i < 3; i++) {
+            records.add(new SinkRecord("someTopic", 0, null, "someKey", null, "someValue" + i, i));
+        }
+        writer.write(records);
+
+        Assert.assertEquals(3.0, metrics.value("record-receive-total"), 0);
+        Assert.assertEquals(3.0, metrics.value("record-send-total"), 0);
+        Assert.assertEquals(2.0, metrics.value("request-total"), 0);
+        Assert.assertEquals(2.0, metrics.value("records-per-request-max"), 0);
+        Assert.assertEquals(0.0, metrics.value("in-flight-requests"), 0);
+        Assert.assertEquals(0.0, metrics.value("request-error-total"), 0);
+        double busyMs = metrics.value("request-busy-time-total");
+        Assert.assertTrue(busyMs > 0);
+        Assert.assertEquals(busyMs, metrics.value("request-busy-time-total"), 0);
+        Assert.assertTrue(metrics.value("bytes-compressed-total") > 0);
+        Assert.assertEquals(metrics.value("bytes-uncompressed-total") / metrics.value("bytes-compressed-total"),
+                metrics.value("compression-ratio"), 1e-9);
+    }
+
+    @Test
+    public void writer_withEgressBudget_waitsForItBeforeSending() throws IOException {
+        props.put(DatadogLogsSinkConnectorConfig.EGRESS_REQUESTS_PER_SECOND, "2");
+        DatadogLogsSinkConnectorConfig config = new DatadogLogsSinkConnectorConfig(false, 1, props);
+        DatadogLogsSinkMetrics metrics = new DatadogLogsSinkMetrics(new Metrics(), Collections.emptyMap());
+        DatadogLogsApiWriter writer = new DatadogLogsApiWriter(config, metrics);
+
+        for (int i = 0; i < 4; i++) {
+            records.add(new SinkRecord("someTopic", 0, null, "someKey", null, "someValue" + i, i));
+        }
+        writer.write(records);
+        writer.close();
+
+        // A second worth of requests is sent at once, the fourth waits for its half second.
+        Assert.assertEquals(4, restHelper.getCapturedRequests().size());
+        Assert.assertTrue(metrics.value("egress-wait-time-max") >= 400);
+        Assert.assertTrue(metrics.value("egress-wait-time-total") < 1000);
+    }
+
+    @Test
+    public void writer_recordsMetrics_ofFailedRequests() {
+        DatadogLogsSinkConnectorConfig config = new DatadogLogsSinkConnectorConfig(false, 500, props);
+        DatadogLogsSinkMetrics metrics = new DatadogLogsSinkMetrics(new Metrics(), Collections.emptyMap());
+        DatadogLogsApiWriter writer = new DatadogLogsApiWriter(config, metrics);
+        restHelper.setHttpStatusCode(503);
+
+        records.add(new SinkRecord("someTopic", 0, null, "someKey", null, "someValue1", 0));
+        try {
+            writer.write(records);
+            Assert.fail("Expected the request to fail");
+        } catch (IOException expected) {
+            // the request is retained and resent by the next write
+        }
+
+        Assert.assertEquals(1.0, metrics.value("request-error-total"), 0);
+        Assert.assertEquals(0.0, metrics.value("record-send-total"), 0);
+    }
 
     @Test
-    public void utf8ByteLength_ascii_matchesGetBytes() {
-        String ascii = "Hello, world! 1234567890";
-        Assert.assertEquals(ascii.getBytes(StandardCharsets.UTF_8).length,
-                DatadogLogsApiWriter.utf8ByteLength(ascii));
+    public void parseRetryAfter_givenSeconds_returnsDelay() {
+        Assert.assertEquals(TimeUnit.SECONDS.toNanos(30), DatadogLogsApiWriter.parseRetryAfter(" 30 "));
     }
 
     @Test
-    public void utf8ByteLength_multibyte_matchesGetBytes() {
-        String mixed = "Hello \u00e9\u00fc\u00f1 \u4e16\u754c \uD83D\uDE00";
-        Assert.assertEquals(mixed.getBytes(StandardCharsets.UTF_8).length,
-                DatadogLogsApiWriter.utf8ByteLength(mixed));
+    public void parseRetryAfter_givenHttpDate_returnsDelayUntilDate() {
+        String date = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusMinutes(2));
+        long delay = DatadogLogsApiWriter.parseRetryAfter(date);
+        Assert.assertTrue(delay > TimeUnit.SECONDS.toNanos(100) && delay <= TimeUnit.SECONDS.toNanos(120));
     }
 
     @Test
-    public void utf8ByteLength_empty_returnsZero() {
-        Assert.assertEquals(0, DatadogLogsApiWriter.utf8ByteLength(""));
+    public void parseRetryAfter_givenInvalidValue_returnsNegative() {
+        Assert.assertEquals(-1, DatadogLogsApiWriter.parseRetryAfter("soon"));
+        Assert.assertEquals(-1, DatadogLogsApiWriter.parseRetryAfter(null));
     }
 }
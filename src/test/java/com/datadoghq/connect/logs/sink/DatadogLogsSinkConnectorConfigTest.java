@@ -64,4 +64,78 @@ public class DatadogLogsSinkConnectorConfigTest {
 
         assertEquals("https://http-intake.logs.SITE:443/api/v2/logs", customConfig.getURL().toString());
     }
+
+    @Test
+    public void getDestinations_givenDestinations_shouldResolveTheirURLs() {
+        props = new HashMap<>();
+        props.put(DatadogLogsSinkConnectorConfig.DD_API_KEY, "123");
+        props.put(DatadogLogsSinkConnectorConfig.DESTINATIONS, "eu");
+        props.put("datadog.destination.eu.site", "datadoghq.eu");
+        props.put("datadog.destination.eu.api_key", "456");
+        props.put("datadog.destination.eu.match", "topic1,topic2");
+        DatadogLogsSinkConnectorConfig config = new DatadogLogsSinkConnectorConfig(props);
+
+        assertEquals(2, config.destinations.size());
+        assertEquals("https://http-intake.logs.datadoghq.com:443/api/v2/logs", config.destinations.get(0).url);
+        assertEquals("https://http-intake.logs.datadoghq.eu:443/api/v2/logs", config.destinations.get(1).url);
+        assertEquals("456", config.destinations.get(1).apiKey);
+        assertEquals(2, config.destinations.get(1).matches.size());
+    }
+
+    @Test
+    public void constructor_givenDestinationWithoutAPIKey_shouldThrowException() {
+        props = new HashMap<>();
+        props.put(DatadogLogsSinkConnectorConfig.DD_API_KEY, "123");
+        props.put(DatadogLogsSinkConnectorConfig.DESTINATIONS, "eu");
+        props.put("datadog.destination.eu.match", "topic1");
+        assertThrows(ConfigException.class, () -> {
+            new DatadogLogsSinkConnectorConfig(props);
+        });
+    }
+
+    @Test
+    public void constructor_givenRouteByFieldWithoutKey_shouldThrowException() {
+        props = new HashMap<>();
+        props.put(DatadogLogsSinkConnectorConfig.DD_API_KEY, "123");
+        props.put(DatadogLogsSinkConnectorConfig.ROUTE_BY, "field");
+        assertThrows(ConfigException.class, () -> {
+            new DatadogLogsSinkConnectorConfig(props);
+        });
+    }
+
+    @Test
+    public void constructor_givenExcludedValuesWithoutFilterField_shouldThrowException() {
+        props = new HashMap<>();
+        props.put(DatadogLogsSinkConnectorConfig.DD_API_KEY, "123");
+        props.put(DatadogLogsSinkConnectorConfig.FILTER_FIELD_EXCLUDE, "debug");
+        assertThrows(ConfigException.class, () -> {
+            new DatadogLogsSinkConnectorConfig(props);
+        });
+    }
+
+    @Test
+    public void constructor_givenCompressionLevelOutOfRange_shouldThrowException() {
+        props = new HashMap<>();
+        props.put(DatadogLogsSinkConnectorConfig.DD_API_KEY, "123");
+        props.put(DatadogLogsSinkConnectorConfig.COMPRESSION_TYPE, "gzip");
+        props.put(DatadogLogsSinkConnectorConfig.COMPRESSION_LEVEL, "12");
+        assertThrows(ConfigException.class, () -> {
+            new DatadogLogsSinkConnectorConfig(props);
+        });
+
+        props.put(DatadogLogsSinkConnectorConfig.COMPRESSION_TYPE, "zstd");
+        DatadogLogsSinkConnectorConfig config = new DatadogLogsSinkConnectorConfig(props);
+        assertEquals(CompressionType.ZSTD, config.compressionType);
+        assertEquals(Integer.valueOf(12), config.compressionLevel);
+    }
+
+    @Test
+    public void constructor_givenEgressWeightNotPositive_shouldThrowException() {
+        props = new HashMap<>();
+        props.put(DatadogLogsSinkConnectorConfig.DD_API_KEY, "123");
+        props.put(DatadogLogsSinkConnectorConfig.EGRESS_WEIGHT, "0");
+        assertThrows(ConfigException.class, () -> {
+            new DatadogLogsSinkConnectorConfig(props);
+        });
+    }
 }
@@ -18,6 +18,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
+import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.expectLastCall;
 import static org.junit.Assert.*;
 
@@ -44,6 +45,7 @@ public class DatadogLogsSinkTaskTest extends EasyMockSupport {
         mockWriter.write(records);
         expectLastCall().andThrow(new IOException()).times(1 + maxRetries);
 
+        expect(mockWriter.retryAfterMs()).andReturn(0L).times(maxRetries);
         ctx.timeout(retryBackoffMs);
         expectLastCall().times(maxRetries);
 
@@ -89,4 +91,81 @@ public class DatadogLogsSinkTaskTest extends EasyMockSupport {
 
         verifyAll();
     }
+
+    @Test
+    public void putTask_whenThrottled_shouldWaitForRetryAfter() throws IOException {
+        Set<SinkRecord> records = Collections.singleton(new SinkRecord("stub", 0, null, null, null, "someVal", 0));
+
+        final DatadogLogsApiWriter mockWriter = createMock(DatadogLogsApiWriter.class);
+        SinkTaskContext ctx = createMock(SinkTaskContext.class);
+
+        mockWriter.write(records);
+        expectLastCall().andThrow(new IOException());
+        expect(mockWriter.retryAfterMs()).andReturn(30_000L);
+        ctx.timeout(30_000L);
+
+        DatadogLogsSinkTask task = new DatadogLogsSinkTask() {
+            @Override
+            protected void initWriter() {
+                this.writer = mockWriter;
+            }
+
+            @Override
+            protected long computeRetryWaitMs(int retryAttempts, long retryBackoffMs) {
+                return retryBackoffMs;
+            }
+        };
+        task.initialize(ctx);
+
+        Map<String, String> props = new HashMap<>();
+        props.put(DatadogLogsSinkConnectorConfig.DD_API_KEY, "123");
+        props.put(DatadogLogsSinkConnectorConfig.RETRY_BACKOFF_MS, "1000");
+        task.start(props);
+
+        replayAll();
+
+        try {
+            task.put(records);
+            fail("Retriable exception expected.");
+        } catch (RetriableException expected) {}
+
+        verifyAll();
+    }
+
+    @Test
+    public void putTask_whenErrantToleranceExceeded_shouldNotRetry() throws IOException {
+        Set<SinkRecord> records = Collections.singleton(new SinkRecord("stub", 0, null, null, null, "someVal", 0));
+
+        final DatadogLogsApiWriter mockWriter = createMock(DatadogLogsApiWriter.class);
+        SinkTaskContext ctx = createMock(SinkTaskContext.class);
+
+        ConnectException toleranceExceeded = new ConnectException("Tolerance exceeded in error handler");
+        mockWriter.write(records);
+        expectLastCall().andThrow(toleranceExceeded);
+
+        DatadogLogsSinkTask task = new DatadogLogsSinkTask() {
+            @Override
+            protected void initWriter() {
+                this.writer = mockWriter;
+            }
+        };
+        task.initialize(ctx);
+
+        Map<String, String> props = new HashMap<>();
+        props.put(DatadogLogsSinkConnectorConfig.DD_API_KEY, "123");
+        task.start(props);
+
+        replayAll();
+
+        try {
+            task.put(records);
+            fail();
+        } catch (RetriableException e) {
+            fail("Non-retriable exception expected.");
+        } catch (ConnectException expected) {
+            assertSame(toleranceExceeded, expected);
+        }
+
+        verifyAll();
+    }
 }
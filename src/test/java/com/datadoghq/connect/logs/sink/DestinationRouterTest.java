@@ -0,0 +1,74 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.header.ConnectHeaders;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class DestinationRouterTest {
+    private Map<String, String> props;
+
+    @Before
+    public void setUp() {
+        props = new HashMap<>();
+        props.put(DatadogLogsSinkConnectorConfig.DD_API_KEY, "API_KEY");
+        props.put(DatadogLogsSinkConnectorConfig.DESTINATIONS, "eu,archive");
+        props.put("datadog.destination.eu.site", "datadoghq.eu");
+        props.put("datadog.destination.eu.api_key", "EU_API_KEY");
+        props.put("datadog.destination.eu.match", "eu");
+        props.put("datadog.destination.archive.site", "datadoghq.com");
+        props.put("datadog.destination.archive.api_key", "ARCHIVE_API_KEY");
+        props.put("datadog.destination.archive.match", "archive");
+    }
+
+    @Test
+    public void route_byHeader_sendsMatchingRecordsToTheirDestination() {
+        props.put(DatadogLogsSinkConnectorConfig.ROUTE_BY, "header");
+        props.put(DatadogLogsSinkConnectorConfig.ROUTE_KEY, "region");
+        DestinationRouter router = new DestinationRouter(new DatadogLogsSinkConnectorConfig(props));
+
+        ConnectHeaders headers = new ConnectHeaders();
+        headers.addString("region", "eu");
+        Assert.assertArrayEquals(new int[]{1}, router.route(record("someValue", headers)));
+        Assert.assertArrayEquals(new int[]{0}, router.route(record("someValue", new ConnectHeaders())));
+    }
+
+    @Test
+    public void route_byNestedField_readsStructValues() {
+        props.put(DatadogLogsSinkConnectorConfig.ROUTE_BY, "field");
+        props.put(DatadogLogsSinkConnectorConfig.ROUTE_KEY, "meta.region");
+        DestinationRouter router = new DestinationRouter(new DatadogLogsSinkConnectorConfig(props));
+
+        Schema metaSchema = SchemaBuilder.struct().field("region", Schema.STRING_SCHEMA).build();
+        Schema schema = SchemaBuilder.struct().field("meta", metaSchema).build();
+        Struct value = new Struct(schema).put("meta", new Struct(metaSchema).put("region", "archive"));
+
+        Assert.assertArrayEquals(new int[]{2}, router.route(record(value, new ConnectHeaders())));
+        Assert.assertArrayEquals(new int[]{0}, router.route(record("notAStruct", new ConnectHeaders())));
+    }
+
+    @Test
+    public void route_givenDestinationMatchingAll_addsItToEveryRoute() {
+        props.put("datadog.destination.archive.match", Destination.MATCH_ALL);
+        DestinationRouter router = new DestinationRouter(new DatadogLogsSinkConnectorConfig(props));
+
+        Assert.assertArrayEquals(new int[]{1, 2}, router.route(new SinkRecord("eu", 0, null, null, null, "someValue", 0)));
+        Assert.assertArrayEquals(new int[]{0, 2}, router.route(new SinkRecord("us", 0, null, null, null, "someValue", 0)));
+    }
+
+    private static SinkRecord record(Object value, ConnectHeaders headers) {
+        return new SinkRecord("someTopic", 0, null, null, null, value, 0, null, null, headers);
+    }
+}
@@ -0,0 +1,168 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class EgressBudgetTest {
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private Map<String, String> props;
+
+    @Before
+    public void setUp() {
+        props = new HashMap<>();
+        props.put(DatadogLogsSinkConnectorConfig.DD_API_KEY, "API_KEY");
+    }
+
+    @Test
+    public void acquire_givenNoLimits_returnsNull() {
+        Assert.assertNull(EgressBudget.acquire(config()));
+    }
+
+    @Test
+    public void reserve_pacesRequestsAtTheBudget_afterABurstOfOneSecond() {
+        props.put(DatadogLogsSinkConnectorConfig.EGRESS_BYTES_PER_SECOND, "1000");
+        props.put(DatadogLogsSinkConnectorConfig.EGRESS_REQUESTS_PER_SECOND, "1000");
+        try (EgressBudget.Lease lease = EgressBudget.acquire(config())) {
+            long now = System.nanoTime();
+            Assert.assertEquals(0, lease.reserve(500, now));
+            Assert.assertEquals(0, lease.reserve(500, now));
+            Assert.assertEquals(0, lease.reserve(500, now));
+            Assert.assertEquals(500 * MILLIS, lease.reserve(500, now));
+            Assert.assertEquals(0, lease.reserve(500, now + 2000 * MILLIS));
+        }
+    }
+
+    @Test
+    public void reserve_sharesTheBudgetAmongTasksSendingInProportionToTheirWeights() {
+        props.put(DatadogLogsSinkConnectorConfig.EGRESS_REQUESTS_PER_SECOND, "10");
+        props.put("name", "light");
+        EgressBudget.Lease light = EgressBudget.acquire(config());
+        props.put("name", "heavy");
+        props.put(DatadogLogsSinkConnectorConfig.EGRESS_WEIGHT, "3");
+        EgressBudget.Lease heavy = EgressBudget.acquire(config());
+        try {
+            long now = System.nanoTime() + EgressBudget.SHARE_REFRESH_NANOS;
+            // Both send their burst at the whole budget, not counted yet, and are paced at their share once it is
+            // refreshed: a request every 400ms and 133ms respectively.
+            for (int i = 0; i < 10; i++) {
+                light.reserve(0, now);
+                heavy.reserve(0, now);
+            }
+            now += EgressBudget.SHARE_REFRESH_NANOS;
+            Assert.assertEquals(0, light.reserve(0, now));
+            Assert.assertEquals(0, heavy.reserve(0, now));
+            Assert.assertEquals(300 * MILLIS, light.reserve(0, now));
+            Assert.assertEquals(33 * MILLIS, heavy.reserve(0, now), MILLIS);
+
+            // Once the light task has stopped sending, the heavy one gets the whole budget.
+            now += EgressBudget.ACTIVE_NANOS + EgressBudget.BURST_NANOS;
+            heavy.reserve(0, now);
+            long paced = heavy.reserve(0, now);
+            for (int i = 0; i < 10; i++) {
+                paced = heavy.reserve(0, now);
+            }
+            Assert.assertEquals(100 * MILLIS, paced, MILLIS);
+        } finally {
+            light.close();
+            heavy.close();
+        }
+    }
+
+    @Test
+    public void reserve_sharesTheBudgetAmongConnectorsByWeight_whateverTheirNumberOfTasks() {
+        props.put(DatadogLogsSinkConnectorConfig.EGRESS_REQUESTS_PER_SECOND, "12");
+        props.put("name", "many-tasks");
+        props.put(DatadogLogsSinkConnectorConfig.EGRESS_WEIGHT, "2");
+        List<EgressBudget.Lease> manyTasks = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            manyTasks.add(EgressBudget.acquire(config()));
+        }
+        props.put("name", "one-task");
+        props.put(DatadogLogsSinkConnectorConfig.EGRESS_WEIGHT, "1");
+        EgressBudget.Lease oneTask = EgressBudget.acquire(config());
+        try {
+            long now = System.nanoTime() + EgressBudget.SHARE_REFRESH_NANOS;
+            for (EgressBudget.Lease lease : manyTasks) {
+                lease.reserve(0, now);
+            }
+            oneTask.reserve(0, now);
+            now += EgressBudget.SHARE_REFRESH_NANOS;
+
+            // Two thirds of the budget for the first connector, split among its tasks: 8 requests per second,
+            // and a request every 375ms for each of them. A third for the second one: a request every 250ms.
+            for (EgressBudget.Lease lease : manyTasks) {
+                Assert.assertEquals(375 * MILLIS, interval(lease, now), MILLIS);
+            }
+            Assert.assertEquals(250 * MILLIS, interval(oneTask, now), MILLIS);
+        } finally {
+            for (EgressBudget.Lease lease : manyTasks) {
+                lease.close();
+            }
+            oneTask.close();
+        }
+    }
+
+    @Test
+    public void acquire_givenDifferentLimits_sharesTheLowestOfThem() {
+        props.put(DatadogLogsSinkConnectorConfig.EGRESS_REQUESTS_PER_SECOND, "10");
+        EgressBudget.Lease loose = EgressBudget.acquire(config());
+        props.put(DatadogLogsSinkConnectorConfig.EGRESS_REQUESTS_PER_SECOND, "0");
+        props.put(DatadogLogsSinkConnectorConfig.EGRESS_BYTES_PER_SECOND, "1000");
+        EgressBudget.Lease strict = EgressBudget.acquire(config());
+        try {
+            // The bytes limit of the second connector applies to the first one as well.
+            long now = System.nanoTime();
+            Assert.assertEquals(0, loose.reserve(2000, now));
+            Assert.assertEquals(1000 * MILLIS, loose.reserve(0, now));
+
+            // Until the second connector is stopped.
+            strict.close();
+            Assert.assertEquals(0, loose.reserve(2000, now));
+        } finally {
+            loose.close();
+            strict.close();
+        }
+    }
+
+    @Test
+    public void close_lastLease_dropsTheBudget() {
+        props.put(DatadogLogsSinkConnectorConfig.EGRESS_REQUESTS_PER_SECOND, "1");
+        EgressBudget.Lease first = EgressBudget.acquire(config());
+        long now = System.nanoTime();
+        first.reserve(0, now);
+        first.reserve(0, now);
+        first.close();
+        first.close();
+
+        // A new budget, whose burst is available again.
+        try (EgressBudget.Lease second = EgressBudget.acquire(config())) {
+            Assert.assertEquals(0, second.reserve(0, now));
+        }
+    }
+
+    private DatadogLogsSinkConnectorConfig config() {
+        return new DatadogLogsSinkConnectorConfig(false, 500, props);
+    }
+
+    // The time between two requests of a task once its burst is spent.
+    private static long interval(EgressBudget.Lease lease, long now) {
+        long wait = 0;
+        while (wait == 0) {
+            wait = lease.reserve(0, now);
+        }
+        return lease.reserve(0, now) - wait;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+public class FieldPathTest {
+
+    @Test
+    public void read_givenNestedStruct_returnsField() {
+        Schema httpSchema = SchemaBuilder.struct().field("status", Schema.INT32_SCHEMA).build();
+        Schema schema = SchemaBuilder.struct().field("http", httpSchema).build();
+        Struct value = new Struct(schema).put("http", new Struct(httpSchema).put("status", 503));
+
+        Assert.assertEquals(503, FieldPath.compile("$.http.status").read(value));
+        Assert.assertEquals(503, FieldPath.compile("http.status").read(value));
+        Assert.assertNull(FieldPath.compile("$.http.missing").read(value));
+    }
+
+    @Test
+    public void read_givenMapsAndLists_followsIndexesAndQuotedNames() {
+        Map<String, Object> value = Collections.singletonMap("service.name",
+                Arrays.asList(Collections.singletonMap("tag", "env:prod"), "second"));
+
+        Assert.assertEquals("env:prod", FieldPath.compile("$['service.name'][0].tag").read(value));
+        Assert.assertEquals("second", FieldPath.compile("$[\"service.name\"][1]").read(value));
+        Assert.assertNull(FieldPath.compile("$['service.name'][2]").read(value));
+        Assert.assertNull(FieldPath.compile("$.service").read("not a map"));
+    }
+
+    @Test
+    public void compile_givenInvalidPath_throws() {
+        for (String path : Arrays.asList("$", "$.a..b", "a[0", "a[x]")) {
+            try {
+                FieldPath.compile(path);
+                Assert.fail("Expected " + path + " to be rejected");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+}
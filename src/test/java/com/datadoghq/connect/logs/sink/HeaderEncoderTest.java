@@ -0,0 +1,79 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.header.ConnectHeaders;
+import org.apache.kafka.connect.header.Headers;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class HeaderEncoderTest {
+
+    @Test
+    public void write_givenTypedHeaders_writesJsonValues() {
+        Schema schema = SchemaBuilder.struct().field("id", Schema.INT32_SCHEMA).build();
+        Headers headers = new ConnectHeaders()
+                .addString("string", "value \"quoted\"")
+                .addInt("int", 42)
+                .addBoolean("bool", true)
+                .addStruct("struct", new Struct(schema).put("id", 7))
+                .addList("list", Arrays.asList("a", "b"), SchemaBuilder.array(Schema.STRING_SCHEMA).build());
+
+        Assert.assertEquals("{\"string\":\"value \\\"quoted\\\"\",\"int\":42,\"bool\":true,\"struct\":{\"id\":7},\"list\":[\"a\",\"b\"]}",
+                write(new HeaderEncoder(Collections.emptyList(), HeaderEncoder.BytesFormat.UTF8), headers));
+    }
+
+    @Test
+    public void write_givenDuplicateKeys_keepsLastValue() {
+        Headers headers = new ConnectHeaders()
+                .addString("key", "first")
+                .addString("other", "value")
+                .addString("key", "last");
+
+        Assert.assertEquals("{\"other\":\"value\",\"key\":\"last\"}",
+                write(new HeaderEncoder(Collections.emptyList(), HeaderEncoder.BytesFormat.UTF8), headers));
+    }
+
+    @Test
+    public void write_givenAllowlist_onlyWritesAllowedHeaders() {
+        Headers headers = new ConnectHeaders()
+                .addString("traceparent", "00-abc-def-01")
+                .addString("secret", "hunter2");
+
+        Assert.assertEquals("{\"traceparent\":\"00-abc-def-01\"}",
+                write(new HeaderEncoder(Collections.singletonList("traceparent"), HeaderEncoder.BytesFormat.UTF8), headers));
+    }
+
+    @Test
+    public void write_givenBytes_decodesUtf8OrFallsBackToBase64() {
+        Headers headers = new ConnectHeaders()
+                .addBytes("text", "café".getBytes(StandardCharsets.UTF_8))
+                .addBytes("binary", new byte[]{(byte) 0xff, 0x00});
+
+        Assert.assertEquals("{\"text\":\"café\",\"binary\":\"/wA=\"}",
+                write(new HeaderEncoder(Collections.emptyList(), HeaderEncoder.BytesFormat.UTF8), headers));
+        Assert.assertEquals("{\"text\":\"Y2Fmw6k=\",\"binary\":\"/wA=\"}",
+                write(new HeaderEncoder(Collections.emptyList(), HeaderEncoder.BytesFormat.BASE64), headers));
+    }
+
+    @Test
+    public void write_givenNoHeaders_writesEmptyObject() {
+        Assert.assertEquals("{}", write(new HeaderEncoder(Collections.emptyList(), HeaderEncoder.BytesFormat.UTF8), new ConnectHeaders()));
+    }
+
+    private static String write(HeaderEncoder encoder, Headers headers) {
+        RecordBuffer out = new RecordBuffer(16);
+        encoder.write(out, headers);
+        return new String(out.array(), 0, out.size(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,54 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JsonValidatorTest {
+
+    private static boolean isValid(String json) {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        return JsonValidator.isValid(bytes, 0, bytes.length);
+    }
+
+    @Test
+    public void isValid_acceptsWellFormedJson() {
+        assertTrue(isValid("{}"));
+        assertTrue(isValid(" [ ] "));
+        assertTrue(isValid("{\"a\":[1,-2.5e3,0.0,true,false,null],\"b\":{\"c\":\"\\u00e9\\n\\\"\"}}"));
+        assertTrue(isValid("\"caf\u00e9\""));
+        assertTrue(isValid("-0"));
+        assertTrue(isValid("{\n  \"pretty\": \"printed\"\n}\n"));
+    }
+
+    @Test
+    public void isValid_rejectsMalformedJson() {
+        assertFalse(isValid(""));
+        assertFalse(isValid("plain text"));
+        assertFalse(isValid("{\"a\":"));
+        assertFalse(isValid("{\"a\":1,}"));
+        assertFalse(isValid("[1 2]"));
+        assertFalse(isValid("{a:1}"));
+        assertFalse(isValid("\"unterminated"));
+        assertFalse(isValid("\"bad escape \\x\""));
+        assertFalse(isValid("01"));
+        assertFalse(isValid("1."));
+        assertFalse(isValid("{} {}"));
+        assertFalse(isValid("nul"));
+    }
+
+    @Test
+    public void isValid_onlyReadsTheGivenRange() {
+        byte[] bytes = "[1][2".getBytes(StandardCharsets.UTF_8);
+        assertTrue(JsonValidator.isValid(bytes, 0, 3));
+        assertFalse(JsonValidator.isValid(bytes, 3, 2));
+    }
+}
@@ -0,0 +1,61 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+public class MetadataEnvelopeTest {
+    private Map<String, String> props;
+
+    @Before
+    public void setUp() {
+        props = new HashMap<>();
+        props.put(DatadogLogsSinkConnectorConfig.DD_API_KEY, "API_KEY");
+    }
+
+    @Test
+    public void topicFields_givenMetadata_encodesTagsHostnameAndService() {
+        props.put(DatadogLogsSinkConnectorConfig.DD_TAGS, "team:agent-core");
+        props.put(DatadogLogsSinkConnectorConfig.DD_HOSTNAME, "test-host");
+        props.put(DatadogLogsSinkConnectorConfig.DD_SERVICE, "test-service");
+        MetadataEnvelope envelope = new MetadataEnvelope(new DatadogLogsSinkConnectorConfig(false, 500, props));
+
+        Assert.assertEquals(",\"ddsource\":\"kafka-connect\"", utf8(envelope.source()));
+        Assert.assertEquals(",\"ddtags\":\"topic:some\\\"Topic,team:agent-core\",\"hostname\":\"test-host\",\"service\":\"test-service\"}",
+                utf8(envelope.topicFields("some\"Topic")));
+    }
+
+    @Test
+    public void topicFields_givenSameTopic_reusesBytes() {
+        MetadataEnvelope envelope = new MetadataEnvelope(new DatadogLogsSinkConnectorConfig(false, 500, props));
+
+        Assert.assertSame(envelope.topicFields("someTopic"), envelope.topicFields("someTopic"));
+        Assert.assertEquals(",\"ddtags\":\"topic:someTopic\"}", utf8(envelope.topicFields("someTopic")));
+    }
+
+    @Test
+    public void topicFields_givenManyTopics_evictsLeastRecentlyUsed() {
+        MetadataEnvelope envelope = new MetadataEnvelope(new DatadogLogsSinkConnectorConfig(false, 500, props));
+        byte[] first = envelope.topicFields("topic-0");
+
+        for (int i = 1; i <= MetadataEnvelope.MAX_CACHED_TOPICS; i++) {
+            envelope.topicFields("topic-" + i);
+        }
+
+        Assert.assertEquals(MetadataEnvelope.MAX_CACHED_TOPICS, envelope.cachedTopics());
+        Assert.assertNotSame(first, envelope.topicFields("topic-0"));
+    }
+
+    private static String utf8(byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
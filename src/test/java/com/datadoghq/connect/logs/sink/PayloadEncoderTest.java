@@ -0,0 +1,135 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+public class PayloadEncoderTest {
+    private BufferFreeList freeBuffers;
+    private PayloadEncoder encoder;
+
+    @Before
+    public void setUp() {
+        freeBuffers = new BufferFreeList(2, 16);
+        encoder = new PayloadEncoder(freeBuffers, new GzipCompressor(6));
+    }
+
+    @After
+    public void tearDown() {
+        encoder.close();
+    }
+
+    @Test
+    public void finish_givenEntries_producesGzipJsonArray() throws IOException {
+        encoder.begin();
+        append("{\"message\":\"a\"}");
+        append("{\"message\":\"b\"}");
+        Payload payload = encoder.finish();
+
+        Assert.assertEquals(2, payload.entries);
+        Assert.assertEquals("[{\"message\":\"a\"},{\"message\":\"b\"}]", gunzip(payload));
+        Assert.assertEquals(gunzip(payload).length(), payload.uncompressedBytes);
+    }
+
+    @Test
+    public void finish_givenReusedEncoderAndBuffers_producesIndependentPayloads() throws IOException {
+        encoder.begin();
+        append("\"first\"");
+        Payload first = encoder.finish();
+        String firstJson = gunzip(first);
+        freeBuffers.release(first.body);
+
+        encoder.begin();
+        append("\"second\"");
+        Payload second = encoder.finish();
+
+        Assert.assertSame(first.body, second.body);
+        Assert.assertEquals("[\"first\"]", firstJson);
+        Assert.assertEquals("[\"second\"]", gunzip(second));
+    }
+
+    @Test
+    public void finish_givenEntryLargerThanInputBuffer_producesWholeEntry() throws IOException {
+        StringBuilder large = new StringBuilder("\"");
+        for (int i = 0; i < 100000; i++) {
+            large.append((char) ('a' + i % 26));
+        }
+        large.append('"');
+
+        encoder.begin();
+        append("\"small\"");
+        append(large.toString());
+        append("\"small\"");
+
+        Assert.assertEquals("[\"small\"," + large + ",\"small\"]", gunzip(encoder.finish()));
+    }
+
+    @Test
+    public void freeList_countsTheDirectMemoryOfItsBuffers() throws IOException {
+        encoder.begin();
+        append("\"first\"");
+        Payload payload = encoder.finish();
+        Assert.assertTrue(payload.body.buffer().isDirect());
+        Assert.assertEquals(payload.body.capacity(), freeBuffers.allocatedBytes());
+
+        PayloadBuffer other = freeBuffers.acquire();
+        PayloadBuffer third = freeBuffers.acquire();
+        other.write(new byte[100]);
+        Assert.assertEquals(payload.body.capacity() + other.capacity() + third.capacity(), freeBuffers.allocatedBytes());
+
+        freeBuffers.release(payload.body);
+        freeBuffers.release(other);
+        // Beyond the size of the list, the buffer is left to the garbage collector.
+        freeBuffers.release(third);
+        Assert.assertEquals(payload.body.capacity() + other.capacity(), freeBuffers.allocatedBytes());
+    }
+
+    @Test
+    public void freeList_countsTheUncompressedBufferOfZstd() {
+        BufferFreeList zstdBuffers = new BufferFreeList(2, 16);
+        PayloadEncoder zstdEncoder = new PayloadEncoder(zstdBuffers, new ZstdCompressor(3, zstdBuffers));
+        zstdEncoder.begin();
+        byte[] entry = "\"entry\"".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < 1000; i++) {
+            zstdEncoder.append(entry, 0, entry.length);
+        }
+        Payload payload = zstdEncoder.finish();
+
+        // The buffer the batch was gathered in is counted along with the payload.
+        Assert.assertTrue(zstdBuffers.allocatedBytes() >= payload.body.capacity() + payload.uncompressedBytes);
+        zstdEncoder.close();
+        zstdBuffers.release(payload.body);
+    }
+
+    private void append(String entry) {
+        byte[] bytes = entry.getBytes(StandardCharsets.UTF_8);
+        encoder.append(bytes, 0, bytes.length);
+    }
+
+    private static String gunzip(Payload payload) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] compressed = new byte[payload.compressedBytes()];
+        payload.body.contents().get(compressed);
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
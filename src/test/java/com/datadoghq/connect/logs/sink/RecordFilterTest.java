@@ -0,0 +1,94 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class RecordFilterTest {
+    private Map<String, String> props;
+
+    @Before
+    public void setUp() {
+        props = new HashMap<>();
+        props.put(DatadogLogsSinkConnectorConfig.DD_API_KEY, "API_KEY");
+    }
+
+    @Test
+    public void accept_withDefaults_isDisabled() {
+        RecordFilter filter = new RecordFilter(new DatadogLogsSinkConnectorConfig(props));
+
+        Assert.assertFalse(filter.enabled());
+        Assert.assertTrue(filter.accept(record("someTopic", "someKey", "debug", 0), 0));
+    }
+
+    @Test
+    public void accept_dropsExcludedTopicsAndFieldValues() {
+        props.put(DatadogLogsSinkConnectorConfig.FILTER_TOPICS_EXCLUDE, "noisyTopic");
+        props.put(DatadogLogsSinkConnectorConfig.FILTER_FIELD, "$.level");
+        props.put(DatadogLogsSinkConnectorConfig.FILTER_FIELD_EXCLUDE, "debug,trace");
+        RecordFilter filter = new RecordFilter(new DatadogLogsSinkConnectorConfig(props));
+
+        Assert.assertFalse(filter.accept(record("noisyTopic", "someKey", "error", 0), 0));
+        Assert.assertFalse(filter.accept(record("someTopic", "someKey", "debug", 0), 0));
+        Assert.assertTrue(filter.accept(record("someTopic", "someKey", "error", 0), 0));
+        Assert.assertTrue(filter.accept(new SinkRecord("someTopic", 0, null, "someKey", null, "notAMap", 0), 0));
+    }
+
+    @Test
+    public void accept_samplesByKey_deterministically() {
+        props.put(DatadogLogsSinkConnectorConfig.SAMPLE_RATE, "0.25");
+        RecordFilter filter = new RecordFilter(new DatadogLogsSinkConnectorConfig(props));
+        RecordFilter other = new RecordFilter(new DatadogLogsSinkConnectorConfig(props));
+
+        int kept = 0;
+        for (int i = 0; i < 10000; i++) {
+            boolean accepted = filter.accept(record("someTopic", "key-" + i, "info", i), 0);
+            Assert.assertEquals(accepted, other.accept(record("otherTopic", "key-" + i, "debug", 0), 0));
+            if (accepted) {
+                kept++;
+            }
+        }
+        Assert.assertEquals(2500, kept, 200);
+    }
+
+    @Test
+    public void accept_withSampledValues_onlySamplesThose() {
+        props.put(DatadogLogsSinkConnectorConfig.FILTER_FIELD, "$.level");
+        props.put(DatadogLogsSinkConnectorConfig.SAMPLE_RATE, "0");
+        props.put(DatadogLogsSinkConnectorConfig.SAMPLE_VALUES, "info");
+        RecordFilter filter = new RecordFilter(new DatadogLogsSinkConnectorConfig(props));
+
+        Assert.assertFalse(filter.accept(record("someTopic", "someKey", "info", 0), 0));
+        Assert.assertTrue(filter.accept(record("someTopic", "someKey", "error", 0), 0));
+    }
+
+    @Test
+    public void accept_withRateLimit_dropsRecordsBeyondItPerTopic() {
+        props.put(DatadogLogsSinkConnectorConfig.RATE_LIMIT_RECORDS_PER_SECOND, "2");
+        RecordFilter filter = new RecordFilter(new DatadogLogsSinkConnectorConfig(props));
+
+        Assert.assertTrue(filter.accept(record("someTopic", "someKey", "info", 0), 0));
+        Assert.assertTrue(filter.accept(record("someTopic", "someKey", "info", 1), 0));
+        Assert.assertFalse(filter.accept(record("someTopic", "someKey", "info", 2), 0));
+        Assert.assertTrue(filter.accept(record("otherTopic", "someKey", "info", 0), 0));
+
+        long halfSecond = TimeUnit.MILLISECONDS.toNanos(500);
+        Assert.assertTrue(filter.accept(record("someTopic", "someKey", "info", 3), halfSecond));
+        Assert.assertFalse(filter.accept(record("someTopic", "someKey", "info", 4), halfSecond));
+    }
+
+    private static SinkRecord record(String topic, String key, String level, long offset) {
+        return new SinkRecord(topic, 0, null, key, null, Collections.singletonMap("level", level), offset);
+    }
+}
@@ -0,0 +1,155 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import org.apache.kafka.connect.data.Date;
+import org.apache.kafka.connect.data.Decimal;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.data.Time;
+import org.apache.kafka.connect.data.Timestamp;
+import org.apache.kafka.connect.errors.DataException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+public class SchemaSerializersTest {
+    private static final Schema INNER = SchemaBuilder.struct()
+            .field("flag", Schema.OPTIONAL_BOOLEAN_SCHEMA)
+            .field("name \"quoted\"", Schema.OPTIONAL_STRING_SCHEMA)
+            .optional()
+            .build();
+    private static final Schema SCHEMA = SchemaBuilder.struct()
+            .field("int8", Schema.INT8_SCHEMA)
+            .field("int32", Schema.INT32_SCHEMA)
+            .field("int64", Schema.INT64_SCHEMA)
+            .field("float32", Schema.FLOAT32_SCHEMA)
+            .field("float64", Schema.FLOAT64_SCHEMA)
+            .field("nan32", Schema.FLOAT32_SCHEMA)
+            .field("infinity64", Schema.FLOAT64_SCHEMA)
+            .field("string", Schema.STRING_SCHEMA)
+            .field("optional", Schema.OPTIONAL_STRING_SCHEMA)
+            .field("defaulted", SchemaBuilder.string().defaultValue("default").build())
+            .field("bytes", Schema.BYTES_SCHEMA)
+            .field("decimal", Decimal.schema(2))
+            .field("date", Date.SCHEMA)
+            .field("time", Time.SCHEMA)
+            .field("timestamp", Timestamp.SCHEMA)
+            .field("array", SchemaBuilder.array(INNER).build())
+            .field("map", SchemaBuilder.map(Schema.STRING_SCHEMA, Schema.OPTIONAL_INT32_SCHEMA).build())
+            .field("intMap", SchemaBuilder.map(Schema.INT32_SCHEMA, INNER).build())
+            .field("inner", INNER)
+            .field("empty", SchemaBuilder.struct().optional().build())
+            .build();
+
+    private final SchemaSerializers serializers = new SchemaSerializers();
+
+    private String serialize(Schema schema, Object value) {
+        RecordBuffer out = new RecordBuffer(16);
+        serializers.writeValue(out, schema, value);
+        return new String(out.array(), 0, out.size(), StandardCharsets.UTF_8);
+    }
+
+    private static String interpreted(Schema schema, Object value) {
+        RecordBuffer out = new RecordBuffer(16);
+        ConnectJsonSerializer.writeValue(out, schema, value);
+        return new String(out.array(), 0, out.size(), StandardCharsets.UTF_8);
+    }
+
+    private static Struct struct() {
+        Map<String, Integer> map = new LinkedHashMap<>();
+        map.put("k1", 1);
+        map.put("k2", null);
+        Map<Integer, Struct> intMap = new LinkedHashMap<>();
+        intMap.put(1, new Struct(INNER).put("flag", false));
+
+        return new Struct(SCHEMA)
+                .put("int8", (byte) 1)
+                .put("int32", 3)
+                .put("int64", Long.MIN_VALUE)
+                .put("float32", 5.5f)
+                .put("float64", 1.0E10)
+                .put("nan32", Float.NaN)
+                .put("infinity64", Double.NEGATIVE_INFINITY)
+                .put("string", "seven é\n")
+                .put("bytes", new byte[]{8, (byte) 0xFF})
+                .put("decimal", new BigDecimal("1.56"))
+                .put("date", new java.util.Date(86_400_000L * 3))
+                .put("time", new java.util.Date(12_345L))
+                .put("timestamp", new java.util.Date(1713974401224L))
+                .put("array", Arrays.asList(new Struct(INNER).put("flag", true).put("name \"quoted\"", "x"), null))
+                .put("map", map)
+                .put("intMap", intMap)
+                .put("inner", new Struct(INNER))
+                .put("empty", new Struct(SCHEMA.field("empty").schema()));
+    }
+
+    @Test
+    public void writeValue_writesStructsLikeTheInterpretedSerializer() {
+        Struct struct = struct();
+
+        String expected = interpreted(SCHEMA, struct);
+        Assert.assertTrue(expected.contains("\"nan32\":\"NaN\",\"infinity64\":\"-Infinity\""));
+        assertEquals(expected, serialize(SCHEMA, struct));
+        // Second time through the cached writers.
+        assertEquals(expected, serialize(SCHEMA, struct));
+    }
+
+    @Test
+    public void writeValue_leavesOtherValuesToTheInterpretedSerializer() {
+        Map<String, Object> map = Collections.singletonMap("a", 1);
+
+        assertEquals("{\"a\":1}", serialize(null, map));
+        assertEquals("\"value\"", serialize(Schema.STRING_SCHEMA, "value"));
+        assertEquals(0, serializers.cachedSchemas());
+        assertEquals("null", serialize(INNER, null));
+    }
+
+    @Test
+    public void writeValue_givenEqualSchemaInstance_writesTheStruct() {
+        Schema copy = SchemaBuilder.struct()
+                .field("flag", Schema.OPTIONAL_BOOLEAN_SCHEMA)
+                .field("name \"quoted\"", Schema.OPTIONAL_STRING_SCHEMA)
+                .optional()
+                .build();
+
+        assertEquals("{\"flag\":true,\"name \\\"quoted\\\"\":null}", serialize(INNER, new Struct(copy).put("flag", true)));
+    }
+
+    @Test
+    public void writeValue_givenInvalidValues_throwsDataException() {
+        Schema other = SchemaBuilder.struct().field("flag", Schema.BOOLEAN_SCHEMA).build();
+        Struct missing = new Struct(SchemaBuilder.struct().field("required", Schema.STRING_SCHEMA).build());
+
+        assertThrows(DataException.class, () -> serialize(INNER, new Struct(other).put("flag", true)));
+        assertThrows(DataException.class, () -> serialize(missing.schema(), missing));
+        assertThrows(DataException.class, () -> serialize(SCHEMA, "not a struct"));
+    }
+
+    @Test
+    public void writeValue_cachesSchemasByIdentity_upToTheLimit() {
+        for (int i = 0; i < 2; i++) {
+            serialize(SCHEMA, struct());
+        }
+        Assert.assertEquals(1, serializers.cachedSchemas());
+
+        for (int i = 0; i <= SchemaSerializers.MAX_CACHED_SCHEMAS; i++) {
+            Schema schema = SchemaBuilder.struct().field("field", Schema.INT32_SCHEMA).build();
+            assertEquals("{\"field\":" + i + "}", serialize(schema, new Struct(schema).put("field", i)));
+        }
+        Assert.assertEquals(SchemaSerializers.MAX_CACHED_SCHEMAS, serializers.cachedSchemas());
+    }
+}
@@ -0,0 +1,93 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.core5.reactor.IOReactorStatus;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class SharedHttpClientsTest {
+    private Map<String, String> props;
+
+    @Before
+    public void setUp() {
+        props = new HashMap<>();
+        props.put(DatadogLogsSinkConnectorConfig.DD_API_KEY, "API_KEY");
+        // Settings no other test uses, so that the clients are not shared with them.
+        props.put(DatadogLogsSinkConnectorConfig.HTTP_MAX_CONNECTIONS, "7");
+    }
+
+    @Test
+    public void acquire_givenSameSettings_sharesClientUntilLastLeaseIsClosed() {
+        SharedHttpClients.Lease first = acquire();
+        SharedHttpClients.Lease second = acquire();
+
+        Assert.assertSame(first.client(), second.client());
+
+        first.close();
+        first.close();
+        Assert.assertFalse(isShutDown(second.client()));
+
+        second.close();
+        Assert.assertTrue(isShutDown(second.client()));
+    }
+
+    @Test
+    public void acquire_afterAllLeasesClosed_createsNewClient() {
+        SharedHttpClients.Lease first = acquire();
+        first.close();
+
+        SharedHttpClients.Lease second = acquire();
+        Assert.assertNotSame(first.client(), second.client());
+        Assert.assertFalse(isShutDown(second.client()));
+        second.close();
+    }
+
+    @Test
+    public void acquire_givenDifferentSettings_createsSeparateClients() {
+        SharedHttpClients.Lease first = acquire();
+        props.put(DatadogLogsSinkConnectorConfig.HTTP_VERSION, "negotiate");
+        SharedHttpClients.Lease second = acquire();
+
+        Assert.assertNotSame(first.client(), second.client());
+        first.close();
+        second.close();
+    }
+
+    @Test
+    public void acquire_givenDifferentDestinations_createsSeparateClients() {
+        props.put(DatadogLogsSinkConnectorConfig.DESTINATIONS, "other");
+        props.put("datadog.destination.other.url", "localhost:8080");
+        props.put("datadog.destination.other.api_key", "OTHER_API_KEY");
+        props.put("datadog.destination.other.match", "someTopic");
+        DatadogLogsSinkConnectorConfig config = config();
+
+        SharedHttpClients.Lease first = SharedHttpClients.acquire(config, config.destinations.get(0));
+        SharedHttpClients.Lease second = SharedHttpClients.acquire(config, config.destinations.get(1));
+
+        Assert.assertNotSame(first.client(), second.client());
+        first.close();
+        second.close();
+    }
+
+    private SharedHttpClients.Lease acquire() {
+        DatadogLogsSinkConnectorConfig config = config();
+        return SharedHttpClients.acquire(config, config.destinations.get(0));
+    }
+
+    private static boolean isShutDown(CloseableHttpAsyncClient client) {
+        return client.getStatus() == IOReactorStatus.SHUTTING_DOWN || client.getStatus() == IOReactorStatus.SHUT_DOWN;
+    }
+
+    private DatadogLogsSinkConnectorConfig config() {
+        return new DatadogLogsSinkConnectorConfig(false, 500, props);
+    }
+}
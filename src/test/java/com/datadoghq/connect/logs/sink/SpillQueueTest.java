@@ -0,0 +1,164 @@
+/*
+Unless explicitly stated otherwise all files in this repository are licensed under the Apache-2.0 License.
+This product includes software developed at Datadog (https://www.datadoghq.com/). Copyright 2020 Datadog, Inc.
+ */
+
+package com.datadoghq.connect.logs.sink;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+public class SpillQueueTest {
+    private static final int SEGMENT_BYTES = 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void next_returnsPayloadsInOrder_andRetriesFailedOnesFirst() throws IOException {
+        try (SpillQueue queue = SpillQueue.open(folder.getRoot().toPath(), 4 * SEGMENT_BYTES, SEGMENT_BYTES)) {
+            Assert.assertTrue(queue.isEmpty());
+            Assert.assertTrue(queue.append(payload("first", 1)));
+            Assert.assertTrue(queue.append(payload("second", 2)));
+            queue.sync();
+            Assert.assertFalse(queue.isEmpty());
+
+            SpillQueue.Entry first = queue.next(new PayloadBuffer(16, null));
+            Assert.assertEquals("first", body(first));
+            Assert.assertEquals(1, first.payload.entries);
+            SpillQueue.Entry second = queue.next(new PayloadBuffer(16, null));
+            Assert.assertEquals("second", body(second));
+            Assert.assertNull(queue.next(new PayloadBuffer(16, null)));
+
+            queue.failed(first);
+            Assert.assertSame(first, queue.next(new PayloadBuffer(16, null)));
+            queue.delivered(second);
+            Assert.assertFalse(queue.isEmpty());
+            queue.delivered(first);
+            Assert.assertTrue(queue.isEmpty());
+        }
+    }
+
+    @Test
+    public void open_recoversPayloadsNotDelivered() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (SpillQueue queue = SpillQueue.open(directory, 4 * SEGMENT_BYTES, SEGMENT_BYTES)) {
+            for (int i = 0; i < 3; i++) {
+                queue.append(payload("payload" + i, 1));
+            }
+            queue.sync();
+            queue.delivered(queue.next(new PayloadBuffer(16, null)));
+            // Read but not delivered when the queue is closed.
+            queue.next(new PayloadBuffer(16, null));
+        }
+
+        try (SpillQueue queue = SpillQueue.open(directory, 4 * SEGMENT_BYTES, SEGMENT_BYTES)) {
+            Assert.assertEquals("payload1", body(queue.next(new PayloadBuffer(16, null))));
+            Assert.assertEquals("payload2", body(queue.next(new PayloadBuffer(16, null))));
+            Assert.assertNull(queue.next(new PayloadBuffer(16, null)));
+        }
+    }
+
+    @Test
+    public void open_ignoresTornWrites() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (SpillQueue queue = SpillQueue.open(directory, 4 * SEGMENT_BYTES, SEGMENT_BYTES)) {
+            queue.append(payload("complete", 1));
+            queue.append(payload("torn", 1));
+            queue.sync();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            Path segment = files.filter(file -> file.toString().endsWith(".segment")).findFirst().get();
+            try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+                // Corrupt the last byte of the second body.
+                int position = 2 * SpillQueue.ENTRY_HEADER_BYTES + "complete".length() + "torn".length() - 1;
+                file.seek(position);
+                file.write('X');
+            }
+        }
+
+        try (SpillQueue queue = SpillQueue.open(directory, 4 * SEGMENT_BYTES, SEGMENT_BYTES)) {
+            Assert.assertEquals("complete", body(queue.next(new PayloadBuffer(16, null))));
+            Assert.assertNull(queue.next(new PayloadBuffer(16, null)));
+            Assert.assertTrue(queue.append(payload("after", 1)));
+            Assert.assertEquals("after", body(queue.next(new PayloadBuffer(16, null))));
+        }
+    }
+
+    @Test
+    public void append_refusesPayloadsBeyondMaxBytes_andDeletesDeliveredSegments() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        String body = new String(new char[400]).replace('\0', 'a');
+        try (SpillQueue queue = SpillQueue.open(directory, 2 * SEGMENT_BYTES, SEGMENT_BYTES)) {
+            Assert.assertFalse(queue.append(payload(new String(new char[SEGMENT_BYTES]), 1)));
+            for (int i = 0; i < 4; i++) {
+                Assert.assertTrue(queue.append(payload(body, 1)));
+            }
+            Assert.assertFalse(queue.append(payload(body, 1)));
+            Assert.assertEquals(2 * SEGMENT_BYTES, queue.sizeBytes());
+
+            for (int i = 0; i < 3; i++) {
+                queue.delivered(queue.next(new PayloadBuffer(16, null)));
+            }
+            Assert.assertEquals(SEGMENT_BYTES, queue.sizeBytes());
+            Assert.assertEquals(1, countSegments(directory));
+            Assert.assertTrue(queue.append(payload(body, 1)));
+        }
+    }
+
+    @Test
+    public void delivered_givenEveryPayload_startsOverAndRecoversTheNextOnes() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (SpillQueue queue = SpillQueue.open(directory, 4 * SEGMENT_BYTES, SEGMENT_BYTES)) {
+            queue.append(payload("a longer first payload", 1));
+            queue.append(payload("second", 1));
+            queue.sync();
+            queue.delivered(queue.next(new PayloadBuffer(16, null)));
+            queue.delivered(queue.next(new PayloadBuffer(16, null)));
+            Assert.assertTrue(queue.isEmpty());
+
+            // Written over the payloads delivered, which the head no longer points past.
+            queue.append(payload("next", 1));
+            queue.sync();
+        }
+
+        try (SpillQueue queue = SpillQueue.open(directory, 4 * SEGMENT_BYTES, SEGMENT_BYTES)) {
+            Assert.assertEquals("next", body(queue.next(new PayloadBuffer(16, null))));
+            Assert.assertNull(queue.next(new PayloadBuffer(16, null)));
+        }
+        Assert.assertEquals(1, countSegments(directory));
+    }
+
+    @Test(expected = IOException.class)
+    public void open_givenLockedDirectory_shouldThrowException() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        try (SpillQueue queue = SpillQueue.open(directory, 4 * SEGMENT_BYTES, SEGMENT_BYTES)) {
+            SpillQueue.open(directory, 4 * SEGMENT_BYTES, SEGMENT_BYTES);
+        }
+    }
+
+    private static long countSegments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".segment")).count();
+        }
+    }
+
+    private static Payload payload(String body, int entries) {
+        PayloadBuffer buffer = new PayloadBuffer(16, null);
+        buffer.write(body.getBytes(StandardCharsets.UTF_8));
+        return new Payload(buffer, entries, body.length());
+    }
+
+    private static String body(SpillQueue.Entry entry) {
+        return StandardCharsets.UTF_8.decode(entry.payload.body.contents()).toString();
+    }
+}
@@ -5,6 +5,7 @@ This product includes software developed at Datadog (https://www.datadoghq.com/)
 
 package com.datadoghq.connect.logs.sink.util;
 
+import com.github.luben.zstd.ZstdInputStream;
 import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
@@ -16,6 +17,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.zip.GZIPInputStream;
@@ -23,8 +25,10 @@ import java.util.zip.GZIPInputStream;
 public class RestHelper extends HttpServlet {
 
     private Server server;
-    private final List<RequestInfo> capturedRequests = new ArrayList<RequestInfo>();
+    private final List<RequestInfo> capturedRequests = Collections.synchronizedList(new ArrayList<RequestInfo>());
     private int statusCode = HttpServletResponse.SC_OK;
+    private String failingBodyMarker;
+    private int failingStatusCode;
 
     public void start() throws Exception {
         server = new Server();
@@ -48,11 +52,22 @@ public class RestHelper extends HttpServlet {
         this.statusCode = statusCode;
     }
 
+    /**
+     * Answers with {@code statusCode} the requests whose body contains {@code marker}, and with the default
+     * status code the others. A null marker stops failing requests.
+     */
+    public void failRequestsContaining(String marker, int statusCode) {
+        this.failingBodyMarker = marker;
+        this.failingStatusCode = statusCode;
+    }
+
     protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
-        capturedRequests.add(getRequestInfo(request));
+        RequestInfo requestInfo = getRequestInfo(request);
+        capturedRequests.add(requestInfo);
 
+        String marker = failingBodyMarker;
         response.setContentType("application/json");
-        response.setStatus(statusCode);
+        response.setStatus(marker != null && requestInfo.getBody().contains(marker) ? failingStatusCode : statusCode);
     }
 
     private RequestInfo getRequestInfo(HttpServletRequest request) throws IOException {
@@ -61,7 +76,15 @@ public class RestHelper extends HttpServlet {
         // Read from request
         byte[] buffer = new byte[1024];
         InputStream is = request.getInputStream();
-        GZIPInputStream gis = new GZIPInputStream(is);
+        String contentEncoding = request.getHeader("Content-Encoding");
+        InputStream gis;
+        if ("gzip".equals(contentEncoding)) {
+            gis = new GZIPInputStream(is);
+        } else if ("zstd".equals(contentEncoding)) {
+            gis = new ZstdInputStream(is);
+        } else {
+            gis = is;
+        }
         ByteArrayOutputStream bos = new ByteArrayOutputStream();
         int bytes_read;
         while ((bytes_read = gis.read(buffer)) != -1) {